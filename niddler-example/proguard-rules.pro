@@ -0,0 +1,12 @@
+# Retrofit
+-dontwarn okio.**
+-dontwarn okhttp3.**
+-dontwarn retrofit2.**
+-dontwarn javax.annotation.**
+-keepattributes Signature, Exceptions, *Annotation*
+-keepclassmembers,allowshrinking,allowobfuscation interface * {
+    @retrofit2.http.* <methods>;
+}
+
+# Gson models
+-keep class com.icapps.sampleapplication.api.Post { *; }
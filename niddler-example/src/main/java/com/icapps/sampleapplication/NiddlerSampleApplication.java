@@ -28,8 +28,7 @@ public class NiddlerSampleApplication extends Application {
 
 		niddler.attachToApplication(this);
 
-		final OkHttpClient okHttpClient = new OkHttpClient.Builder()
-				.addInterceptor(new NiddlerOkHttpInterceptor(niddler))
+		final OkHttpClient okHttpClient = NiddlerOkHttpInterceptor.install(new OkHttpClient.Builder(), niddler)
 				.build();
 
 		Retrofit jsonRetrofit = new Retrofit.Builder()
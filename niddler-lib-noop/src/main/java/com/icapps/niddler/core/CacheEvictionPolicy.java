@@ -0,0 +1,22 @@
+package com.icapps.niddler.core;
+
+/**
+ * @author Nicola Verbeeck
+ */
+@SuppressWarnings("unused")
+public interface CacheEvictionPolicy {
+
+	CacheEvictionPolicy FIFO = new CacheEvictionPolicy() {
+		@Override
+		public long priority(final long sequence, final long size, final int statusCode, final int durationMillis) {
+			return sequence;
+		}
+	};
+
+	CacheEvictionPolicy SIZE_WEIGHTED = FIFO;
+
+	CacheEvictionPolicy ERRORS_AND_SLOW_LAST = FIFO;
+
+	long priority(final long sequence, final long size, final int statusCode, final int durationMillis);
+
+}
@@ -4,7 +4,10 @@ package com.icapps.niddler.core;
 import android.app.Application;
 
 import java.io.Closeable;
+import java.io.File;
 import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
 
 /**
  * @author Maarten Van Giel
@@ -59,6 +62,46 @@ public final class Niddler implements Closeable {
 		return false;
 	}
 
+	public void setCaptureEnabled(final boolean enabled) {
+	}
+
+	@SuppressWarnings("MethodMayBeStatic")
+	public boolean isCaptureEnabled() {
+		return false;
+	}
+
+	public void registerCommandListener(final String type, final NiddlerCommandListener listener) {
+		// Do nothing
+	}
+
+	public void unregisterCommandListener(final String type, final NiddlerCommandListener listener) {
+		// Do nothing
+	}
+
+	public long getCacheBudget() {
+		return 0L;
+	}
+
+	public void recordInterceptorTime(final long nanos) {
+	}
+
+	@SuppressWarnings("MethodMayBeStatic")
+	public NiddlerStats getStats() {
+		return new NiddlerStats();
+	}
+
+	public int exportHar(final Writer out) throws IOException {
+		return 0;
+	}
+
+	public int exportHar(final File file) throws IOException {
+		return 0;
+	}
+
+	public int importHar(final Reader in) throws IOException {
+		return 0;
+	}
+
 	@SuppressWarnings("WeakerAccess")
 	public static final class NiddlerServerInfo {
 
@@ -116,6 +159,50 @@ public final class Niddler implements Closeable {
 			return this;
 		}
 
+		/**
+		 * Configures how messages are coalesced into batch frames for clients that opt in to batching during the handshake.
+		 * Use a window of 0 to disable batching
+		 *
+		 * @param windowMillis The maximum time, in milliseconds, a message is held back waiting for other messages
+		 * @param maxBatchSize The size of the batch, in characters, after which the batch is sent immediately
+		 * @return Builder
+		 */
+		public Builder setMessageBatching(final long windowMillis, final int maxBatchSize) {
+			return this;
+		}
+
+		public Builder setCacheEvictionPolicy(final CacheEvictionPolicy evictionPolicy) {
+			return this;
+		}
+
+		public Builder setDiskCacheSize(final long diskCacheSize) {
+			return this;
+		}
+
+		public Builder setSearchIndexEnabled(final boolean enabled) {
+			return this;
+		}
+
+		public Builder setLazyStart(final boolean lazyStart) {
+			return this;
+		}
+
+		public Builder setRouteStatsEnabled(final boolean enabled) {
+			return this;
+		}
+
+		public Builder addRouteTemplate(final String template) {
+			return this;
+		}
+
+		public Builder setRedundantCallDetection(final long windowMillis) {
+			return this;
+		}
+
+		public Builder setPayloadAnalysis(final int sampleRate) {
+			return this;
+		}
+
 		/**
 		 * Builds a Niddler instance with the configured parameters
 		 *
@@ -0,0 +1,12 @@
+package com.icapps.niddler.core;
+
+import org.json.JSONObject;
+
+/**
+ * @author Nicola Verbeeck
+ */
+public interface NiddlerCommandListener {
+
+	String onCommand(final JSONObject command);
+
+}
@@ -0,0 +1,103 @@
+package com.icapps.niddler.core;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * @author Nicola Verbeeck
+ */
+@SuppressWarnings({"unused", "MethodMayBeStatic"})
+public final class NiddlerStats {
+
+	NiddlerStats() {
+		// Dummy implementation
+	}
+
+	public long getInterceptedCalls() {
+		return 0L;
+	}
+
+	public long getInterceptorNanos() {
+		return 0L;
+	}
+
+	public long getInterceptorNanosPerCall() {
+		return 0L;
+	}
+
+	public long getSerializedMessages() {
+		return 0L;
+	}
+
+	public long getSerializationNanos() {
+		return 0L;
+	}
+
+	public long getSerializedCharacters() {
+		return 0L;
+	}
+
+	public long getEncodedFrames() {
+		return 0L;
+	}
+
+	public long getEncodedBytes() {
+		return 0L;
+	}
+
+	public int getQueueDepth() {
+		return 0;
+	}
+
+	public long getDroppedMessages() {
+		return 0L;
+	}
+
+	public long getCacheEvictions() {
+		return 0L;
+	}
+
+	public long getMemoryBytesHeld() {
+		return 0L;
+	}
+
+	public long getDiskBytesHeld() {
+		return 0L;
+	}
+
+	public List<ClientStats> getClients() {
+		return Collections.emptyList();
+	}
+
+	public static final class ClientStats {
+
+		private ClientStats() {
+			// Dummy implementation
+		}
+
+		public String getAddress() {
+			return "";
+		}
+
+		public long getMessagesSent() {
+			return 0L;
+		}
+
+		public long getSendNanos() {
+			return 0L;
+		}
+
+		public long getSendNanosPerMessage() {
+			return 0L;
+		}
+
+		public long getMaxSendNanos() {
+			return 0L;
+		}
+
+		public int getQueuedFrames() {
+			return 0;
+		}
+	}
+
+}
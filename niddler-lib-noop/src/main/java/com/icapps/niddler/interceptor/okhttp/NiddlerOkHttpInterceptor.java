@@ -1,12 +1,16 @@
 package com.icapps.niddler.interceptor.okhttp;
 
 import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
 
 import com.icapps.niddler.core.Niddler;
 
 import java.io.IOException;
 
+import okhttp3.Call;
+import okhttp3.EventListener;
 import okhttp3.Interceptor;
+import okhttp3.OkHttpClient;
 import okhttp3.Response;
 
 /**
@@ -19,11 +23,55 @@ public class NiddlerOkHttpInterceptor implements Interceptor {
         // Dummy implementation
     }
 
+    /**
+     * Does not add anything, so the client's interceptor chain is identical to a build without niddler
+     *
+     * @return The client builder, untouched
+     */
+    @NonNull
+    public static OkHttpClient.Builder install(@NonNull final OkHttpClient.Builder builder, @NonNull final Niddler niddler,
+            @NonNull final String... blacklist) {
+        return builder;
+    }
+
     public NiddlerOkHttpInterceptor blacklist(@NonNull final String urlPattern) {
         //Dummy implementation
         return this;
     }
 
+    public NiddlerOkHttpInterceptor traceContext(final boolean inject) {
+        //Dummy implementation
+        return this;
+    }
+
+    public NiddlerOkHttpInterceptor exportSpans(@NonNull final String endpoint, @NonNull final String serviceName) {
+        //Dummy implementation
+        return this;
+    }
+
+    public NiddlerOkHttpInterceptor stopExportingSpans() {
+        //Dummy implementation
+        return this;
+    }
+
+    /**
+     * Does not track anything, calls only reach the application's own event listener
+     *
+     * @return The application's factory, or a factory creating listeners that ignore all events
+     */
+    @NonNull
+    public EventListener.Factory connectionTracker(@Nullable final EventListener.Factory delegate) {
+        if (delegate != null) {
+            return delegate;
+        }
+        return new EventListener.Factory() {
+            @Override
+            public EventListener create(final Call call) {
+                return EventListener.NONE;
+            }
+        };
+    }
+
     @Override
     public Response intercept(final Chain chain) throws IOException {
         return chain.proceed(chain.request());
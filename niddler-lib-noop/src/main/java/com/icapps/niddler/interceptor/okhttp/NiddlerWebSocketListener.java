@@ -0,0 +1,25 @@
+package com.icapps.niddler.interceptor.okhttp;
+
+import android.support.annotation.NonNull;
+
+import com.icapps.niddler.core.Niddler;
+
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.WebSocket;
+import okhttp3.WebSocketListener;
+
+/**
+ * @author Nicola Verbeeck
+ */
+public final class NiddlerWebSocketListener {
+
+	private NiddlerWebSocketListener() {
+		// Dummy implementation
+	}
+
+	public static WebSocket newWebSocket(@NonNull final Niddler niddler, @NonNull final OkHttpClient client,
+			@NonNull final Request request, @NonNull final WebSocketListener listener) {
+		return client.newWebSocket(request, listener);
+	}
+}
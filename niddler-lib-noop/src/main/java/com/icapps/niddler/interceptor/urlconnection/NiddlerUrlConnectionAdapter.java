@@ -0,0 +1,29 @@
+package com.icapps.niddler.interceptor.urlconnection;
+
+import android.support.annotation.NonNull;
+
+import com.icapps.niddler.core.Niddler;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+
+/**
+ * @author Nicola Verbeeck
+ */
+@SuppressWarnings({"DesignForExtension", "MethodMayBeStatic"})
+public class NiddlerUrlConnectionAdapter {
+
+	public NiddlerUrlConnectionAdapter(final Niddler niddler) {
+		// Dummy implementation
+	}
+
+	public URLConnection open(@NonNull final URL url) throws IOException {
+		return url.openConnection();
+	}
+
+	public HttpURLConnection wrap(@NonNull final HttpURLConnection connection) {
+		return connection;
+	}
+}
@@ -0,0 +1,84 @@
+package com.icapps.niddler.core;
+
+import android.os.Bundle;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.IOException;
+import java.util.Locale;
+
+/**
+ * Measures what creating and starting niddler costs the application's startup, with and without lazy start. Run every mode in a fresh
+ * process, the first (cold) run includes class loading:
+ * <pre>
+ * ./gradlew :niddler-lib:connectedAndroidTest -Pandroid.testInstrumentationRunnerArguments.mode=eager
+ * ./gradlew :niddler-lib:connectedAndroidTest -Pandroid.testInstrumentationRunnerArguments.mode=lazy
+ * </pre>
+ * The results are logged under the NiddlerStartupBenchmark tag and reported as instrumentation status
+ *
+ * @author Nicola Verbeeck
+ */
+@RunWith(AndroidJUnit4.class)
+public class StartupBenchmark {
+
+	private static final String LOG_TAG = "NiddlerStartupBenchmark";
+	private static final int WARM_RUNS = 50;
+	private static final long SETTLE_MILLIS = 200L; //Time the server gets to spin up its threads before they are counted
+
+	@Test
+	public void measureStartup() throws IOException, InterruptedException {
+		final String mode = InstrumentationRegistry.getArguments().getString("mode", "eager");
+		final boolean lazy = "lazy".equals(mode);
+
+		final int threadsBefore = Thread.activeCount();
+		final long coldStart = System.nanoTime();
+		final Niddler cold = build(lazy);
+		final long coldBuilt = System.nanoTime();
+		cold.start();
+		final long coldStarted = System.nanoTime();
+		Thread.sleep(SETTLE_MILLIS);
+		final int addedThreads = Thread.activeCount() - threadsBefore;
+		cold.close();
+
+		long warmBuild = 0L;
+		long warmStart = 0L;
+		for (int i = 0; i < WARM_RUNS; ++i) {
+			final long start = System.nanoTime();
+			final Niddler niddler = build(lazy);
+			final long built = System.nanoTime();
+			niddler.start();
+			warmBuild += built - start;
+			warmStart += System.nanoTime() - built;
+			niddler.close();
+		}
+
+		final Bundle results = new Bundle();
+		results.putString("mode", mode);
+		results.putDouble("coldBuildMillis", millis(coldBuilt - coldStart));
+		results.putDouble("coldStartMillis", millis(coldStarted - coldBuilt));
+		results.putInt("addedThreads", addedThreads);
+		results.putDouble("warmBuildMillis", millis(warmBuild) / WARM_RUNS);
+		results.putDouble("warmStartMillis", millis(warmStart) / WARM_RUNS);
+		Log.i(LOG_TAG, String.format(Locale.US, "%s: cold build %.2fms, start %.2fms, +%d threads, warm build %.3fms, start %.3fms",
+				mode, millis(coldBuilt - coldStart), millis(coldStarted - coldBuilt), addedThreads, millis(warmBuild) / WARM_RUNS,
+				millis(warmStart) / WARM_RUNS));
+		InstrumentationRegistry.getInstrumentation().sendStatus(0, results);
+	}
+
+	private static Niddler build(final boolean lazy) {
+		return new Niddler.Builder()
+				.setPort(0)
+				.setLazyStart(lazy)
+				.setNiddlerInformation(new Niddler.NiddlerServerInfo("benchmark", "Startup benchmark"))
+				.build();
+	}
+
+	private static double millis(final long nanos) {
+		return nanos / 1000000.0;
+	}
+
+}
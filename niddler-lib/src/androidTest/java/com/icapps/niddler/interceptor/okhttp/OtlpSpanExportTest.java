@@ -0,0 +1,162 @@
+package com.icapps.niddler.interceptor.okhttp;
+
+import android.support.test.runner.AndroidJUnit4;
+
+import com.icapps.niddler.core.Niddler;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.HttpUrl;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Exports the spans of calls to a stand-in collector and checks the batch it receives against the traceparent headers the backend saw
+ *
+ * @author Nicola Verbeeck
+ */
+@RunWith(AndroidJUnit4.class)
+public class OtlpSpanExportTest {
+
+	private static final String APP_TRACEPARENT = "00-4bf92f3577b34da6a3ce929d0e0e4736-00f067aa0ba902b7-01";
+
+	private MockWebServer mBackend;
+	private MockWebServer mCollector;
+	private Niddler mNiddler;
+
+	@Before
+	public void setUp() throws IOException {
+		mBackend = new MockWebServer();
+		mBackend.setDispatcher(new Dispatcher() {
+			@Override
+			public MockResponse dispatch(final RecordedRequest request) {
+				return new MockResponse().setResponseCode("/missing".equals(request.getPath()) ? 404 : 200);
+			}
+		});
+		mBackend.start();
+		mCollector = new MockWebServer();
+		mCollector.start();
+		mNiddler = new Niddler.Builder().setPort(0).setNiddlerInformation(new Niddler.NiddlerServerInfo("test", "Span export")).build();
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		mNiddler.close();
+		mBackend.shutdown();
+		mCollector.shutdown();
+	}
+
+	@Test
+	public void exportsSpansOfCallsNiddlerStartedATraceFor() throws IOException, InterruptedException, JSONException {
+		final NiddlerOkHttpInterceptor interceptor = new NiddlerOkHttpInterceptor(mNiddler)
+				.blacklist(".*/ignored")
+				.exportSpans(mCollector.url("/v1/traces").toString(), "test-service");
+		final OkHttpClient client = new OkHttpClient.Builder().addInterceptor(interceptor).build();
+
+		execute(client, new Request.Builder().url(mBackend.url("/ok")).build());
+		execute(client, new Request.Builder().url(mBackend.url("/missing")).build());
+		execute(client, new Request.Builder().url(mBackend.url("/traced")).header("traceparent", APP_TRACEPARENT).build());
+		execute(client, new Request.Builder().url(mBackend.url("/ignored")).build());
+		final HttpUrl unreachable = closedServerUrl();
+		try {
+			client.newCall(new Request.Builder().url(unreachable).build()).execute();
+			fail("Call to a closed port succeeded");
+		} catch (final IOException expected) {
+			//The failed call is exported with an error status
+		}
+
+		final Map<String, String> sentTraceParents = new HashMap<>();
+		for (int i = 0; i < 4; ++i) {
+			final RecordedRequest request = mBackend.takeRequest(5, TimeUnit.SECONDS);
+			sentTraceParents.put(request.getPath(), request.getHeader("traceparent"));
+		}
+		assertEquals(APP_TRACEPARENT, sentTraceParents.get("/traced"));
+		assertNull("Blacklisted calls must not be changed", sentTraceParents.get("/ignored"));
+
+		final RecordedRequest export = mCollector.takeRequest(5, TimeUnit.SECONDS);
+		assertNotNull("Collector received no spans", export);
+		assertEquals("POST", export.getMethod());
+		assertEquals("application/json", export.getHeader("Content-Type"));
+		final JSONObject resourceSpans = new JSONObject(export.getBody().readUtf8()).getJSONArray("resourceSpans").getJSONObject(0);
+		assertEquals("service.name", resourceSpans.getJSONObject("resource").getJSONArray("attributes").getJSONObject(0).getString("key"));
+		final JSONArray spans = resourceSpans.getJSONArray("scopeSpans").getJSONObject(0).getJSONArray("spans");
+		assertEquals("Only the calls niddler started a trace for are exported", 3, spans.length());
+
+		final JSONObject ok = findSpan(spans, mBackend.url("/ok").toString());
+		assertEquals(sentTraceParents.get("/ok").substring(3, 35), ok.getString("traceId"));
+		assertEquals(sentTraceParents.get("/ok").substring(36, 52), ok.getString("spanId"));
+		assertFalse(ok.has("status"));
+
+		final JSONObject missing = findSpan(spans, mBackend.url("/missing").toString());
+		assertEquals(sentTraceParents.get("/missing").substring(3, 35), missing.getString("traceId"));
+		assertEquals(2, missing.getJSONObject("status").getInt("code"));
+
+		final JSONObject failed = findSpan(spans, unreachable.toString());
+		assertEquals(2, failed.getJSONObject("status").getInt("code"));
+		assertTrue(failed.getJSONObject("status").has("message"));
+	}
+
+	@Test
+	public void stopsExportingWhenStopped() throws IOException, InterruptedException {
+		final NiddlerOkHttpInterceptor interceptor = new NiddlerOkHttpInterceptor(mNiddler)
+				.exportSpans(mCollector.url("/v1/traces").toString(), "test-service");
+		final OkHttpClient client = new OkHttpClient.Builder().addInterceptor(interceptor).build();
+
+		execute(client, new Request.Builder().url(mBackend.url("/before")).build());
+		interceptor.stopExportingSpans();
+		execute(client, new Request.Builder().url(mBackend.url("/after")).build());
+
+		assertNotNull("Pending spans are sent when stopping", mCollector.takeRequest(5, TimeUnit.SECONDS));
+		assertNull("Spans of calls made after stopping are not exported", mCollector.takeRequest(2, TimeUnit.SECONDS));
+	}
+
+	private static void execute(final OkHttpClient client, final Request request) throws IOException {
+		client.newCall(request).execute().close();
+	}
+
+	private static HttpUrl closedServerUrl() throws IOException {
+		final MockWebServer server = new MockWebServer();
+		server.start();
+		final HttpUrl url = server.url("/unreachable");
+		server.shutdown();
+		return url;
+	}
+
+	private static JSONObject findSpan(final JSONArray spans, final String url) throws JSONException {
+		for (int i = 0; i < spans.length(); ++i) {
+			final JSONObject span = spans.getJSONObject(i);
+			final JSONArray attributes = span.getJSONArray("attributes");
+			for (int j = 0; j < attributes.length(); ++j) {
+				final JSONObject attribute = attributes.getJSONObject(j);
+				if ("url.full".equals(attribute.getString("key"))
+						&& url.equals(attribute.getJSONObject("value").getString("stringValue"))) {
+					return span;
+				}
+			}
+		}
+		throw new AssertionError("No span for " + url);
+	}
+
+}
@@ -0,0 +1,71 @@
+package com.icapps.niddler.core;
+
+import android.util.Base64;
+
+import java.io.ByteArrayOutputStream;
+
+/**
+ * Per thread buffer that message bodies are written to before they are encoded. The buffer is reused between messages, huge buffers
+ * are dropped again so a single large body doesn't stay on the heap
+ *
+ * @author Nicola Verbeeck
+ */
+final class BodyBuffer extends ByteArrayOutputStream {
+
+	private static final int INITIAL_SIZE = 4 * 1024;
+	private static final int MAX_RETAINED_SIZE = 256 * 1024;
+
+	private static final ThreadLocal<BodyBuffer> BUFFERS = new ThreadLocal<>();
+
+	private BodyBuffer() {
+		super(INITIAL_SIZE);
+	}
+
+	/**
+	 * @return The empty buffer of the calling thread. The buffer must be released before the thread obtains it again
+	 */
+	static BodyBuffer obtain() {
+		final BodyBuffer buffer = BUFFERS.get();
+		if (buffer == null) {
+			return new BodyBuffer();
+		}
+		BUFFERS.set(null);
+		return buffer;
+	}
+
+	/**
+	 * Returns the buffer for reuse by the calling thread. A buffer that was handed off to another thread must not be released, the
+	 * calling thread obtains a new buffer instead
+	 */
+	void release() {
+		if (buf.length > MAX_RETAINED_SIZE) {
+			return;
+		}
+		reset();
+		BUFFERS.set(this);
+	}
+
+	/**
+	 * @return The backing array, only the first {@link #size()} bytes are valid
+	 */
+	byte[] buffer() {
+		return buf;
+	}
+
+	String encodeBase64(final int flags) {
+		return Base64.encodeToString(buf, 0, count, flags);
+	}
+
+	/**
+	 * @return The 64 bit FNV-1a hash of the bytes in the buffer
+	 */
+	long hash() {
+		long hash = 0xCBF29CE484222325L;
+		for (int i = 0; i < count; ++i) {
+			hash ^= buf[i] & 0xFF;
+			hash *= 0x100000001B3L;
+		}
+		return hash;
+	}
+
+}
@@ -0,0 +1,184 @@
+package com.icapps.niddler.core;
+
+import android.app.ActivityManager;
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Configuration;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import com.icapps.niddler.util.Logging;
+
+/**
+ * Sizes the message cache to the device. The baseline budget is derived from the app's memory class (unless a fixed size was
+ * configured). Under memory pressure the budget shrinks to a fraction of the baseline, evicting the oldest messages. Once no trim
+ * callbacks have been received for a while, the budget grows back step by step
+ *
+ * @author Nicola Verbeeck
+ */
+final class CacheBudget implements ComponentCallbacks2 {
+
+	private static final String LOG_TAG = CacheBudget.class.getSimpleName();
+	private static final long MB = 1024L * 1024L;
+	private static final long MIN_BUDGET = 256L * 1024L;
+	private static final long MAX_BUDGET = 32L * MB;
+	private static final int HEAP_FRACTION = 32;
+	private static final long RECOVERY_DELAY = 30000L;
+
+	private final MessagesCache mCache;
+	private final boolean mAdaptive;
+	private final Listener mListener;
+	private final Runnable mRecovery = new Runnable() {
+		@Override
+		public void run() {
+			recover();
+		}
+	};
+	private long mBaseline;
+	private int mPercentage = 100;
+	private Handler mHandler;
+
+	/**
+	 * @param cache    The cache to size
+	 * @param adaptive True to derive the baseline from the memory class, false to use the cache's configured size as baseline
+	 * @param listener Notified when the budget changes
+	 */
+	CacheBudget(final MessagesCache cache, final boolean adaptive, final Listener listener) {
+		mCache = cache;
+		mAdaptive = adaptive;
+		mListener = listener;
+		mBaseline = cache.getMaxCacheSize();
+	}
+
+	/**
+	 * Determines the baseline budget and starts listening for memory pressure
+	 *
+	 * @param context The application context
+	 */
+	void attach(final Context context) {
+		synchronized (this) {
+			if (mHandler != null) {
+				return;
+			}
+			mHandler = new Handler(Looper.getMainLooper());
+			if (mAdaptive) {
+				final ActivityManager activityManager = (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+				if (activityManager != null) {
+					final long heap = activityManager.getMemoryClass() * MB;
+					mBaseline = Math.max(MIN_BUDGET, Math.min(MAX_BUDGET, heap / HEAP_FRACTION));
+				}
+			}
+		}
+		context.registerComponentCallbacks(this);
+		apply();
+	}
+
+	/**
+	 * Stops listening for memory pressure and cancels a pending recovery step. The budget stays at its current size
+	 *
+	 * @param context The context passed to {@link #attach(Context)}
+	 */
+	void detach(final Context context) {
+		synchronized (this) {
+			if (mHandler == null) {
+				return;
+			}
+			mHandler.removeCallbacks(mRecovery);
+			mHandler = null; //Also stops a recovery step that is running right now from posting the next one
+		}
+		context.unregisterComponentCallbacks(this);
+	}
+
+	/**
+	 * @return The current budget of the cache, in bytes
+	 */
+	long getBudget() {
+		return mCache.getMaxCacheSize();
+	}
+
+	/**
+	 * @return The budget when there is no memory pressure, in bytes
+	 */
+	synchronized long getBaseline() {
+		return mBaseline;
+	}
+
+	@Override
+	public void onTrimMemory(final int level) {
+		final int percentage = percentageFor(level);
+		synchronized (this) {
+			if (percentage == 100 || percentage > mPercentage) {
+				return;
+			}
+			if (mHandler != null) { //Still under pressure, postpone growing back
+				mHandler.removeCallbacks(mRecovery);
+				mHandler.postDelayed(mRecovery, RECOVERY_DELAY);
+			}
+			if (percentage == mPercentage) {
+				return;
+			}
+			mPercentage = percentage;
+		}
+		if (Logging.DO_LOG) {
+			Log.d(LOG_TAG, "Memory pressure (" + level + "), shrinking cache to " + percentage + "%");
+		}
+		apply();
+	}
+
+	@Override
+	public void onLowMemory() {
+		onTrimMemory(TRIM_MEMORY_COMPLETE);
+	}
+
+	@Override
+	public void onConfigurationChanged(final Configuration newConfig) {
+		//Not relevant
+	}
+
+	private void recover() {
+		synchronized (this) {
+			mPercentage = Math.min(100, mPercentage * 2);
+			if (mPercentage < 100 && mHandler != null) {
+				mHandler.postDelayed(mRecovery, RECOVERY_DELAY);
+			}
+		}
+		apply();
+	}
+
+	private void apply() {
+		final long budget;
+		synchronized (this) {
+			budget = (mBaseline * mPercentage) / 100;
+		}
+		if (budget == mCache.getMaxCacheSize()) {
+			return;
+		}
+		mCache.setMaxCacheSize(budget);
+		mListener.onBudgetChanged(budget);
+	}
+
+	private static int percentageFor(final int level) {
+		if (level >= TRIM_MEMORY_COMPLETE) {
+			return 10;
+		} else if (level >= TRIM_MEMORY_MODERATE) {
+			return 25;
+		} else if (level >= TRIM_MEMORY_BACKGROUND) {
+			return 50;
+		} else if (level >= TRIM_MEMORY_UI_HIDDEN) {
+			return 100; //Just backgrounded, not a memory problem
+		} else if (level >= TRIM_MEMORY_RUNNING_CRITICAL) {
+			return 25;
+		} else if (level >= TRIM_MEMORY_RUNNING_LOW) {
+			return 50;
+		} else if (level >= TRIM_MEMORY_RUNNING_MODERATE) {
+			return 75;
+		}
+		return 100;
+	}
+
+	interface Listener {
+		void onBudgetChanged(final long budget);
+	}
+
+}
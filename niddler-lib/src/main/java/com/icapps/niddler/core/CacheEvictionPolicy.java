@@ -0,0 +1,64 @@
+package com.icapps.niddler.core;
+
+/**
+ * Decides which cached messages are evicted first when the message cache is full. Messages with the lowest priority are evicted
+ * first, messages with equal priority are evicted oldest first
+ *
+ * @author Nicola Verbeeck
+ */
+@SuppressWarnings("unused")
+public interface CacheEvictionPolicy {
+
+	/**
+	 * Always evicts the oldest message
+	 */
+	CacheEvictionPolicy FIFO = new CacheEvictionPolicy() {
+		@Override
+		public long priority(final long sequence, final long size, final int statusCode, final int durationMillis) {
+			return sequence;
+		}
+	};
+
+	/**
+	 * Evicts large messages before small ones: every KB of a message makes it count as one message older
+	 */
+	CacheEvictionPolicy SIZE_WEIGHTED = new CacheEvictionPolicy() {
+		@Override
+		public long priority(final long sequence, final long size, final int statusCode, final int durationMillis) {
+			return sequence - (size / 1024L);
+		}
+	};
+
+	/**
+	 * Keeps failed and slow calls around longer than successful fast calls, large successful responses are evicted first. A server
+	 * error survives 10000 newer messages, a client error 5000 and every 100ms of latency (up to 5000) one
+	 */
+	CacheEvictionPolicy ERRORS_AND_SLOW_LAST = new CacheEvictionPolicy() {
+		@Override
+		public long priority(final long sequence, final long size, final int statusCode, final int durationMillis) {
+			long priority = sequence - (size / 1024L);
+			if (statusCode >= 500) {
+				priority += 10000L;
+			} else if (statusCode >= 400) {
+				priority += 5000L;
+			}
+			if (durationMillis > 0) {
+				priority += Math.min(5000L, durationMillis / 100L);
+			}
+			return priority;
+		}
+	};
+
+	/**
+	 * Calculates the eviction priority of a message. The priority of a request is recalculated with its response's status code and
+	 * duration once the response is cached, so requests and their responses are evicted around the same time
+	 *
+	 * @param sequence       The sequence number of the message, increasing for every cached message
+	 * @param size           The memory used by the message, in bytes
+	 * @param statusCode     The status code of the call, -1 if not known (yet)
+	 * @param durationMillis The duration of the call, -1 if not known (yet)
+	 * @return The priority, messages with a lower priority are evicted first
+	 */
+	long priority(final long sequence, final long size, final int statusCode, final int durationMillis);
+
+}
@@ -0,0 +1,91 @@
+package com.icapps.niddler.core;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Reusable buffer that holds a captured request or response body. Bytes written past the maximum capture size are dropped and the
+ * body is marked as truncated
+ *
+ * @author Nicola Verbeeck
+ */
+public final class CapturedBody extends OutputStream {
+
+	static final int MAX_CAPTURE_SIZE = 1024 * 1024;
+	private static final int INITIAL_SIZE = 1024;
+	private static final int MAX_RETAINED_SIZE = 64 * 1024;
+
+	private byte[] mBuffer = new byte[INITIAL_SIZE];
+	private int mSize;
+	private boolean mTruncated;
+
+	@Override
+	public void write(final int b) {
+		if (!ensureCapacity(1)) {
+			return;
+		}
+		mBuffer[mSize++] = (byte) b;
+	}
+
+	@Override
+	public void write(final byte[] bytes, final int offset, final int length) {
+		final int toCopy = Math.min(length, MAX_CAPTURE_SIZE - mSize);
+		if (toCopy < length) {
+			mTruncated = true;
+		}
+		if (toCopy <= 0 || !ensureCapacity(toCopy)) {
+			return;
+		}
+		System.arraycopy(bytes, offset, mBuffer, mSize, toCopy);
+		mSize += toCopy;
+	}
+
+	/**
+	 * @return The number of bytes captured
+	 */
+	public int size() {
+		return mSize;
+	}
+
+	/**
+	 * @return True if the body was larger than the maximum capture size and was cut off
+	 */
+	public boolean isTruncated() {
+		return mTruncated;
+	}
+
+	/**
+	 * Writes the captured bytes to the given stream
+	 *
+	 * @param stream The stream to write to
+	 * @throws IOException When writing to the stream fails
+	 */
+	public void writeTo(final OutputStream stream) throws IOException {
+		if (mSize > 0) {
+			stream.write(mBuffer, 0, mSize);
+		}
+	}
+
+	void reset() {
+		mSize = 0;
+		mTruncated = false;
+		if (mBuffer.length > MAX_RETAINED_SIZE) { //Don't hold on to huge buffers in the pool
+			mBuffer = new byte[INITIAL_SIZE];
+		}
+	}
+
+	private boolean ensureCapacity(final int extra) {
+		final int required = mSize + extra;
+		if (required > MAX_CAPTURE_SIZE) {
+			mTruncated = true;
+			return false;
+		}
+		if (required > mBuffer.length) {
+			final byte[] newBuffer = new byte[Math.min(MAX_CAPTURE_SIZE, Math.max(required, mBuffer.length * 2))];
+			System.arraycopy(mBuffer, 0, newBuffer, 0, mSize);
+			mBuffer = newBuffer;
+		}
+		return true;
+	}
+
+}
@@ -0,0 +1,143 @@
+package com.icapps.niddler.core;
+
+import android.support.annotation.Nullable;
+
+import com.icapps.niddler.util.ObjectPool;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Mutable, poolable base for messages captured by a {@link NiddlerCaptureAdapter}
+ *
+ * @author Nicola Verbeeck
+ */
+abstract class CapturedMessage implements NiddlerMessageBase, NiddlerHeaders, ObjectPool.Poolable {
+
+	private String[] mHeaderNames = new String[16];
+	private String[] mHeaderValues = new String[16];
+	private int mHeaderCount;
+	private final CapturedBody mBody = new CapturedBody();
+	private String mMessageId;
+	private String mRequestId;
+	private long mTimestamp;
+
+	void init(final String requestId) {
+		mRequestId = requestId;
+		mMessageId = UUID.randomUUID().toString();
+		mTimestamp = System.currentTimeMillis();
+	}
+
+	@Override
+	public String getMessageId() {
+		return mMessageId;
+	}
+
+	@Override
+	public String getRequestId() {
+		return mRequestId;
+	}
+
+	@Override
+	public long getTimestamp() {
+		return mTimestamp;
+	}
+
+	@Override
+	public Map<String, List<String>> getHeaders() {
+		final Map<String, List<String>> headers = new LinkedHashMap<>();
+		for (int i = 0; i < mHeaderCount; ++i) {
+			List<String> values = headers.get(mHeaderNames[i]);
+			if (values == null) {
+				values = new ArrayList<>(1);
+				headers.put(mHeaderNames[i], values);
+			}
+			values.add(mHeaderValues[i]);
+		}
+		return headers;
+	}
+
+	@Override
+	public int headerCount() {
+		return mHeaderCount;
+	}
+
+	@Override
+	public String headerName(final int index) {
+		return mHeaderNames[index];
+	}
+
+	@Override
+	public String headerValue(final int index) {
+		return mHeaderValues[index];
+	}
+
+	/**
+	 * Adds a header value to this message
+	 *
+	 * @param name  The name of the header
+	 * @param value The value of the header
+	 */
+	public void addHeader(@Nullable final String name, @Nullable final String value) {
+		if (name == null || value == null) {
+			return;
+		}
+		if (mHeaderCount == mHeaderNames.length) {
+			mHeaderNames = Arrays.copyOf(mHeaderNames, mHeaderCount * 2);
+			mHeaderValues = Arrays.copyOf(mHeaderValues, mHeaderCount * 2);
+		}
+		mHeaderNames[mHeaderCount] = name;
+		mHeaderValues[mHeaderCount] = value;
+		++mHeaderCount;
+	}
+
+	/**
+	 * Adds all headers in the map to this message. Entries with a null key, like the status line reported by HttpURLConnection, are
+	 * ignored
+	 *
+	 * @param headers The headers to add
+	 */
+	public void addHeaders(@Nullable final Map<String, List<String>> headers) {
+		if (headers == null) {
+			return;
+		}
+		for (final Map.Entry<String, List<String>> entry : headers.entrySet()) {
+			if (entry.getKey() == null || entry.getValue() == null) {
+				continue;
+			}
+			for (final String value : entry.getValue()) {
+				addHeader(entry.getKey(), value);
+			}
+		}
+	}
+
+	/**
+	 * @return The buffer holding the body of this message, write the body bytes to this buffer
+	 */
+	public CapturedBody body() {
+		return mBody;
+	}
+
+	@Override
+	public void writeBody(final OutputStream stream) throws IOException {
+		mBody.writeTo(stream);
+	}
+
+	@Override
+	public void reset() {
+		Arrays.fill(mHeaderNames, 0, mHeaderCount, null);
+		Arrays.fill(mHeaderValues, 0, mHeaderCount, null);
+		mHeaderCount = 0;
+		mBody.reset();
+		mMessageId = null;
+		mRequestId = null;
+		mTimestamp = 0;
+	}
+
+}
@@ -0,0 +1,42 @@
+package com.icapps.niddler.core;
+
+/**
+ * Pooled request implementation used by {@link NiddlerCaptureAdapter}s. Instances are obtained from the adapter and must not be
+ * used after they have been submitted
+ *
+ * @author Nicola Verbeeck
+ */
+public final class CapturedRequest extends CapturedMessage implements NiddlerRequest {
+
+	private String mUrl;
+	private String mMethod;
+
+	CapturedRequest() {
+	}
+
+	@Override
+	public String getUrl() {
+		return mUrl;
+	}
+
+	public void setUrl(final String url) {
+		mUrl = url;
+	}
+
+	@Override
+	public String getMethod() {
+		return mMethod;
+	}
+
+	public void setMethod(final String method) {
+		mMethod = method;
+	}
+
+	@Override
+	public void reset() {
+		super.reset();
+		mUrl = null;
+		mMethod = null;
+	}
+
+}
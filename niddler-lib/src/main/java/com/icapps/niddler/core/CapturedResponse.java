@@ -0,0 +1,97 @@
+package com.icapps.niddler.core;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+/**
+ * Pooled response implementation used by {@link NiddlerCaptureAdapter}s. Instances are obtained from the adapter and must not be
+ * used after they have been submitted
+ *
+ * @author Nicola Verbeeck
+ */
+public final class CapturedResponse extends CapturedMessage implements NiddlerResponse {
+
+	private Integer mStatusCode;
+	private String mStatusLine = "";
+	private String mHttpVersion = "";
+	private int mWriteTime = -1;
+	private int mReadTime = -1;
+	private int mWaitTime = -1;
+
+	CapturedResponse() {
+	}
+
+	@Override
+	public Integer getStatusCode() {
+		return mStatusCode;
+	}
+
+	public void setStatusCode(final Integer statusCode) {
+		mStatusCode = statusCode;
+	}
+
+	@NonNull
+	@Override
+	public String getStatusLine() {
+		return mStatusLine;
+	}
+
+	public void setStatusLine(@Nullable final String statusLine) {
+		mStatusLine = (statusLine == null) ? "" : statusLine;
+	}
+
+	@NonNull
+	@Override
+	public String getHttpVersion() {
+		return mHttpVersion;
+	}
+
+	public void setHttpVersion(@Nullable final String httpVersion) {
+		mHttpVersion = (httpVersion == null) ? "" : httpVersion;
+	}
+
+	@Nullable
+	@Override
+	public NiddlerRequest actualNetworkRequest() {
+		return null;
+	}
+
+	@Nullable
+	@Override
+	public NiddlerResponse actualNetworkReply() {
+		return null;
+	}
+
+	@Override
+	public int getWriteTime() {
+		return mWriteTime;
+	}
+
+	@Override
+	public int getReadTime() {
+		return mReadTime;
+	}
+
+	@Override
+	public int getWaitTime() {
+		return mWaitTime;
+	}
+
+	public void setTimings(final int writeTime, final int readTime, final int waitTime) {
+		mWriteTime = writeTime;
+		mReadTime = readTime;
+		mWaitTime = waitTime;
+	}
+
+	@Override
+	public void reset() {
+		super.reset();
+		mStatusCode = null;
+		mStatusLine = "";
+		mHttpVersion = "";
+		mWriteTime = -1;
+		mReadTime = -1;
+		mWaitTime = -1;
+	}
+
+}
@@ -0,0 +1,132 @@
+package com.icapps.niddler.core;
+
+import android.util.Log;
+
+import com.icapps.niddler.util.Logging;
+
+import org.java_websocket.WebSocket;
+import org.java_websocket.WebSocketImpl;
+import org.java_websocket.exceptions.WebsocketNotConnectedException;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.Writer;
+
+/**
+ * Writer that sends everything written to it to a single client as a sequence of "chunk" messages, so large documents can be
+ * streamed over the websocket without being built in memory first. The socket's send queue is unbounded, so writing blocks while more
+ * than a few frames are waiting to be sent: a client that reads slowly slows down the writer instead of filling the heap. Writing fails
+ * once the client disconnected
+ *
+ * @author Nicola Verbeeck
+ */
+final class ChunkedMessageWriter extends Writer {
+
+	private static final String LOG_TAG = ChunkedMessageWriter.class.getSimpleName();
+	private static final int CHUNK_SIZE = 32 * 1024;
+	private static final int MAX_QUEUED_FRAMES = 4;
+	private static final long DRAIN_POLL_MILLIS = 10L;
+
+	private final WebSocket mConnection;
+	private final String mType;
+	private final String mStreamId;
+	private final StringBuilder mBuffer = new StringBuilder(CHUNK_SIZE);
+	private int mSequence;
+	private boolean mClosed;
+
+	/**
+	 * @param connection The connection of the client to send the chunks to
+	 * @param type       The message type of the chunks
+	 * @param streamId   The id clients use to reassemble the chunks
+	 */
+	ChunkedMessageWriter(final WebSocket connection, final String type, final String streamId) {
+		mConnection = connection;
+		mType = type;
+		mStreamId = streamId;
+	}
+
+	@Override
+	public void write(final char[] buffer, final int offset, final int count) throws IOException {
+		if (!mConnection.isOpen()) {
+			throw new IOException("Client disconnected");
+		}
+		int written = 0;
+		while (written < count) {
+			final int toCopy = Math.min(count - written, CHUNK_SIZE - mBuffer.length());
+			mBuffer.append(buffer, offset + written, toCopy);
+			written += toCopy;
+			if (mBuffer.length() >= CHUNK_SIZE) {
+				awaitDrain();
+				sendChunk(false);
+			}
+		}
+	}
+
+	@Override
+	public void flush() {
+		//Chunks are only sent when full or when the writer is closed
+	}
+
+	/**
+	 * Sends the remaining data as the last chunk, if the client is still connected
+	 */
+	@Override
+	public void close() {
+		if (!mClosed) {
+			mClosed = true;
+			if (mConnection.isOpen()) {
+				sendChunk(true);
+			}
+		}
+	}
+
+	/**
+	 * Blocks until the socket's send queue is short enough to take the next chunk
+	 *
+	 * @throws IOException When the client disconnected or the writing thread was interrupted while waiting
+	 */
+	private void awaitDrain() throws IOException {
+		if (!(mConnection instanceof WebSocketImpl)) {
+			return;
+		}
+		final WebSocketImpl socket = (WebSocketImpl) mConnection;
+		while (socket.outQueue.size() > MAX_QUEUED_FRAMES) {
+			if (!socket.isOpen()) {
+				throw new IOException("Client disconnected");
+			}
+			try {
+				Thread.sleep(DRAIN_POLL_MILLIS);
+			} catch (final InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted while waiting for the client");
+			}
+		}
+	}
+
+	private void sendChunk(final boolean last) {
+		final JSONObject object = new JSONObject();
+		try {
+			object.put("type", mType);
+			object.put("streamId", mStreamId);
+			object.put("sequence", mSequence++);
+			object.put("data", mBuffer.toString());
+			object.put("last", last);
+		} catch (final JSONException e) {
+			if (Logging.DO_LOG) {
+				Log.e(LOG_TAG, "Failed to create json: ", e);
+			}
+			return;
+		}
+		mBuffer.setLength(0);
+		try {
+			mConnection.send(object.toString());
+		} catch (final WebsocketNotConnectedException e) {
+			if (Logging.DO_LOG) {
+				Log.w(LOG_TAG, "Client disconnected while streaming", e);
+			}
+		}
+	}
+
+}
@@ -0,0 +1,64 @@
+package com.icapps.niddler.core;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import org.java_websocket.WebSocket;
+import org.json.JSONObject;
+
+/**
+ * The reply to a client command. Besides the message that is sent back, a reply can carry work that may only start once the message
+ * was sent to the client, eg: streaming the data the reply announced
+ *
+ * @author Nicola Verbeeck
+ */
+final class CommandReply {
+
+	final String message;
+	@Nullable
+	private final FollowUp mFollowUp;
+
+	CommandReply(@NonNull final String message, @Nullable final FollowUp followUp) {
+		this.message = message;
+		mFollowUp = followUp;
+	}
+
+	/**
+	 * Called by the server after the message was sent to the client that issued the command
+	 *
+	 * @param connection The connection of that client
+	 */
+	void onSent(@NonNull final WebSocket connection) {
+		if (mFollowUp != null) {
+			mFollowUp.onReplySent(connection);
+		}
+	}
+
+	interface FollowUp {
+
+		void onReplySent(@NonNull final WebSocket connection);
+
+	}
+
+	/**
+	 * Command listener that can attach a {@link FollowUp} to its reply. Registered like any other {@link NiddlerCommandListener}
+	 */
+	abstract static class Listener implements NiddlerCommandListener {
+
+		/**
+		 * @param command The json command as sent by the client
+		 * @return The reply to send back, or null if the command is not handled
+		 */
+		@Nullable
+		abstract CommandReply reply(@NonNull final JSONObject command);
+
+		@Nullable
+		@Override
+		public final String onCommand(@NonNull final JSONObject command) {
+			final CommandReply reply = reply(command);
+			return (reply == null) ? null : reply.message;
+		}
+
+	}
+
+}
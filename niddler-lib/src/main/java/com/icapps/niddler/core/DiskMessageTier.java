@@ -0,0 +1,401 @@
+package com.icapps.niddler.core;
+
+import android.util.Log;
+
+import com.icapps.niddler.util.Logging;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Second tier of the message cache. Messages evicted from memory are collected into blocks of roughly 64KB, deflated and appended to
+ * a segment file. Only a small index of the blocks is kept in memory. The tier uses two segments of half the maximum size each: once
+ * the current segment is full, the oldest segment is deleted and reused, so the oldest blocks are dropped as a whole.
+ * Reads decompress complete blocks and keep the last few decompressed blocks in an LRU
+ *
+ * @author Nicola Verbeeck
+ */
+final class DiskMessageTier {
+
+	private static final String LOG_TAG = DiskMessageTier.class.getSimpleName();
+	private static final int BLOCK_SIZE = 64 * 1024;
+	private static final int BLOCK_HEADER_SIZE = 8;
+	private static final int DECOMPRESSED_BLOCKS = 4;
+
+	private final Object mLock = new Object();
+	private final long mMaxSegmentSize;
+	private final Segment[] mSegments;
+	private final ExecutorService mWriter;
+	private final Map<Block, List<String>> mDecompressed = new LinkedHashMap<Block, List<String>>(DECOMPRESSED_BLOCKS, 0.75f, true) {
+		@Override
+		protected boolean removeEldestEntry(final Map.Entry<Block, List<String>> eldest) {
+			return size() > DECOMPRESSED_BLOCKS;
+		}
+	};
+	private final List<List<String>> mWriting = new ArrayList<>();
+	private List<String> mPending = new ArrayList<>();
+	private int mPendingSize;
+	private int mCurrent;
+
+	/**
+	 * @param directory The directory to store the segments in, existing segments are deleted
+	 * @param maxSize   The maximum size of the segments on disk, in bytes
+	 */
+	DiskMessageTier(final File directory, final long maxSize) {
+		mMaxSegmentSize = Math.max(BLOCK_SIZE, maxSize / 2);
+		//noinspection ResultOfMethodCallIgnored
+		directory.mkdirs();
+		mSegments = new Segment[]{new Segment(new File(directory, "messages-0.bin")), new Segment(new File(directory, "messages-1.bin"))};
+		for (final Segment segment : mSegments) {
+			segment.reset();
+		}
+		mWriter = new ThreadPoolExecutor(0, 1, 5, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+			@Override
+			public Thread newThread(final Runnable runnable) {
+				final Thread thread = new Thread(runnable, "Niddler-disk-cache");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	/**
+	 * Queues a message to be written to disk. Messages are written in blocks, the message stays in memory until its block is full
+	 *
+	 * @param message The message evicted from memory
+	 */
+	void offer(final String message) {
+		final List<String> block;
+		synchronized (mLock) {
+			mPending.add(message);
+			mPendingSize += message.length();
+			if (mPendingSize < BLOCK_SIZE) {
+				return;
+			}
+			block = mPending;
+			mPending = new ArrayList<>();
+			mPendingSize = 0;
+			mWriting.add(block); //Still visible to readers until it is on disk
+		}
+		mWriter.execute(new Runnable() {
+			@Override
+			public void run() {
+				writeBlock(block);
+			}
+		});
+	}
+
+	/**
+	 * Returns a view of the messages on disk followed by the given messages. Blocks are only read and decompressed while iterating
+	 *
+	 * @param tail The messages to return after the messages of this tier
+	 * @return The messages, oldest blocks first
+	 */
+	Iterable<String> messagesFollowedBy(final Collection<String> tail) {
+		final List<Block> blocks = new ArrayList<>();
+		final List<String> pending;
+		synchronized (mLock) {
+			final Segment current = mSegments[mCurrent];
+			final Segment older = mSegments[1 - mCurrent];
+			blocks.addAll(older.blocks);
+			blocks.addAll(current.blocks);
+			pending = new ArrayList<>();
+			for (final List<String> writing : mWriting) {
+				pending.addAll(writing);
+			}
+			pending.addAll(mPending);
+		}
+		return new Iterable<String>() {
+			@Override
+			public Iterator<String> iterator() {
+				return new MessageIterator(blocks, pending, tail);
+			}
+		};
+	}
+
+	/**
+	 * @return The size of the segments on disk, in bytes
+	 */
+	long getSize() {
+		synchronized (mLock) {
+			return mSegments[0].size + mSegments[1].size;
+		}
+	}
+
+	/**
+	 * Stops writing and deletes the segments
+	 */
+	void close() {
+		mWriter.shutdownNow();
+		synchronized (mLock) {
+			for (final Segment segment : mSegments) {
+				segment.close();
+				//noinspection ResultOfMethodCallIgnored
+				segment.file.delete();
+			}
+			mDecompressed.clear();
+			mWriting.clear();
+			mPending.clear();
+		}
+	}
+
+	private void writeBlock(final List<String> messages) {
+		try {
+			appendBlock(messages);
+		} finally {
+			synchronized (mLock) {
+				mWriting.remove(messages);
+			}
+		}
+	}
+
+	private void appendBlock(final List<String> messages) {
+		final byte[] compressed;
+		final int uncompressedSize;
+		try {
+			final ByteArrayOutputStream raw = new ByteArrayOutputStream(BLOCK_SIZE + (BLOCK_SIZE / 4));
+			final DataOutputStream out = new DataOutputStream(raw);
+			out.writeInt(messages.size());
+			for (final String message : messages) {
+				final byte[] bytes = message.getBytes("UTF-8");
+				out.writeInt(bytes.length);
+				out.write(bytes);
+			}
+			out.flush();
+			uncompressedSize = raw.size();
+			compressed = deflate(raw.toByteArray());
+		} catch (final IOException e) {
+			if (Logging.DO_LOG) {
+				Log.w(LOG_TAG, "Failed to compress block", e);
+			}
+			return;
+		}
+
+		synchronized (mLock) {
+			Segment segment = mSegments[mCurrent];
+			if (segment.size + BLOCK_HEADER_SIZE + compressed.length > mMaxSegmentSize && !segment.blocks.isEmpty()) {
+				mCurrent = 1 - mCurrent;
+				segment = mSegments[mCurrent];
+				segment.reset();
+				mDecompressed.clear();
+			}
+			try {
+				final DataOutputStream out = segment.output();
+				out.writeInt(compressed.length);
+				out.writeInt(uncompressedSize);
+				out.write(compressed);
+				out.flush();
+			} catch (final IOException e) {
+				if (Logging.DO_LOG) {
+					Log.w(LOG_TAG, "Failed to write block", e);
+				}
+				segment.reset(); //Don't leave a partial block behind
+				return;
+			}
+			segment.blocks.add(new Block(segment, segment.generation, segment.size, compressed.length, uncompressedSize));
+			segment.size += BLOCK_HEADER_SIZE + compressed.length;
+		}
+	}
+
+	private List<String> readBlock(final Block block) {
+		final byte[] compressed = new byte[block.compressedSize];
+		synchronized (mLock) {
+			final List<String> cached = mDecompressed.get(block);
+			if (cached != null) {
+				return cached;
+			}
+			if (block.generation != block.segment.generation) {
+				return Collections.emptyList(); //The segment was reused since the iteration started
+			}
+			try {
+				final RandomAccessFile file = new RandomAccessFile(block.segment.file, "r");
+				try {
+					file.seek(block.offset + BLOCK_HEADER_SIZE);
+					file.readFully(compressed);
+				} finally {
+					file.close();
+				}
+			} catch (final IOException e) {
+				if (Logging.DO_LOG) {
+					Log.w(LOG_TAG, "Failed to read block", e);
+				}
+				return Collections.emptyList();
+			}
+		}
+		final List<String> messages;
+		try {
+			final DataInputStream in = new DataInputStream(new ByteArrayInputStream(inflate(compressed, block.uncompressedSize)));
+			final int count = in.readInt();
+			messages = new ArrayList<>(count);
+			for (int i = 0; i < count; ++i) {
+				final byte[] bytes = new byte[in.readInt()];
+				in.readFully(bytes);
+				messages.add(new String(bytes, "UTF-8"));
+			}
+		} catch (final IOException | DataFormatException e) {
+			if (Logging.DO_LOG) {
+				Log.w(LOG_TAG, "Failed to decompress block", e);
+			}
+			return Collections.emptyList();
+		}
+		synchronized (mLock) {
+			if (block.generation == block.segment.generation) {
+				mDecompressed.put(block, messages);
+			}
+		}
+		return messages;
+	}
+
+	private static byte[] deflate(final byte[] data) {
+		final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+		try {
+			deflater.setInput(data);
+			deflater.finish();
+			final ByteArrayOutputStream out = new ByteArrayOutputStream(data.length / 4);
+			final byte[] buffer = new byte[8192];
+			while (!deflater.finished()) {
+				out.write(buffer, 0, deflater.deflate(buffer));
+			}
+			return out.toByteArray();
+		} finally {
+			deflater.end();
+		}
+	}
+
+	private static byte[] inflate(final byte[] data, final int size) throws DataFormatException {
+		final Inflater inflater = new Inflater();
+		try {
+			inflater.setInput(data);
+			final byte[] out = new byte[size];
+			int offset = 0;
+			while (offset < size && !inflater.finished()) {
+				final int inflated = inflater.inflate(out, offset, size - offset);
+				if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+					throw new DataFormatException("Truncated block");
+				}
+				offset += inflated;
+			}
+			return out;
+		} finally {
+			inflater.end();
+		}
+	}
+
+	private final class MessageIterator implements Iterator<String> {
+
+		private final Iterator<Block> mBlocks;
+		private final Iterator<String> mPending;
+		private final Iterator<String> mTail;
+		private Iterator<String> mCurrentBlock = Collections.<String>emptyList().iterator();
+
+		MessageIterator(final List<Block> blocks, final List<String> pending, final Collection<String> tail) {
+			mBlocks = blocks.iterator();
+			mPending = pending.iterator();
+			mTail = tail.iterator();
+		}
+
+		@Override
+		public boolean hasNext() {
+			while (!mCurrentBlock.hasNext() && mBlocks.hasNext()) {
+				mCurrentBlock = readBlock(mBlocks.next()).iterator();
+			}
+			return mCurrentBlock.hasNext() || mPending.hasNext() || mTail.hasNext();
+		}
+
+		@Override
+		public String next() {
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			if (mCurrentBlock.hasNext()) {
+				return mCurrentBlock.next();
+			}
+			return mPending.hasNext() ? mPending.next() : mTail.next();
+		}
+
+		@Override
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+	}
+
+	@SuppressWarnings("PackageVisibleField")
+	private static final class Segment {
+		final File file;
+		final List<Block> blocks = new ArrayList<>();
+		long size;
+		int generation;
+		private DataOutputStream mOutput;
+
+		Segment(final File file) {
+			this.file = file;
+		}
+
+		DataOutputStream output() throws IOException {
+			if (mOutput == null) {
+				mOutput = new DataOutputStream(new FileOutputStream(file, true));
+			}
+			return mOutput;
+		}
+
+		void reset() {
+			close();
+			blocks.clear();
+			size = 0L;
+			++generation;
+			//noinspection ResultOfMethodCallIgnored
+			file.delete();
+		}
+
+		void close() {
+			if (mOutput != null) {
+				try {
+					mOutput.close();
+				} catch (final IOException ignored) {
+					//Ignore
+				}
+				mOutput = null;
+			}
+		}
+	}
+
+	@SuppressWarnings("PackageVisibleField")
+	private static final class Block {
+		final Segment segment;
+		final int generation;
+		final long offset;
+		final int compressedSize;
+		final int uncompressedSize;
+
+		Block(final Segment segment, final int generation, final long offset, final int compressedSize, final int uncompressedSize) {
+			this.segment = segment;
+			this.generation = generation;
+			this.offset = offset;
+			this.compressedSize = compressedSize;
+			this.uncompressedSize = uncompressedSize;
+		}
+	}
+
+}
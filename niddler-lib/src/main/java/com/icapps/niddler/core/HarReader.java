@@ -0,0 +1,214 @@
+package com.icapps.niddler.core;
+
+import android.support.annotation.Nullable;
+import android.util.Base64;
+import android.util.JsonReader;
+import android.util.JsonToken;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.UUID;
+
+/**
+ * Reads the entries of a HAR 1.2 document as {@link ResponseOverride}s. The document is read as a stream, only the entry currently
+ * being read is kept in memory
+ *
+ * @author Nicola Verbeeck
+ */
+final class HarReader {
+
+	private final JsonReader mReader;
+
+	HarReader(final Reader in) {
+		mReader = new JsonReader(in);
+	}
+
+	/**
+	 * Reads the document and passes every entry to the given overrides
+	 *
+	 * @param overrides The store to add the entries to
+	 * @return The number of entries added
+	 * @throws IOException When the document could not be read or is malformed
+	 */
+	int readInto(final ResponseOverrides overrides) throws IOException {
+		int count = 0;
+		try {
+			mReader.beginObject();
+			while (mReader.hasNext()) {
+				if (!"log".equals(mReader.nextName())) {
+					mReader.skipValue();
+					continue;
+				}
+				mReader.beginObject();
+				while (mReader.hasNext()) {
+					if (!"entries".equals(mReader.nextName())) {
+						mReader.skipValue();
+						continue;
+					}
+					mReader.beginArray();
+					while (mReader.hasNext()) {
+						final ResponseOverride override = readEntry();
+						if (override != null) {
+							overrides.add(override);
+							++count;
+						}
+					}
+					mReader.endArray();
+				}
+				mReader.endObject();
+			}
+			mReader.endObject();
+		} catch (final IllegalStateException | NumberFormatException e) {
+			throw new IOException("Malformed HAR document: " + e.getMessage());
+		}
+		return count;
+	}
+
+	@Nullable
+	private ResponseOverride readEntry() throws IOException {
+		final Entry entry = new Entry();
+		mReader.beginObject();
+		while (mReader.hasNext()) {
+			final String name = mReader.nextName();
+			if ("request".equals(name)) {
+				readRequest(entry);
+			} else if ("response".equals(name)) {
+				readResponse(entry);
+			} else {
+				mReader.skipValue();
+			}
+		}
+		mReader.endObject();
+		if (entry.url == null || entry.status <= 0) {
+			return null; //Entries without a response can't be served
+		}
+		return new ResponseOverride(UUID.randomUUID().toString(),
+				entry.method.toUpperCase(Locale.US),
+				entry.url,
+				false,
+				entry.status,
+				entry.statusText,
+				entry.headerNames.toArray(new String[entry.headerNames.size()]),
+				entry.headerValues.toArray(new String[entry.headerValues.size()]),
+				entry.body);
+	}
+
+	private void readRequest(final Entry entry) throws IOException {
+		mReader.beginObject();
+		while (mReader.hasNext()) {
+			final String name = mReader.nextName();
+			if ("method".equals(name)) {
+				entry.method = nextString("GET");
+			} else if ("url".equals(name)) {
+				entry.url = nextString(null);
+			} else {
+				mReader.skipValue();
+			}
+		}
+		mReader.endObject();
+	}
+
+	private void readResponse(final Entry entry) throws IOException {
+		mReader.beginObject();
+		while (mReader.hasNext()) {
+			final String name = mReader.nextName();
+			if ("status".equals(name)) {
+				entry.status = mReader.nextInt();
+			} else if ("statusText".equals(name)) {
+				entry.statusText = nextString("");
+			} else if ("headers".equals(name)) {
+				readHeaders(entry);
+			} else if ("content".equals(name)) {
+				readContent(entry);
+			} else {
+				mReader.skipValue();
+			}
+		}
+		mReader.endObject();
+	}
+
+	private void readHeaders(final Entry entry) throws IOException {
+		mReader.beginArray();
+		while (mReader.hasNext()) {
+			String headerName = null;
+			String headerValue = "";
+			mReader.beginObject();
+			while (mReader.hasNext()) {
+				final String name = mReader.nextName();
+				if ("name".equals(name)) {
+					headerName = nextString(null);
+				} else if ("value".equals(name)) {
+					headerValue = nextString("");
+				} else {
+					mReader.skipValue();
+				}
+			}
+			mReader.endObject();
+			if (headerName != null && !isTransportHeader(headerName)) {
+				entry.headerNames.add(headerName);
+				entry.headerValues.add(headerValue);
+			}
+		}
+		mReader.endArray();
+	}
+
+	private void readContent(final Entry entry) throws IOException {
+		String text = null;
+		String encoding = null;
+		mReader.beginObject();
+		while (mReader.hasNext()) {
+			final String name = mReader.nextName();
+			if ("text".equals(name)) {
+				text = nextString(null);
+			} else if ("encoding".equals(name)) {
+				encoding = nextString(null);
+			} else {
+				mReader.skipValue();
+			}
+		}
+		mReader.endObject();
+		if (text == null) {
+			return;
+		}
+		if ("base64".equalsIgnoreCase(encoding)) {
+			try {
+				entry.body = Base64.decode(text, Base64.DEFAULT);
+			} catch (final IllegalArgumentException ignored) {
+				//Leave empty
+			}
+		} else {
+			entry.body = text.getBytes("UTF-8");
+		}
+	}
+
+	private String nextString(@Nullable final String fallback) throws IOException {
+		if (mReader.peek() == JsonToken.NULL) {
+			mReader.nextNull();
+			return fallback;
+		}
+		return mReader.nextString();
+	}
+
+	/**
+	 * The captured body is stored decoded and in full, headers describing the original transfer would not match it
+	 */
+	private static boolean isTransportHeader(final String name) {
+		return "content-length".equalsIgnoreCase(name)
+				|| "content-encoding".equalsIgnoreCase(name)
+				|| "transfer-encoding".equalsIgnoreCase(name);
+	}
+
+	private static final class Entry {
+		String method = "GET";
+		String url;
+		int status;
+		String statusText = "";
+		final List<String> headerNames = new ArrayList<>();
+		final List<String> headerValues = new ArrayList<>();
+		byte[] body = new byte[0];
+	}
+
+}
@@ -0,0 +1,301 @@
+package com.icapps.niddler.core;
+
+import android.support.annotation.Nullable;
+import android.util.JsonWriter;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+
+/**
+ * Streams captured messages out as a HAR 1.2 document. Entries are written one at a time as they are converted, only the messages
+ * currently being converted are parsed, so the size of the export is not limited by the available memory
+ *
+ * @author Nicola Verbeeck
+ */
+final class HarWriter {
+
+	private static final String HAR_VERSION = "1.2";
+	private static final String REQUEST_PREFIX = "{\"type\":\"request\"";
+	private static final String RESPONSE_PREFIX = "{\"type\":\"response\"";
+	private static final String REQUEST_ID_FIELD = "\"requestId\":\"";
+
+	private final JsonWriter mWriter;
+	private final SimpleDateFormat mDateFormat;
+
+	HarWriter(final Writer out) {
+		mWriter = new JsonWriter(out);
+		mDateFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'", Locale.US);
+		mDateFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+	}
+
+	/**
+	 * Writes the HAR document for the given messages in a single pass. An entry is written as soon as both the request and its response
+	 * are found, so only the messages that are still waiting for their counterpart are kept around. A response can come before its
+	 * request: the eviction policies can move a response to the disk tier before its request, and the disk tier is read first. Requests
+	 * that never got a response are written at the end, responses whose request is no longer cached are dropped. Other message types are
+	 * ignored
+	 *
+	 * @param messages   The captured messages, mostly in the order they were captured
+	 * @param serverInfo Information about the app, used as the HAR creator
+	 * @return The number of entries written
+	 * @throws IOException When writing to the output fails
+	 */
+	int write(final Iterable<String> messages, final Niddler.NiddlerServerInfo serverInfo) throws IOException {
+		mWriter.beginObject();
+		mWriter.name("log").beginObject();
+		mWriter.name("version").value(HAR_VERSION);
+		mWriter.name("creator").beginObject();
+		mWriter.name("name").value("niddler");
+		mWriter.name("version").value(String.valueOf(Niddler.NiddlerServerInfo.PROTOCOL_VERSION));
+		mWriter.name("comment").value(serverInfo.name);
+		mWriter.endObject();
+		mWriter.name("entries").beginArray();
+
+		final Map<String, String> pendingRequests = new LinkedHashMap<>();
+		final Map<String, String> pendingResponses = new HashMap<>();
+		int count = 0;
+		for (final String message : messages) {
+			final boolean isRequest = message.startsWith(REQUEST_PREFIX);
+			if (!isRequest && !message.startsWith(RESPONSE_PREFIX)) {
+				continue;
+			}
+			final String requestId = topLevelRequestId(message);
+			if (requestId == null) {
+				continue;
+			}
+			final String requestMessage;
+			final String responseMessage;
+			if (isRequest) {
+				requestMessage = message;
+				responseMessage = pendingResponses.remove(requestId);
+				if (responseMessage == null) {
+					pendingRequests.put(requestId, message);
+					continue;
+				}
+			} else {
+				requestMessage = pendingRequests.remove(requestId);
+				responseMessage = message;
+				if (requestMessage == null) {
+					pendingResponses.put(requestId, message);
+					continue;
+				}
+			}
+			final JSONObject request = parse(requestMessage);
+			final JSONObject response = parse(responseMessage);
+			if (request != null && response != null) {
+				writeEntry(request, response);
+				++count;
+			}
+		}
+		for (final String requestMessage : pendingRequests.values()) {
+			final JSONObject request = parse(requestMessage);
+			if (request != null) {
+				writeEntry(request, null);
+				++count;
+			}
+		}
+
+		mWriter.endArray();
+		mWriter.endObject();
+		mWriter.endObject();
+		mWriter.flush();
+		return count;
+	}
+
+	private void writeEntry(final JSONObject request, @Nullable final JSONObject response) throws IOException {
+		final long startedAt = request.optLong("timestamp");
+		final int send = (response == null) ? 0 : response.optInt("writeTime");
+		final int wait = (response == null) ? 0 : response.optInt("waitTime");
+		final int receive = (response == null) ? 0 : Math.max(0, response.optInt("readTime") - wait);
+
+		mWriter.beginObject();
+		mWriter.name("startedDateTime").value(mDateFormat.format(new Date(startedAt)));
+		mWriter.name("time").value(send + wait + receive);
+		writeRequest(request, (response == null) ? "" : response.optString("httpVersion"));
+		writeResponse(response);
+		mWriter.name("cache").beginObject().endObject();
+		mWriter.name("timings").beginObject();
+		mWriter.name("send").value(send);
+		mWriter.name("wait").value(wait);
+		mWriter.name("receive").value(receive);
+		mWriter.endObject();
+		mWriter.name("comment").value(request.optString("requestId"));
+		mWriter.endObject();
+	}
+
+	private void writeRequest(final JSONObject request, final String httpVersion) throws IOException {
+		final String url = request.optString("url");
+		final byte[] body = MessageParser.decodeBody(request.optString("body", null));
+
+		mWriter.name("request").beginObject();
+		mWriter.name("method").value(request.optString("method"));
+		mWriter.name("url").value(url);
+		mWriter.name("httpVersion").value(harHttpVersion(httpVersion));
+		mWriter.name("cookies").beginArray().endArray();
+		writeHeaders(request.optJSONObject("headers"));
+		writeQueryString(url);
+		if (body.length > 0) {
+			mWriter.name("postData").beginObject();
+			mWriter.name("mimeType").value(firstHeader(request, "content-type", ""));
+			mWriter.name("text").value(utf8(body));
+			mWriter.endObject();
+		}
+		mWriter.name("headersSize").value(-1);
+		mWriter.name("bodySize").value(body.length);
+		mWriter.endObject();
+	}
+
+	private void writeResponse(@Nullable final JSONObject response) throws IOException {
+		mWriter.name("response").beginObject();
+		if (response == null) { //Never completed, HAR still requires a response object
+			mWriter.name("status").value(0);
+			mWriter.name("statusText").value("");
+			mWriter.name("httpVersion").value("");
+			mWriter.name("cookies").beginArray().endArray();
+			mWriter.name("headers").beginArray().endArray();
+			mWriter.name("content").beginObject().name("size").value(0).name("mimeType").value("").endObject();
+			mWriter.name("redirectURL").value("");
+			mWriter.name("headersSize").value(-1);
+			mWriter.name("bodySize").value(-1);
+			mWriter.endObject();
+			return;
+		}
+		final String body = response.optString("body", "");
+		final int bodySize = base64Size(body);
+
+		mWriter.name("status").value(response.optInt("statusCode"));
+		mWriter.name("statusText").value(response.optString("statusLine"));
+		mWriter.name("httpVersion").value(harHttpVersion(response.optString("httpVersion")));
+		mWriter.name("cookies").beginArray().endArray();
+		writeHeaders(response.optJSONObject("headers"));
+		mWriter.name("content").beginObject();
+		mWriter.name("size").value(bodySize);
+		mWriter.name("mimeType").value(firstHeader(response, "content-type", "x-unknown"));
+		if (bodySize > 0) {
+			mWriter.name("text").value(toStandardBase64(body));
+			mWriter.name("encoding").value("base64");
+		}
+		mWriter.endObject();
+		mWriter.name("redirectURL").value(firstHeader(response, "location", ""));
+		mWriter.name("headersSize").value(-1);
+		mWriter.name("bodySize").value(bodySize);
+		mWriter.endObject();
+	}
+
+	private void writeHeaders(@Nullable final JSONObject headers) throws IOException {
+		mWriter.name("headers").beginArray();
+		if (headers != null) {
+			final Iterator<String> names = headers.keys();
+			while (names.hasNext()) {
+				final String name = names.next();
+				final JSONArray values = headers.optJSONArray(name);
+				if (values == null) {
+					continue;
+				}
+				for (int i = 0; i < values.length(); ++i) {
+					mWriter.beginObject().name("name").value(name).name("value").value(values.optString(i)).endObject();
+				}
+			}
+		}
+		mWriter.endArray();
+	}
+
+	private void writeQueryString(final String url) throws IOException {
+		mWriter.name("queryString").beginArray();
+		final int queryStart = url.indexOf('?');
+		if (queryStart >= 0) {
+			final int fragmentStart = url.indexOf('#', queryStart);
+			final String query = url.substring(queryStart + 1, (fragmentStart < 0) ? url.length() : fragmentStart);
+			for (final String parameter : query.split("&")) {
+				if (parameter.isEmpty()) {
+					continue;
+				}
+				final int separator = parameter.indexOf('=');
+				mWriter.beginObject();
+				mWriter.name("name").value((separator < 0) ? parameter : parameter.substring(0, separator));
+				mWriter.name("value").value((separator < 0) ? "" : parameter.substring(separator + 1));
+				mWriter.endObject();
+			}
+		}
+		mWriter.endArray();
+	}
+
+	private static String firstHeader(final JSONObject message, final String name, final String fallback) {
+		final JSONObject headers = message.optJSONObject("headers");
+		final JSONArray values = (headers == null) ? null : headers.optJSONArray(name);
+		return (values == null || values.length() == 0) ? fallback : values.optString(0, fallback);
+	}
+
+	private static String harHttpVersion(@Nullable final String version) {
+		return (version == null) ? "" : version.toUpperCase(Locale.US);
+	}
+
+	/**
+	 * Niddler bodies are url safe base64 without padding, HAR expects regular base64
+	 */
+	private static String toStandardBase64(final String body) {
+		final StringBuilder builder = new StringBuilder(body.length() + 2);
+		for (int i = 0; i < body.length(); ++i) {
+			final char c = body.charAt(i);
+			builder.append((c == '-') ? '+' : ((c == '_') ? '/' : c));
+		}
+		while ((builder.length() % 4) != 0) {
+			builder.append('=');
+		}
+		return builder.toString();
+	}
+
+	private static int base64Size(final String body) {
+		int length = body.length();
+		while (length > 0 && body.charAt(length - 1) == '=') {
+			--length;
+		}
+		return (length * 3) / 4;
+	}
+
+	private static String utf8(final byte[] bytes) {
+		try {
+			return new String(bytes, "UTF-8");
+		} catch (final UnsupportedEncodingException e) {
+			return new String(bytes);
+		}
+	}
+
+	/**
+	 * Finds the request id of a message without parsing it. The generic fields are written before the nested network messages, so
+	 * the first request id is the message's own
+	 */
+	@Nullable
+	private static String topLevelRequestId(final String message) {
+		final int start = message.indexOf(REQUEST_ID_FIELD);
+		if (start < 0) {
+			return null;
+		}
+		final int valueStart = start + REQUEST_ID_FIELD.length();
+		final int end = message.indexOf('"', valueStart);
+		return (end < 0) ? null : message.substring(valueStart, end);
+	}
+
+	@Nullable
+	private static JSONObject parse(final String message) {
+		try {
+			return new JSONObject(message);
+		} catch (final JSONException ignored) {
+			return null;
+		}
+	}
+
+}
@@ -0,0 +1,73 @@
+package com.icapps.niddler.core;
+
+import java.util.Locale;
+
+/**
+ * Table of common header names. Looking up a name returns the canonical lower case instance from the table, without allocating, so
+ * only uncommon header names need to be lower cased
+ *
+ * @author Nicola Verbeeck
+ */
+final class HeaderNames {
+
+	private static final String[] COMMON_NAMES = {
+			"accept", "accept-charset", "accept-encoding", "accept-language", "accept-ranges", "access-control-allow-origin", "age",
+			"allow", "authorization", "cache-control", "connection", "content-disposition", "content-encoding", "content-language",
+			"content-length", "content-location", "content-range", "content-type", "cookie", "date", "etag", "expect", "expires", "host",
+			"if-match", "if-modified-since", "if-none-match", "if-range", "if-unmodified-since", "keep-alive", "last-modified", "link",
+			"location", "origin", "pragma", "proxy-authenticate", "proxy-authorization", "range", "referer", "retry-after", "server",
+			"set-cookie", "strict-transport-security", "te", "traceparent", "tracestate", "transfer-encoding", "upgrade", "user-agent",
+			"vary", "via", "warning", "www-authenticate", "x-content-type-options", "x-frame-options", "x-requested-with",
+			"x-xss-protection"
+	};
+
+	private static final int TABLE_SIZE = 256; //Power of 2, at least 4 times the number of names
+	private static final String[] TABLE = new String[TABLE_SIZE];
+
+	static {
+		for (final String name : COMMON_NAMES) {
+			int slot = hash(name) & (TABLE_SIZE - 1);
+			while (TABLE[slot] != null) {
+				slot = (slot + 1) & (TABLE_SIZE - 1);
+			}
+			TABLE[slot] = name;
+		}
+	}
+
+	private HeaderNames() {
+		//Utility class
+	}
+
+	/**
+	 * @param name The header name as sent on the wire
+	 * @return The lower case version of the header name, common names are returned from a shared table
+	 */
+	static String normalize(final String name) {
+		int slot = hash(name) & (TABLE_SIZE - 1);
+		String candidate;
+		while ((candidate = TABLE[slot]) != null) {
+			if (candidate.length() == name.length() && candidate.regionMatches(true, 0, name, 0, name.length())) {
+				return candidate;
+			}
+			slot = (slot + 1) & (TABLE_SIZE - 1);
+		}
+		return name.toLowerCase(Locale.US);
+	}
+
+	/**
+	 * Case insensitive (for ASCII) hash of the name
+	 */
+	private static int hash(final String name) {
+		int hash = 0;
+		final int length = name.length();
+		for (int i = 0; i < length; ++i) {
+			char c = name.charAt(i);
+			if (c >= 'A' && c <= 'Z') {
+				c += 'a' - 'A';
+			}
+			hash = 31 * hash + c;
+		}
+		return hash ^ (hash >>> 16);
+	}
+
+}
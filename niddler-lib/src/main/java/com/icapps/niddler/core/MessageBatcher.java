@@ -0,0 +1,174 @@
+package com.icapps.niddler.core;
+
+import android.util.Log;
+
+import com.icapps.niddler.util.Logging;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Coalesces messages that are queued within a small time window into a single batch frame. Messages are flushed when either the
+ * window expires or the pending batch grows over the configured size
+ *
+ * @author Nicola Verbeeck
+ */
+final class MessageBatcher {
+
+	private static final String LOG_TAG = MessageBatcher.class.getSimpleName();
+	private static final String BATCH_PREFIX = "{\"type\":\"batch\",\"messages\":[";
+	private static final String BATCH_SUFFIX = "]}";
+
+	private final long mWindowMillis;
+	private final int mMaxBatchSize;
+	private final BatchListener mListener;
+	private final Object mLock = new Object();
+
+	private StringBuilder mPending;
+	private String mSingleMessage;
+	private int mPendingCount;
+	private boolean mFlushScheduled;
+	private boolean mClosed;
+	private ScheduledExecutorService mExecutor;
+
+	MessageBatcher(final long windowMillis, final int maxBatchSize, final BatchListener listener) {
+		mWindowMillis = windowMillis;
+		mMaxBatchSize = maxBatchSize;
+		mListener = listener;
+	}
+
+	/**
+	 * @return True if batching is configured, false if messages should be sent as is
+	 */
+	boolean isEnabled() {
+		return mWindowMillis > 0 && mMaxBatchSize > 0;
+	}
+
+	/**
+	 * Queues the message for the next batch. When the pending batch exceeds the maximum size, it is flushed on the calling thread. After
+	 * {@link #shutdown()} the message is passed on as is on the calling thread
+	 *
+	 * @param message The message to add to the batch
+	 */
+	void offer(final String message) {
+		String toFlush = null;
+		synchronized (mLock) {
+			if (mClosed) { //Don't bring the dispatcher thread back to life
+				toFlush = message;
+			} else {
+				if (mPendingCount == 0) {
+					mSingleMessage = message;
+				} else {
+					if (mPendingCount == 1) {
+						mPending = new StringBuilder(Math.min(mMaxBatchSize, (mSingleMessage.length() + message.length()) * 4));
+						mPending.append(BATCH_PREFIX).append(mSingleMessage);
+						mSingleMessage = null;
+					}
+					mPending.append(',').append(message);
+				}
+				++mPendingCount;
+
+				if (pendingLength() >= mMaxBatchSize) {
+					toFlush = takePending();
+				} else if (!mFlushScheduled) {
+					mFlushScheduled = true;
+					executor().schedule(new Runnable() {
+						@Override
+						public void run() {
+							flush();
+						}
+					}, mWindowMillis, TimeUnit.MILLISECONDS);
+				}
+			}
+		}
+		if (toFlush != null) {
+			mListener.onBatchReady(toFlush);
+		}
+	}
+
+	/**
+	 * @return The number of messages waiting for the next batch
+	 */
+	int getPendingCount() {
+		synchronized (mLock) {
+			return mPendingCount;
+		}
+	}
+
+	/**
+	 * Sends out the pending batch, if any
+	 */
+	void flush() {
+		final String toFlush;
+		synchronized (mLock) {
+			mFlushScheduled = false;
+			toFlush = takePending();
+		}
+		if (toFlush != null) {
+			mListener.onBatchReady(toFlush);
+		}
+	}
+
+	/**
+	 * Flushes pending messages and stops the dispatcher thread for good, messages offered afterwards are no longer batched
+	 */
+	void shutdown() {
+		final String toFlush;
+		synchronized (mLock) {
+			mClosed = true;
+			mFlushScheduled = false;
+			toFlush = takePending();
+			if (mExecutor != null) {
+				mExecutor.shutdownNow();
+				mExecutor = null;
+			}
+		}
+		if (toFlush != null) {
+			mListener.onBatchReady(toFlush);
+		}
+	}
+
+	private int pendingLength() {
+		return (mPendingCount == 1) ? mSingleMessage.length() : mPending.length();
+	}
+
+	private String takePending() {
+		if (mPendingCount == 0) {
+			return null;
+		}
+		final String result;
+		if (mPendingCount == 1) {
+			result = mSingleMessage; //No need to wrap a single message
+		} else {
+			result = mPending.append(BATCH_SUFFIX).toString();
+		}
+		mPending = null;
+		mSingleMessage = null;
+		mPendingCount = 0;
+		return result;
+	}
+
+	private ScheduledExecutorService executor() {
+		if (mExecutor == null) {
+			mExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+				@Override
+				public Thread newThread(final Runnable runnable) {
+					final Thread thread = new Thread(runnable, "Niddler-dispatcher");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+			if (Logging.DO_LOG) {
+				Log.d(LOG_TAG, "Started batch dispatcher, window: " + mWindowMillis + "ms, max size: " + mMaxBatchSize);
+			}
+		}
+		return mExecutor;
+	}
+
+	interface BatchListener {
+		void onBatchReady(final String batch);
+	}
+
+}
@@ -3,18 +3,21 @@ package com.icapps.niddler.core;
 import android.support.annotation.Nullable;
 import android.text.TextUtils;
 import android.util.Base64;
+import android.util.JsonWriter;
 import android.util.Log;
 
 import com.icapps.niddler.util.Logging;
+import com.icapps.niddler.util.TraceParent;
 
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Locale;
 import java.util.Map;
 
 /**
@@ -27,66 +30,162 @@ final class MessageBuilder {
 		//Utility class
 	}
 
+	@Nullable
 	static String buildMessage(final NiddlerRequest request) {
-		final JSONObject object = buildMessageJson(request);
-		if (object == null) {
-			return null;
-		}
-		return object.toString();
+		return buildMessage(request, null);
 	}
 
+	/**
+	 * @param bodyInfo When not null, receives the size and hash of the request body
+	 */
 	@Nullable
-	private static JSONObject buildMessageJson(final NiddlerRequest request) {
+	static String buildMessage(final NiddlerRequest request, @Nullable final BodyInfo bodyInfo) {
 		if (request == null) {
 			return null;
 		}
-		final JSONObject object = new JSONObject();
+		final StringWriter out = new StringWriter();
 		try {
-			object.put("type", "request");
-			initGeneric(object, request);
-			object.put("method", request.getMethod());
-			object.put("url", request.getUrl());
-		} catch (final JSONException e) {
+			writeRequest(new JsonWriter(out), request, bodyInfo);
+		} catch (final IOException | IllegalStateException e) {
 			if (Logging.DO_LOG) {
 				Log.e("MessageBuilder", "Failed to create json: ", e);
 			}
 			return null;
 		}
-		return object;
+		return out.toString();
 	}
 
+	@Nullable
 	static String buildMessage(final NiddlerResponse response) {
-		final JSONObject object = buildMessageJson(response);
-		if (object == null) {
-			return null;
-		}
-		return object.toString();
+		return buildMessage(response, null);
 	}
 
+	/**
+	 * @param bodyInfo When not null, receives the size and hash of the response body
+	 */
 	@Nullable
-	private static JSONObject buildMessageJson(final NiddlerResponse response) {
+	static String buildMessage(final NiddlerResponse response, @Nullable final BodyInfo bodyInfo) {
 		if (response == null) {
 			return null;
 		}
-		final JSONObject object = new JSONObject();
+		final StringWriter out = new StringWriter();
 		try {
-			object.put("type", "response");
-			initGeneric(object, response);
-			object.put("statusCode", response.getStatusCode());
-			object.put("networkRequest", buildMessageJson(response.actualNetworkRequest()));
-			object.put("networkReply", buildMessageJson(response.actualNetworkReply()));
-			object.put("writeTime", response.getWriteTime());
-			object.put("readTime", response.getReadTime());
-			object.put("waitTime", response.getWaitTime());
-			object.put("httpVersion", response.getHttpVersion());
-			object.put("statusLine", response.getStatusLine());
-		} catch (final JSONException e) {
+			writeResponse(new JsonWriter(out), response, bodyInfo);
+		} catch (final IOException | IllegalStateException e) {
 			if (Logging.DO_LOG) {
 				Log.e("MessageBuilder", "Failed to create json: ", e);
 			}
 			return null;
 		}
-		return object;
+		return out.toString();
+	}
+
+	private static void writeRequest(final JsonWriter writer, final NiddlerRequest request, @Nullable final BodyInfo bodyInfo)
+			throws IOException {
+		writer.beginObject();
+		writer.name("type").value("request");
+		writeGeneric(writer, request, bodyInfo);
+		writeOptional(writer, "method", request.getMethod());
+		writeOptional(writer, "url", request.getUrl());
+		writeTraceContext(writer, request);
+		writer.endObject();
+	}
+
+	private static void writeResponse(final JsonWriter writer, final NiddlerResponse response, @Nullable final BodyInfo bodyInfo)
+			throws IOException {
+		writer.beginObject();
+		writer.name("type").value("response");
+		writeGeneric(writer, response, bodyInfo);
+		if (response.getStatusCode() != null) {
+			writer.name("statusCode").value(response.getStatusCode());
+		}
+		final NiddlerRequest networkRequest = response.actualNetworkRequest();
+		if (networkRequest != null) {
+			writeTraceContext(writer, networkRequest);
+			writer.name("networkRequest");
+			writeRequest(writer, networkRequest, null);
+		}
+		final NiddlerResponse networkReply = response.actualNetworkReply();
+		if (networkReply != null) {
+			writer.name("networkReply");
+			writeResponse(writer, networkReply, null);
+		}
+		writer.name("writeTime").value(response.getWriteTime());
+		writer.name("readTime").value(response.getReadTime());
+		writer.name("waitTime").value(response.getWaitTime());
+		writeOptional(writer, "httpVersion", response.getHttpVersion());
+		writeOptional(writer, "statusLine", response.getStatusLine());
+		if (response instanceof NiddlerConnectionInfo) {
+			writeConnection(writer, (NiddlerConnectionInfo) response);
+		}
+		writer.endObject();
+	}
+
+	private static void writeConnection(final JsonWriter writer, final NiddlerConnectionInfo connection) throws IOException {
+		if (connection.connectionId() < 0) {
+			return;
+		}
+		writer.name("connection").beginObject();
+		writer.name("id").value(connection.connectionId());
+		writer.name("reused").value(connection.connectionReused());
+		writeOptional(writer, "protocol", connection.connectionProtocol());
+		writer.name("concurrentStreams").value(connection.concurrentStreams());
+		writer.name("connectTime").value(connection.connectTime());
+		writer.endObject();
+	}
+
+	private static void writeGeneric(final JsonWriter writer, final NiddlerMessageBase base, @Nullable final BodyInfo bodyInfo)
+			throws IOException {
+		writeOptional(writer, "messageId", base.getMessageId());
+		writeOptional(writer, "requestId", base.getRequestId());
+		writer.name("timestamp").value(base.getTimestamp());
+		if (base instanceof NiddlerHeaders) {
+			writeHeaders(writer, (NiddlerHeaders) base);
+		} else {
+			writeHeaders(writer, base.getHeaders());
+		}
+		writeOptional(writer, "body", createBody(base, bodyInfo));
+	}
+
+	/**
+	 * Writes the ids of the W3C trace the request is part of, if it carries a traceparent header
+	 */
+	private static void writeTraceContext(final JsonWriter writer, final NiddlerMessageBase request) throws IOException {
+		final TraceParent traceParent = TraceParent.parse(findHeader(request, TraceParent.HEADER));
+		if (traceParent != null) {
+			writer.name("traceId").value(traceParent.getTraceId());
+			writer.name("spanId").value(traceParent.getSpanId());
+		}
+	}
+
+	@Nullable
+	static String findHeader(final NiddlerMessageBase base, final String name) {
+		if (base instanceof NiddlerHeaders) {
+			final NiddlerHeaders headers = (NiddlerHeaders) base;
+			final int count = headers.headerCount();
+			for (int i = 0; i < count; ++i) {
+				if (name.equalsIgnoreCase(headers.headerName(i))) {
+					return headers.headerValue(i);
+				}
+			}
+			return null;
+		}
+		final Map<String, List<String>> headers = base.getHeaders();
+		if (headers == null) {
+			return null;
+		}
+		for (final Map.Entry<String, List<String>> header : headers.entrySet()) {
+			if (name.equalsIgnoreCase(header.getKey()) && !header.getValue().isEmpty()) {
+				return header.getValue().get(0);
+			}
+		}
+		return null;
+	}
+
+	private static void writeOptional(final JsonWriter writer, final String name, @Nullable final String value) throws IOException {
+		if (value != null) {
+			writer.name(name).value(value);
+		}
 	}
 
 	static String buildMessage(final Niddler.NiddlerServerInfo serverInfo) {
@@ -121,53 +220,378 @@ final class MessageBuilder {
 		return object.toString();
 	}
 
-	static String buildAuthSuccess() {
-		return "{\"type\":\"authSuccess\"}";
+	@Nullable
+	static String buildMessage(final WebSocketFrameRecorder.Snapshot snapshot) {
+		final JSONObject object = new JSONObject();
+		try {
+			object.put("type", "webSocketFrames");
+			object.put("messageId", snapshot.messageId);
+			object.put("requestId", snapshot.requestId);
+			object.put("timestamp", snapshot.timestamp);
+			object.put("droppedFrames", snapshot.dropped);
+			object.put("sampledOutFrames", snapshot.sampledOut);
+			final JSONArray frames = new JSONArray();
+			for (int i = 0; i < snapshot.sizes.length; ++i) {
+				final JSONObject frame = new JSONObject();
+				frame.put("direction", snapshot.outgoing[i] ? "out" : "in");
+				frame.put("frameType", snapshot.binary[i] ? "binary" : "text");
+				frame.put("size", snapshot.sizes[i]);
+				frame.put("timestamp", snapshot.timestamps[i]);
+				if (snapshot.payloads[i] != null) {
+					frame.put("payload", Base64.encodeToString(snapshot.payloads[i], Base64.URL_SAFE | Base64.NO_PADDING | Base64.NO_WRAP));
+				}
+				frames.put(frame);
+			}
+			object.put("frames", frames);
+		} catch (final JSONException e) {
+			if (Logging.DO_LOG) {
+				Log.e("MessageBuilder", "Failed to create json: ", e);
+			}
+			return null;
+		}
+		return object.toString();
 	}
 
-	private static void initGeneric(final JSONObject object, final NiddlerMessageBase base) throws JSONException {
-		object.put("messageId", base.getMessageId());
-		object.put("requestId", base.getRequestId());
-		object.put("timestamp", base.getTimestamp());
-		object.put("headers", createHeadersObject(base));
-		object.put("body", createBody(base));
+	/**
+	 * Builds the reply to a client command
+	 *
+	 * @param command The command that was executed
+	 * @param success True if the command succeeded
+	 * @param detail  Optional detail, eg: the id of the created object or the reason of failure
+	 * @return The reply message
+	 */
+	@Nullable
+	static String buildCommandResult(final JSONObject command, final boolean success, @Nullable final String detail) {
+		final JSONObject object = new JSONObject();
+		try {
+			object.put("type", "commandResult");
+			object.put("command", command.optString("type"));
+			object.put("commandId", command.opt("commandId"));
+			object.put("success", success);
+			object.put("detail", detail);
+		} catch (final JSONException e) {
+			if (Logging.DO_LOG) {
+				Log.e("MessageBuilder", "Failed to create json: ", e);
+			}
+			return null;
+		}
+		return object.toString();
 	}
 
-	private static String createBody(final NiddlerMessageBase base) {
-		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+	@Nullable
+	static String buildSearchResult(final JSONObject command, final List<String> requestIds) {
+		final JSONObject object = new JSONObject();
 		try {
-			base.writeBody(out);
-		} catch (final IOException e) {
+			object.put("type", "searchResult");
+			object.put("commandId", command.opt("commandId"));
+			object.put("query", command.optString("query"));
+			object.put("requestIds", new JSONArray(requestIds));
+		} catch (final JSONException e) {
 			if (Logging.DO_LOG) {
-				Log.i("MessageBuilder", "Failed to write body", e);
+				Log.e("MessageBuilder", "Failed to create json: ", e);
 			}
 			return null;
 		}
-		final byte[] bytes = out.toByteArray();
-		if (bytes == null) {
+		return object.toString();
+	}
+
+	static String buildCacheBudget(final long budget, final long baseline, final long used) {
+		return "{\"type\":\"cacheBudget\",\"budget\":" + budget + ",\"baseline\":" + baseline + ",\"used\":" + used + '}';
+	}
+
+	@Nullable
+	static String buildStats(final JSONObject command, final NiddlerStats stats) {
+		final JSONObject object = new JSONObject();
+		try {
+			object.put("type", "niddlerStats");
+			object.put("commandId", command.opt("commandId"));
+			object.put("interceptedCalls", stats.getInterceptedCalls());
+			object.put("interceptorNanos", stats.getInterceptorNanos());
+			object.put("serializedMessages", stats.getSerializedMessages());
+			object.put("serializationNanos", stats.getSerializationNanos());
+			object.put("serializedCharacters", stats.getSerializedCharacters());
+			object.put("encodedFrames", stats.getEncodedFrames());
+			object.put("encodedBytes", stats.getEncodedBytes());
+			object.put("queueDepth", stats.getQueueDepth());
+			object.put("droppedMessages", stats.getDroppedMessages());
+			object.put("cacheEvictions", stats.getCacheEvictions());
+			object.put("memoryBytesHeld", stats.getMemoryBytesHeld());
+			object.put("diskBytesHeld", stats.getDiskBytesHeld());
+			final JSONArray clients = new JSONArray();
+			for (final NiddlerStats.ClientStats client : stats.getClients()) {
+				final JSONObject clientObject = new JSONObject();
+				clientObject.put("address", client.getAddress());
+				clientObject.put("messagesSent", client.getMessagesSent());
+				clientObject.put("sendNanos", client.getSendNanos());
+				clientObject.put("maxSendNanos", client.getMaxSendNanos());
+				clientObject.put("queuedFrames", client.getQueuedFrames());
+				clients.put(clientObject);
+			}
+			object.put("clients", clients);
+		} catch (final JSONException e) {
+			if (Logging.DO_LOG) {
+				Log.e("MessageBuilder", "Failed to create json: ", e);
+			}
 			return null;
 		}
-		return Base64.encodeToString(bytes, Base64.URL_SAFE | Base64.NO_PADDING | Base64.NO_WRAP);
+		return object.toString();
 	}
 
-	private static JSONObject createHeadersObject(final NiddlerMessageBase base) throws JSONException {
-		final Map<String, List<String>> headers = base.getHeaders();
-		if (headers == null || headers.isEmpty()) {
+	static String buildRouteStats(final JSONObject command, final List<RouteStats.Snapshot> routes) {
+		final JSONObject object = new JSONObject();
+		try {
+			object.put("type", "routeStats");
+			object.put("commandId", command.opt("commandId"));
+			final JSONArray array = new JSONArray();
+			for (final RouteStats.Snapshot route : routes) {
+				final JSONObject routeObject = new JSONObject();
+				routeObject.putOpt("method", route.method);
+				routeObject.put("template", route.template);
+				routeObject.put("count", route.count);
+				routeObject.put("errors", route.errors);
+				routeObject.put("errorRate", (route.count == 0) ? 0.0 : ((double) route.errors / route.count));
+				routeObject.put("minLatency", route.minLatency);
+				routeObject.put("meanLatency", route.meanLatency);
+				routeObject.put("p50Latency", route.p50Latency);
+				routeObject.put("p90Latency", route.p90Latency);
+				routeObject.put("p99Latency", route.p99Latency);
+				routeObject.put("maxLatency", route.maxLatency);
+				routeObject.put("requestBytes", route.requestBytes);
+				routeObject.put("maxRequestBytes", route.maxRequestBytes);
+				routeObject.put("responseBytes", route.responseBytes);
+				routeObject.put("maxResponseBytes", route.maxResponseBytes);
+				array.put(routeObject);
+			}
+			object.put("routes", array);
+		} catch (final JSONException e) {
+			if (Logging.DO_LOG) {
+				Log.e("MessageBuilder", "Failed to create json: ", e);
+			}
 			return null;
 		}
+		return object.toString();
+	}
 
+	static String buildDuplicateInsight(final String requestId, final String originalRequestId, @Nullable final String method,
+			final String url, final int occurrences, final long elapsed) {
 		final JSONObject object = new JSONObject();
-		for (final Map.Entry<String, List<String>> headerEntry : headers.entrySet()) {
+		try {
+			object.put("type", "insight");
+			object.put("kind", "duplicate");
+			object.put("requestId", requestId);
+			object.put("originalRequestId", originalRequestId);
+			object.putOpt("method", method);
+			object.put("url", url);
+			object.put("occurrences", occurrences);
+			object.put("elapsed", elapsed);
+			object.put("message", occurrences + " identical " + method + " calls within " + elapsed + "ms");
+		} catch (final JSONException e) {
+			if (Logging.DO_LOG) {
+				Log.e("MessageBuilder", "Failed to create json: ", e);
+			}
+			return null;
+		}
+		return object.toString();
+	}
+
+	static String buildCacheInsight(final String requestId, final String originalRequestId, final String url, final String reason,
+			final long remainingFreshness) {
+		final JSONObject object = new JSONObject();
+		try {
+			object.put("type", "insight");
+			object.put("kind", "cacheable");
+			object.put("requestId", requestId);
+			object.put("originalRequestId", originalRequestId);
+			object.put("method", "GET");
+			object.put("url", url);
+			object.put("reason", reason);
+			if (RedundantCallDetector.REASON_FRESH.equals(reason)) {
+				object.put("remainingFreshness", remainingFreshness);
+				object.put("message", "Fetched from the network while the previous response was fresh for another " + remainingFreshness + "ms");
+			} else {
+				object.put("message", "Fetched unconditionally while the previous response could have been revalidated");
+			}
+		} catch (final JSONException e) {
+			if (Logging.DO_LOG) {
+				Log.e("MessageBuilder", "Failed to create json: ", e);
+			}
+			return null;
+		}
+		return object.toString();
+	}
+
+	static String buildPayloadReport(final JSONObject command, final List<PayloadAnalyzer.Report> reports) {
+		final JSONObject object = new JSONObject();
+		try {
+			object.put("type", "payloadReport");
+			object.put("commandId", command.opt("commandId"));
 			final JSONArray array = new JSONArray();
+			for (final PayloadAnalyzer.Report report : reports) {
+				final JSONObject reportObject = new JSONObject();
+				reportObject.putOpt("method", report.method);
+				reportObject.put("template", report.template);
+				reportObject.put("responses", report.responses);
+				reportObject.put("encodings", new JSONObject(report.encodings));
+				reportObject.put("wireBytes", report.wireBytes);
+				reportObject.put("wireCount", report.wireCount);
+				reportObject.put("decodedBytes", report.decodedBytes);
+				reportObject.put("decodedCount", report.decodedCount);
+				reportObject.put("maxDecodedBytes", report.maxDecodedBytes);
+				reportObject.put("samples", report.samples);
+				reportObject.put("sampleBytes", report.sampleBytes);
+				reportObject.put("sampleGzipBytes", report.sampleGzipBytes);
+				reportObject.put("sampleGzipSavings", report.sampleGzipSavings);
+				final JSONArray hotspots = new JSONArray();
+				for (int i = 0; i < report.hotspotPaths.length; ++i) {
+					final JSONObject hotspot = new JSONObject();
+					hotspot.put("path", report.hotspotPaths[i]);
+					hotspot.put("bytes", report.hotspotBytes[i]);
+					hotspot.put("share", report.hotspotShares[i]);
+					hotspots.put(hotspot);
+				}
+				reportObject.put("hotspots", hotspots);
+				array.put(reportObject);
+			}
+			object.put("endpoints", array);
+		} catch (final JSONException e) {
+			if (Logging.DO_LOG) {
+				Log.e("MessageBuilder", "Failed to create json: ", e);
+			}
+			return null;
+		}
+		return object.toString();
+	}
+
+	static String buildCaptureState(final boolean enabled) {
+		return "{\"type\":\"captureState\",\"enabled\":" + enabled + '}';
+	}
+
+	static String buildAuthSuccess(@Nullable final ServerAuth.ResumeToken resumeToken) {
+		if (resumeToken == null) {
+			return "{\"type\":\"authSuccess\"}";
+		}
+		final JSONObject object = new JSONObject();
+		try {
+			object.put("type", "authSuccess");
+			object.put("resumeToken", resumeToken.token);
+			object.put("resumeTokenExpires", resumeToken.expiresAt);
+		} catch (final JSONException e) {
+			if (Logging.DO_LOG) {
+				Log.e("MessageBuilder", "Failed to create json: ", e);
+			}
+			return "{\"type\":\"authSuccess\"}";
+		}
+		return object.toString();
+	}
+
+	private static String createBody(final NiddlerMessageBase base, @Nullable final BodyInfo bodyInfo) {
+		final BodyBuffer out = BodyBuffer.obtain();
+		boolean keep = false;
+		try {
+			base.writeBody(out);
+			if (bodyInfo != null) {
+				bodyInfo.size = out.size();
+				bodyInfo.hash = out.hash();
+				if (bodyInfo.keepBodyUpTo >= out.size()) {
+					bodyInfo.body = out; //Handed off as is, the thread obtains a new buffer next time
+					keep = true;
+				}
+			}
+			return out.encodeBase64(Base64.URL_SAFE | Base64.NO_PADDING | Base64.NO_WRAP);
+		} catch (final IOException e) {
+			if (Logging.DO_LOG) {
+				Log.i("MessageBuilder", "Failed to write body", e);
+			}
+			return null;
+		} finally {
+			if (!keep) {
+				out.release();
+			}
+		}
+	}
+
+	/**
+	 * Writes the headers grouped by their (lower case) name. The names are interned, so finding the other values of a header is
+	 * a reference comparison over the few headers a message has
+	 */
+	private static void writeHeaders(final JsonWriter writer, final NiddlerHeaders headers) throws IOException {
+		final int count = headers.headerCount();
+		if (count == 0) {
+			return;
+		}
+		final String[] names = new String[count];
+		for (int i = 0; i < count; ++i) {
+			names[i] = HeaderNames.normalize(headers.headerName(i));
+		}
+		writer.name("headers").beginObject();
+		for (int i = 0; i < count; ++i) {
+			final String name = names[i];
+			if (name == null) {
+				continue; //Already written
+			}
+			writer.name(name).beginArray();
+			writer.value(headers.headerValue(i));
+			for (int j = i + 1; j < count; ++j) {
+				final String other = names[j];
+				if (other != null && (other == name || other.equals(name))) {
+					writer.value(headers.headerValue(j));
+					names[j] = null;
+				}
+			}
+			writer.endArray();
+		}
+		writer.endObject();
+	}
+
+	/**
+	 * Writes the headers of the map. Keys that only differ in case (eg: "Accept" and "accept") are merged into a single name, like the
+	 * {@link NiddlerHeaders} variant does, duplicate keys are rejected by strict json parsers
+	 */
+	private static void writeHeaders(final JsonWriter writer, @Nullable final Map<String, List<String>> headers) throws IOException {
+		if (headers == null || headers.isEmpty()) {
+			return;
+		}
+		final Map<String, List<String>> merged = new LinkedHashMap<>(headers.size());
+		for (final Map.Entry<String, List<String>> headerEntry : headers.entrySet()) {
+			if (headerEntry.getKey() == null || headerEntry.getValue() == null) {
+				continue; //HttpURLConnection reports the status line under the null key
+			}
+			final String name = HeaderNames.normalize(headerEntry.getKey());
+			final List<String> existing = merged.get(name);
+			if (existing == null) {
+				merged.put(name, headerEntry.getValue());
+			} else {
+				final List<String> values = new ArrayList<>(existing);
+				values.addAll(headerEntry.getValue());
+				merged.put(name, values);
+			}
+		}
+		writer.name("headers").beginObject();
+		for (final Map.Entry<String, List<String>> headerEntry : merged.entrySet()) {
+			writer.name(headerEntry.getKey()).beginArray();
 			for (final String s : headerEntry.getValue()) {
-				array.put(s);
+				writer.value(s);
 			}
-			object.put(headerEntry.getKey().toLowerCase(Locale.getDefault()), array);
+			writer.endArray();
 		}
-		return object;
+		writer.endObject();
 	}
 
 	static String buildProtocolVersionMessage() {
 		return "{\"type\":\"protocol\",\"protocolVersion\":" + Niddler.NiddlerServerInfo.PROTOCOL_VERSION + "}";
 	}
+
+	/**
+	 * Size and hash of a message body, filled in while the message is built. When requested, the buffer the body was written to is kept
+	 * as well, it then belongs to the caller
+	 */
+	@SuppressWarnings("PackageVisibleField")
+	static final class BodyInfo {
+		int size;
+		long hash;
+		int keepBodyUpTo = -1;
+		@Nullable
+		BodyBuffer body;
+	}
+
 }
@@ -1,7 +1,17 @@
 package com.icapps.niddler.core;
 
+import android.support.annotation.Nullable;
+import android.util.Base64;
+
+import org.json.JSONArray;
 import org.json.JSONObject;
 
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.UUID;
+
 /**
  * @author Nicola Verbeeck
  * Date 22/11/16.
@@ -15,4 +25,63 @@ final class MessageParser {
 	static ServerAuth.AuthReply parseAuthReply(final JSONObject jsonObject) {
 		return new ServerAuth.AuthReply(jsonObject.optString("hashKey"));
 	}
+
+	/**
+	 * Parses a response override, eg:
+	 * {"id":"...","method":"GET","url":"https://...","ignoreQuery":false,"response":{"code":200,"message":"OK","headers":{"content-type":["application/json"]},"body":"base64"}}
+	 *
+	 * @param jsonObject The registerOverride command
+	 * @return The parsed override or null if the command does not contain a url
+	 */
+	@Nullable
+	static ResponseOverride parseResponseOverride(final JSONObject jsonObject) {
+		final String url = jsonObject.optString("url", null);
+		if (url == null) {
+			return null;
+		}
+		final JSONObject response = jsonObject.optJSONObject("response");
+		final JSONObject headers = (response == null) ? null : response.optJSONObject("headers");
+		final List<String> names = new ArrayList<>();
+		final List<String> values = new ArrayList<>();
+		if (headers != null) {
+			final Iterator<String> keys = headers.keys();
+			while (keys.hasNext()) {
+				final String name = keys.next();
+				final JSONArray array = headers.optJSONArray(name);
+				if (array == null) {
+					names.add(name);
+					values.add(headers.optString(name));
+					continue;
+				}
+				for (int i = 0; i < array.length(); ++i) {
+					names.add(name);
+					values.add(array.optString(i));
+				}
+			}
+		}
+		return new ResponseOverride(jsonObject.optString("id", UUID.randomUUID().toString()),
+				jsonObject.optString("method", "GET").toUpperCase(Locale.US),
+				url,
+				jsonObject.optBoolean("ignoreQuery", false),
+				(response == null) ? 200 : response.optInt("code", 200),
+				(response == null) ? "OK" : response.optString("message", "OK"),
+				names.toArray(new String[names.size()]),
+				values.toArray(new String[values.size()]),
+				decodeBody((response == null) ? null : response.optString("body", null)));
+	}
+
+	/**
+	 * Decodes a body encoded the way niddler encodes bodies (url safe base64) or using regular base64
+	 */
+	static byte[] decodeBody(@Nullable final String body) {
+		if (body == null || body.isEmpty()) {
+			return new byte[0];
+		}
+		final int flags = (body.indexOf('+') >= 0 || body.indexOf('/') >= 0) ? Base64.DEFAULT : Base64.URL_SAFE;
+		try {
+			return Base64.decode(body, flags);
+		} catch (final IllegalArgumentException ignored) {
+			return new byte[0];
+		}
+	}
 }
@@ -1,66 +1,349 @@
 package com.icapps.niddler.core;
 
+import android.support.annotation.Nullable;
+
 import com.icapps.niddler.util.StringSizeUtil;
 
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.LinkedList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
+ * Keeps messages in the order they were cached. When the cache is full, messages are evicted in the order determined by the
+ * {@link CacheEvictionPolicy}. The messages are indexed by a binary heap on their priority, so both caching and evicting a message are
+ * O(log n)
+ *
  * @author Nicola Verbeeck
  * Date 22/11/16.
  */
 final class MessagesCache {
 
-	private final List<String> mMessages;
-	private final long mMaxCacheSize;
+	private static final int INITIAL_HEAP_SIZE = 64;
+
+	private final Entry mHead = new Entry(null, null, 0L, 0L);
+	private final Map<String, Entry> mPendingRequests = new HashMap<>();
+	private final CacheEvictionPolicy mPolicy;
+	private Entry[] mHeap = new Entry[INITIAL_HEAP_SIZE];
+	private int mHeapSize;
+	private long mSequence;
+	private volatile long mMaxCacheSize;
+	@Nullable
+	private volatile DiskMessageTier mOverflow;
+	@Nullable
+	private volatile SearchIndex mIndex;
 	private long mCacheSize;
+	private long mEvictions;
+	private long mDropped;
 
 	MessagesCache(final long maxCacheSize) {
-		mMessages = new LinkedList<>();
+		this(maxCacheSize, CacheEvictionPolicy.FIFO);
+	}
+
+	MessagesCache(final long maxCacheSize, final CacheEvictionPolicy policy) {
 		mMaxCacheSize = maxCacheSize;
+		mPolicy = policy;
+		mHead.mNext = mHead;
+		mHead.mPrevious = mHead;
 	}
 
 	void clear() {
-		synchronized (mMessages) {
-			mMessages.clear();
+		synchronized (mHead) {
+			mHead.mNext = mHead;
+			mHead.mPrevious = mHead;
+			mHeap = new Entry[INITIAL_HEAP_SIZE];
+			mHeapSize = 0;
+			mPendingRequests.clear();
 			mCacheSize = 0;
+			final SearchIndex index = mIndex;
+			if (index != null) {
+				index.clear();
+			}
 		}
 	}
 
 	void put(final String message) {
+		put(message, null, false, -1, -1, null);
+	}
+
+	/**
+	 * Caches a request message. The request's priority is updated when its response is cached
+	 *
+	 * @param message   The request message
+	 * @param requestId The id of the request
+	 * @param terms     The search terms of the request, null if it is not indexed
+	 */
+	void putRequest(final String message, @Nullable final String requestId, @Nullable final String[] terms) {
+		put(message, requestId, true, -1, -1, terms);
+	}
+
+	/**
+	 * Caches a response message
+	 *
+	 * @param message        The response message
+	 * @param requestId      The id of the request this is the response to
+	 * @param statusCode     The status code of the response, -1 if unknown
+	 * @param durationMillis The duration of the call, -1 if unknown
+	 * @param terms          The search terms of the response, null if it is not indexed
+	 */
+	void putResponse(final String message, @Nullable final String requestId, final int statusCode, final int durationMillis,
+			@Nullable final String[] terms) {
+		put(message, requestId, false, statusCode, durationMillis, terms);
+	}
+
+	private void put(final String message, @Nullable final String requestId, final boolean isRequest, final int statusCode,
+			final int durationMillis, @Nullable final String[] terms) {
 		if (mMaxCacheSize <= 0) {
 			return;
 		}
 
 		final long size = StringSizeUtil.calculateMemoryUsage(message);
 
-		synchronized (mMessages) {
+		synchronized (mHead) {
 			while ((size + mCacheSize) > mMaxCacheSize) {
-				if (!evictOld()) { //No more messages to remove, the message is too large for the cache -> do not add
+				if (!evictOne()) { //No more messages to remove, the message is too large for the cache -> move it out immediately
+					final DiskMessageTier overflow = mOverflow;
+					if (overflow != null) {
+						overflow.offer(message);
+					} else {
+						++mDropped;
+					}
 					return;
 				}
 			}
+			final long sequence = mSequence++;
+			final Entry entry = new Entry(message, isRequest ? requestId : null, size, sequence);
+			entry.mPriority = mPolicy.priority(sequence, size, statusCode, durationMillis);
+			link(entry);
+			heapAdd(entry);
 			mCacheSize += size;
-			mMessages.add(message);
+			final SearchIndex index = mIndex;
+			if (index != null && terms != null) {
+				index.add(sequence, requestId, terms); //Under the cache lock, so the index can't miss the eviction of this entry
+			}
+
+			if (isRequest) {
+				if (requestId != null) {
+					mPendingRequests.put(requestId, entry);
+				}
+			} else if (requestId != null) {
+				final Entry request = mPendingRequests.remove(requestId);
+				if (request != null) {
+					request.mPriority = mPolicy.priority(request.mSequence, request.mSize, statusCode, durationMillis);
+					siftUp(request.mHeapIndex);
+					siftDown(request.mHeapIndex);
+				}
+			}
 		}
 	}
 
+	/**
+	 * Changes the maximum size of the cache, messages are evicted until the cache fits
+	 *
+	 * @param maxCacheSize The new maximum size in bytes
+	 */
+	void setMaxCacheSize(final long maxCacheSize) {
+		synchronized (mHead) {
+			mMaxCacheSize = maxCacheSize;
+			while (mCacheSize > maxCacheSize) {
+				if (!evictOne()) {
+					break;
+				}
+			}
+		}
+	}
+
+	long getMaxCacheSize() {
+		return mMaxCacheSize;
+	}
+
+	long getCacheSize() {
+		synchronized (mHead) {
+			return mCacheSize;
+		}
+	}
+
+	/**
+	 * @return The number of messages evicted from memory so far
+	 */
+	long getEvictionCount() {
+		synchronized (mHead) {
+			return mEvictions;
+		}
+	}
+
+	/**
+	 * @return The number of messages that were too large to cache and had no overflow tier to go to
+	 */
+	long getDroppedCount() {
+		synchronized (mHead) {
+			return mDropped;
+		}
+	}
+
+	/**
+	 * Sets the tier evicted messages are moved to. Without an overflow tier, evicted messages are dropped
+	 *
+	 * @param overflow The tier to move evicted messages to
+	 */
+	void setOverflow(@Nullable final DiskMessageTier overflow) {
+		mOverflow = overflow;
+	}
+
+	/**
+	 * Sets the index that is kept in sync with the messages in memory
+	 *
+	 * @param index The search index
+	 */
+	void setSearchIndex(@Nullable final SearchIndex index) {
+		mIndex = index;
+	}
+
+	/**
+	 * @return All cached messages: the messages in the overflow tier followed by the messages in memory. Messages on disk are read
+	 * while iterating
+	 */
+	Iterable<String> getAll() {
+		final DiskMessageTier overflow = mOverflow;
+		final Collection<String> messages = get();
+		return (overflow == null) ? messages : overflow.messagesFollowedBy(messages);
+	}
+
+	/**
+	 * @return The messages in the overflow tier, oldest first. Messages on disk are read while iterating
+	 */
+	Iterable<String> getOverflow() {
+		final DiskMessageTier overflow = mOverflow;
+		return (overflow == null) ? Collections.<String>emptyList() : overflow.messagesFollowedBy(Collections.<String>emptyList());
+	}
+
+	/**
+	 * @return The messages in memory, in the order they were cached
+	 */
 	Collection<String> get() {
-		synchronized (mMessages) {
-			return new ArrayList<>(mMessages);
+		synchronized (mHead) {
+			final List<String> messages = new ArrayList<>(mHeapSize);
+			for (Entry entry = mHead.mNext; entry != mHead; entry = entry.mNext) {
+				messages.add(entry.mMessage);
+			}
+			return messages;
 		}
 	}
 
-	private boolean evictOld() {
-		if (mMessages.isEmpty()) {
+	private boolean evictOne() {
+		if (mHeapSize == 0) {
 			return false;
 		}
-		final String message = mMessages.remove(0);
-		mCacheSize -= StringSizeUtil.calculateMemoryUsage(message);
+		final Entry entry = mHeap[0];
+		final Entry last = mHeap[--mHeapSize];
+		mHeap[mHeapSize] = null;
+		if (mHeapSize > 0) {
+			mHeap[0] = last;
+			last.mHeapIndex = 0;
+			siftDown(0);
+		}
+		unlink(entry);
+		if (entry.mRequestId != null) {
+			mPendingRequests.remove(entry.mRequestId);
+		}
+		mCacheSize -= entry.mSize;
+		++mEvictions;
+		final SearchIndex index = mIndex;
+		if (index != null) {
+			index.remove(entry.mSequence);
+		}
+		final DiskMessageTier overflow = mOverflow;
+		if (overflow != null) {
+			overflow.offer(entry.mMessage);
+		}
 		return true;
 	}
 
+	private void link(final Entry entry) {
+		entry.mPrevious = mHead.mPrevious;
+		entry.mNext = mHead;
+		mHead.mPrevious.mNext = entry;
+		mHead.mPrevious = entry;
+	}
+
+	private static void unlink(final Entry entry) {
+		entry.mPrevious.mNext = entry.mNext;
+		entry.mNext.mPrevious = entry.mPrevious;
+		entry.mPrevious = null;
+		entry.mNext = null;
+	}
+
+	private void heapAdd(final Entry entry) {
+		if (mHeapSize == mHeap.length) {
+			final Entry[] newHeap = new Entry[mHeap.length * 2];
+			System.arraycopy(mHeap, 0, newHeap, 0, mHeapSize);
+			mHeap = newHeap;
+		}
+		mHeap[mHeapSize] = entry;
+		entry.mHeapIndex = mHeapSize;
+		siftUp(mHeapSize++);
+	}
+
+	private void siftUp(int index) {
+		final Entry entry = mHeap[index];
+		while (index > 0) {
+			final int parent = (index - 1) >>> 1;
+			if (!entry.evictsBefore(mHeap[parent])) {
+				break;
+			}
+			place(mHeap[parent], index);
+			index = parent;
+		}
+		place(entry, index);
+	}
+
+	private void siftDown(int index) {
+		final Entry entry = mHeap[index];
+		final int half = mHeapSize >>> 1;
+		while (index < half) {
+			int child = (index << 1) + 1;
+			final int right = child + 1;
+			if (right < mHeapSize && mHeap[right].evictsBefore(mHeap[child])) {
+				child = right;
+			}
+			if (!mHeap[child].evictsBefore(entry)) {
+				break;
+			}
+			place(mHeap[child], index);
+			index = child;
+		}
+		place(entry, index);
+	}
+
+	private void place(final Entry entry, final int index) {
+		mHeap[index] = entry;
+		entry.mHeapIndex = index;
+	}
+
+	private static final class Entry {
+
+		final String mMessage;
+		@Nullable
+		final String mRequestId;
+		final long mSize;
+		final long mSequence;
+		long mPriority;
+		int mHeapIndex;
+		Entry mPrevious;
+		Entry mNext;
+
+		Entry(final String message, @Nullable final String requestId, final long size, final long sequence) {
+			mMessage = message;
+			mRequestId = requestId;
+			mSize = size;
+			mSequence = sequence;
+		}
+
+		boolean evictsBefore(final Entry other) {
+			return (mPriority < other.mPriority) || (mPriority == other.mPriority && mSequence < other.mSequence);
+		}
+	}
 
 }
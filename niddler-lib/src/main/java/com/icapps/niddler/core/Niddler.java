@@ -6,16 +6,38 @@ import android.content.ComponentName;
 import android.content.ServiceConnection;
 import android.os.Build;
 import android.os.IBinder;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
 import android.util.Log;
 
 import com.icapps.niddler.service.NiddlerService;
 import com.icapps.niddler.util.Logging;
 
 import org.java_websocket.WebSocket;
+import org.json.JSONObject;
 
+import java.io.BufferedWriter;
 import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.Writer;
 import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 /**
  * @author Maarten Van Giel
@@ -26,24 +48,82 @@ import java.net.UnknownHostException;
 public final class Niddler implements NiddlerServer.WebSocketListener, Closeable {
 
 	private static final String LOG_TAG = Niddler.class.getSimpleName();
+	private static final int DEFAULT_SEARCH_LIMIT = 100;
 
 	private final NiddlerServerInfo mNiddlerServerInfo;
 	private final MessagesCache mMessageCache;
+	private final CacheBudget mCacheBudget;
+	private volatile Application mApplication;
+	private final long mDiskCacheSize;
+	private DiskMessageTier mDiskTier;
+	@Nullable
+	private final SearchIndex mSearchIndex;
+	@Nullable
+	private final RouteStats mRouteStats;
+	@Nullable
+	private final RedundantCallDetector mRedundantCallDetector;
+	@Nullable
+	private final PayloadAnalyzer mPayloadAnalyzer;
 	private final NiddlerServiceLifeCycleWatcher mLifeCycleWatcher;
-	private NiddlerService mNiddlerService;
-	private NiddlerServer mServer;
+	private final ConcurrentMap<String, List<NiddlerCommandListener>> mCommandListeners = new ConcurrentHashMap<>();
+	private final ResponseOverrides mResponseOverrides = new ResponseOverrides();
+	private final StatsRecorder mStats = new StatsRecorder();
+	private final String mPassword;
+	private final int mPort;
+	private final long mBatchWindow;
+	private final int mMaxBatchSize;
+	private final boolean mLazyStart;
+	private volatile NiddlerService mNiddlerService;
+	private volatile NiddlerServer mServer;
+	@Nullable
+	private ServerDoorbell mDoorbell;
+	private volatile boolean mCaptureEnabled = true;
 	private boolean mIsStarted = false;
 	private boolean mIsClosed = false;
 	private long mAutoStopAfter = -1;
-
-	private Niddler(final String password, final int port, final long cacheSize, final NiddlerServerInfo niddlerServerInfo) {
-		try {
-			mServer = new NiddlerServer(password, port, niddlerServerInfo.name, this);
-		} catch (final UnknownHostException ex) {
-			Log.e(LOG_TAG, "Failed to start server: " + ex.getLocalizedMessage());
-		}
-		mMessageCache = new MessagesCache(cacheSize);
+	@Nullable
+	private ExecutorService mExportExecutor;
+
+	private Niddler(final String password, final int port, final long cacheSize, final NiddlerServerInfo niddlerServerInfo,
+			final long batchWindow, final int maxBatchSize, final boolean adaptiveCache, final CacheEvictionPolicy evictionPolicy,
+			final long diskCacheSize, final boolean searchIndex, final boolean lazyStart, @Nullable final List<String> routeTemplates,
+			final long redundantCallWindow, final int payloadSampleRate) {
+		mPassword = password;
+		mPort = port;
+		mBatchWindow = batchWindow;
+		mMaxBatchSize = maxBatchSize;
+		mLazyStart = lazyStart;
 		mNiddlerServerInfo = niddlerServerInfo;
+		if (!lazyStart) {
+			createServer(port);
+		}
+		mMessageCache = new MessagesCache(cacheSize, evictionPolicy);
+		mDiskCacheSize = diskCacheSize;
+		mSearchIndex = searchIndex ? new SearchIndex() : null;
+		mMessageCache.setSearchIndex(mSearchIndex);
+		final RouteTemplates templates = new RouteTemplates((routeTemplates == null) ? Collections.<String>emptyList() : routeTemplates);
+		mRouteStats = (routeTemplates == null) ? null : new RouteStats(templates);
+		mPayloadAnalyzer = (payloadSampleRate > 0) ? new PayloadAnalyzer(templates, payloadSampleRate) : null;
+		mRedundantCallDetector = (redundantCallWindow > 0) ? new RedundantCallDetector(redundantCallWindow) : null;
+		mCacheBudget = new CacheBudget(mMessageCache, adaptiveCache, new CacheBudget.Listener() {
+			@Override
+			public void onBudgetChanged(final long budget) {
+				sendToAll(buildCacheBudgetMessage());
+			}
+		});
+		registerOverrideCommands();
+		registerHarCommands();
+		registerCaptureCommand();
+		registerStatsCommand();
+		if (mSearchIndex != null) {
+			registerSearchCommand(mSearchIndex);
+		}
+		if (mRouteStats != null) {
+			registerRouteStatsCommand(mRouteStats);
+		}
+		if (mPayloadAnalyzer != null) {
+			registerPayloadReportCommand(mPayloadAnalyzer);
+		}
 
 		mLifeCycleWatcher = new NiddlerServiceLifeCycleWatcher(new ServiceConnection() {
 			@Override
@@ -59,16 +139,97 @@ public final class Niddler implements NiddlerServer.WebSocketListener, Closeable
 		});
 	}
 
+	/**
+	 * Logs the request. The request is serialized before this method returns, so the caller can reuse the request object afterwards
+	 *
+	 * @param request The request to log
+	 */
 	public void logRequest(final NiddlerRequest request) {
-		sendWithCache(MessageBuilder.buildMessage(request));
+		if (!mCaptureEnabled) {
+			return;
+		}
+		final RouteStats routeStats = mRouteStats;
+		final RedundantCallDetector detector = mRedundantCallDetector;
+		final MessageBuilder.BodyInfo bodyInfo = (routeStats == null && detector == null) ? null : new MessageBuilder.BodyInfo();
+		final long start = System.nanoTime();
+		final String message = MessageBuilder.buildMessage(request, bodyInfo);
+		if (message != null) {
+			mStats.recordSerialization(System.nanoTime() - start, message.length());
+			if (routeStats != null) {
+				routeStats.onRequest(request, bodyInfo.size);
+			}
+			final SearchIndex index = mSearchIndex;
+			mMessageCache.putRequest(message, request.getRequestId(),
+					(index == null) ? null : SearchIndex.terms(request, request.getUrl(), message));
+			sendToAll(message);
+			if (detector != null) {
+				logMessage(detector.onRequest(request, bodyInfo.hash));
+			}
+		}
 	}
 
+	/**
+	 * Logs the response. The response, including its body, is serialized before this method returns, so the caller can reuse the
+	 * response object afterwards
+	 *
+	 * @param response The response to log
+	 */
 	public void logResponse(final NiddlerResponse response) {
-		sendWithCache(MessageBuilder.buildMessage(response));
+		if (!mCaptureEnabled) {
+			return;
+		}
+		final RouteStats routeStats = mRouteStats;
+		final PayloadAnalyzer analyzer = mPayloadAnalyzer;
+		final MessageBuilder.BodyInfo bodyInfo = (routeStats == null && analyzer == null) ? null : new MessageBuilder.BodyInfo();
+		if (analyzer != null && analyzer.shouldSample(response)) {
+			bodyInfo.keepBodyUpTo = PayloadAnalyzer.MAX_SAMPLE_SIZE;
+		}
+		final long start = System.nanoTime();
+		final String message = MessageBuilder.buildMessage(response, bodyInfo);
+		if (message != null) {
+			mStats.recordSerialization(System.nanoTime() - start, message.length());
+			if (routeStats != null) {
+				routeStats.onResponse(response, bodyInfo.size);
+			}
+			if (analyzer != null) {
+				analyzer.onResponse(response, bodyInfo.size, bodyInfo.body);
+			}
+			final Integer statusCode = response.getStatusCode();
+			final SearchIndex index = mSearchIndex;
+			mMessageCache.putResponse(message, response.getRequestId(), (statusCode == null) ? -1 : statusCode,
+					response.getWaitTime() + response.getReadTime(), (index == null) ? null : SearchIndex.terms(response, null, message));
+			sendToAll(message);
+			final RedundantCallDetector detector = mRedundantCallDetector;
+			if (detector != null) {
+				logMessage(detector.onResponse(response));
+			}
+		}
+	}
+
+	void logMessage(@Nullable final String message) {
+		if (message != null && mCaptureEnabled) {
+			sendWithCache(message);
+		}
 	}
 
-	public void start() {
-		if ((mServer != null) && !mIsStarted) {
+	public synchronized void start() {
+		if (mIsStarted || mIsClosed) {
+			return;
+		}
+		if (mLazyStart && (mServer == null)) {
+			final ServerDoorbell doorbell = new ServerDoorbell(mPort, new ServerDoorbell.Listener() {
+				@Override
+				public boolean onFirstConnection(final int port) {
+					return startServer(port);
+				}
+			});
+			doorbell.open();
+			mDoorbell = doorbell;
+			mIsStarted = true;
+			if (Logging.DO_LOG) {
+				Log.d(LOG_TAG, "Waiting for the first connection on port " + mPort);
+			}
+		} else if (mServer != null) {
 			mServer.start();
 			mIsStarted = true;
 			if (Logging.DO_LOG) {
@@ -77,6 +238,35 @@ public final class Niddler implements NiddlerServer.WebSocketListener, Closeable
 		}
 	}
 
+	/**
+	 * Creates and starts the server once the first client knocked on the doorbell in lazy start mode
+	 */
+	private synchronized boolean startServer(final int port) {
+		mDoorbell = null;
+		if (mIsClosed) {
+			return false;
+		}
+		final NiddlerServer server = createServer(port);
+		if (server == null) {
+			return false;
+		}
+		server.start();
+		if (Logging.DO_LOG) {
+			Log.d(LOG_TAG, "Started listening at address" + server.getAddress());
+		}
+		return true;
+	}
+
+	@Nullable
+	private NiddlerServer createServer(final int port) {
+		try {
+			mServer = new NiddlerServer(mPassword, port, mNiddlerServerInfo.name, this, mBatchWindow, mMaxBatchSize, mStats);
+		} catch (final UnknownHostException ex) {
+			Log.e(LOG_TAG, "Failed to start server: " + ex.getLocalizedMessage());
+		}
+		return mServer;
+	}
+
 	/**
 	 * Attaches the Niddler instance to the application's activity lifecycle callbacks, thus starting and stopping a NiddlerService
 	 * when activities start and stop. This will show a notification with which you can stop Niddler at any time.
@@ -96,22 +286,55 @@ public final class Niddler implements NiddlerServer.WebSocketListener, Closeable
 	 */
 	public void attachToApplication(final Application application, final long autoStopAfter) {
 		mAutoStopAfter = autoStopAfter;
+		mApplication = application;
+		mCacheBudget.attach(application);
+		if (mDiskCacheSize > 0 && mDiskTier == null) {
+			mDiskTier = new DiskMessageTier(new File(application.getCacheDir(), "niddler"), mDiskCacheSize);
+			mMessageCache.setOverflow(mDiskTier);
+		}
 		application.unregisterActivityLifecycleCallbacks(mLifeCycleWatcher);
 		application.registerActivityLifecycleCallbacks(mLifeCycleWatcher);
 	}
 
 	@Override
 	public void close() throws IOException {
-		if (mServer != null) {
-			try {
-				mServer.stop();
-				mIsClosed = true;
-				if (mNiddlerService != null) {
-					mNiddlerService.stopSelf();
+		final Application application = mApplication;
+		if (application != null) {
+			mCacheBudget.detach(application);
+		}
+		final NiddlerServer server;
+		synchronized (this) {
+			if ((mServer == null) && !mLazyStart) {
+				return;
+			}
+			if (mDoorbell != null) {
+				mDoorbell.close();
+				mDoorbell = null;
+			}
+			server = mServer;
+			mIsClosed = true;
+		}
+		try {
+			if (server != null) {
+				server.stop();
+			}
+			if (mDiskTier != null) {
+				mDiskTier.close();
+			}
+			if (mPayloadAnalyzer != null) {
+				mPayloadAnalyzer.close();
+			}
+			synchronized (this) {
+				if (mExportExecutor != null) {
+					mExportExecutor.shutdownNow(); //Interrupts a running export, the writer stops waiting for the client
+					mExportExecutor = null;
 				}
-			} catch (final InterruptedException e) {
-				throw new IOException(e);
 			}
+			if (mNiddlerService != null) {
+				mNiddlerService.stopSelf();
+			}
+		} catch (final InterruptedException e) {
+			throw new IOException(e);
 		}
 	}
 
@@ -120,11 +343,319 @@ public final class Niddler implements NiddlerServer.WebSocketListener, Closeable
 		if (mNiddlerServerInfo != null) {
 			conn.send(MessageBuilder.buildMessage(mNiddlerServerInfo));
 		}
-		for (final String message : mMessageCache.get()) {
+		conn.send(buildCacheBudgetMessage());
+		conn.send(MessageBuilder.buildCaptureState(mCaptureEnabled));
+		for (final String message : mMessageCache.get()) { //Only the memory tier, clients page through the disk tier with getHistory
 			conn.send(message);
 		}
 	}
 
+	@Nullable
+	@Override
+	public CommandReply onCommand(final String type, final JSONObject command) {
+		final List<NiddlerCommandListener> listeners = mCommandListeners.get(type);
+		if (listeners == null) {
+			return null;
+		}
+		for (final NiddlerCommandListener listener : listeners) {
+			if (listener instanceof CommandReply.Listener) {
+				final CommandReply reply = ((CommandReply.Listener) listener).reply(command);
+				if (reply != null) {
+					return reply;
+				}
+				continue;
+			}
+			final String reply = listener.onCommand(command);
+			if (reply != null) {
+				return new CommandReply(reply, null);
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Registers a listener for commands of the given type sent by connected clients. Multiple listeners can be registered for the same
+	 * type, the first listener that returns a reply handles the command
+	 *
+	 * @param type     The type of the command, the "type" field of the json message
+	 * @param listener The listener to call when a command of the given type is received
+	 */
+	public void registerCommandListener(@NonNull final String type, @NonNull final NiddlerCommandListener listener) {
+		List<NiddlerCommandListener> listeners = mCommandListeners.get(type);
+		if (listeners == null) {
+			final List<NiddlerCommandListener> created = new CopyOnWriteArrayList<>();
+			listeners = mCommandListeners.putIfAbsent(type, created); //Another thread may have registered the first listener meanwhile
+			if (listeners == null) {
+				listeners = created;
+			}
+		}
+		listeners.add(listener);
+	}
+
+	/**
+	 * Removes a listener previously registered using {@link #registerCommandListener(String, NiddlerCommandListener)}
+	 *
+	 * @param type     The type of the command
+	 * @param listener The listener to remove
+	 */
+	public void unregisterCommandListener(@NonNull final String type, @NonNull final NiddlerCommandListener listener) {
+		final List<NiddlerCommandListener> listeners = mCommandListeners.get(type);
+		if (listeners != null) {
+			listeners.remove(listener);
+		}
+	}
+
+	/**
+	 * @return The response overrides registered by clients, used by interceptors to serve canned responses
+	 */
+	@NonNull
+	public ResponseOverrides getResponseOverrides() {
+		return mResponseOverrides;
+	}
+
+	/**
+	 * Writes the captured requests and responses to the given writer as a HAR 1.2 document. The document is streamed, it is never held
+	 * in memory completely
+	 *
+	 * @param out The writer to write to, it is not closed by this method
+	 * @return The number of entries exported
+	 * @throws IOException When writing fails
+	 */
+	public int exportHar(@NonNull final Writer out) throws IOException {
+		return new HarWriter(out).write(mMessageCache.getAll(), mNiddlerServerInfo);
+	}
+
+	/**
+	 * Writes the captured requests and responses to the given file as a HAR 1.2 document
+	 *
+	 * @param file The file to write to, existing files are overwritten
+	 * @return The number of entries exported
+	 * @throws IOException When writing fails
+	 */
+	public int exportHar(@NonNull final File file) throws IOException {
+		final Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"));
+		try {
+			return exportHar(out);
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Reads the entries of a HAR document and registers their responses as response overrides, so matching requests are served from
+	 * the HAR file
+	 *
+	 * @param in The reader to read the document from, it is not closed by this method
+	 * @return The number of overrides registered
+	 * @throws IOException When reading fails or the document is malformed
+	 */
+	public int importHar(@NonNull final Reader in) throws IOException {
+		return new HarReader(in).readInto(mResponseOverrides);
+	}
+
+	/**
+	 * Streams a document to the client that requested it as chunk messages. Exports run one at a time on the export thread, and wait
+	 * for the client to read the chunks already sent
+	 */
+	private void startExport(final WebSocket conn, final String chunkType, final String streamId, final Export export) {
+		exportExecutor().execute(new Runnable() {
+			@Override
+			public void run() {
+				final ChunkedMessageWriter out = new ChunkedMessageWriter(conn, chunkType, streamId);
+				try {
+					export.writeTo(out);
+				} catch (final IOException e) {
+					if (Logging.DO_LOG) {
+						Log.w(LOG_TAG, "Failed to stream " + chunkType, e);
+					}
+				} finally {
+					out.close();
+				}
+			}
+		});
+	}
+
+	/**
+	 * Writes the messages in the disk tier as a json array, oldest first
+	 */
+	private void writeHistory(final Writer out) throws IOException {
+		out.write('[');
+		boolean first = true;
+		for (final String message : mMessageCache.getOverflow()) {
+			if (!first) {
+				out.write(',');
+			}
+			out.write(message);
+			first = false;
+		}
+		out.write(']');
+	}
+
+	private synchronized ExecutorService exportExecutor() {
+		if (mExportExecutor == null) {
+			mExportExecutor = new ThreadPoolExecutor(0, 1, 5, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+				@Override
+				public Thread newThread(final Runnable runnable) {
+					final Thread thread = new Thread(runnable, "Niddler-export");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+		return mExportExecutor;
+	}
+
+	private void registerHarCommands() {
+		registerCommandListener("exportHar", new CommandReply.Listener() {
+			@Nullable
+			@Override
+			CommandReply reply(@NonNull final JSONObject command) {
+				final String streamId = UUID.randomUUID().toString();
+				return new CommandReply(MessageBuilder.buildCommandResult(command, true, streamId), new CommandReply.FollowUp() {
+					@Override
+					public void onReplySent(@NonNull final WebSocket connection) {
+						//The client knows the stream id before the first chunk arrives
+						startExport(connection, "harChunk", streamId, new Export() {
+							@Override
+							public void writeTo(final Writer out) throws IOException {
+								exportHar(out);
+							}
+						});
+					}
+				});
+			}
+		});
+		//Connecting clients only receive the messages in memory, the (potentially huge) disk tier is streamed on request
+		registerCommandListener("getHistory", new CommandReply.Listener() {
+			@Nullable
+			@Override
+			CommandReply reply(@NonNull final JSONObject command) {
+				final String streamId = UUID.randomUUID().toString();
+				return new CommandReply(MessageBuilder.buildCommandResult(command, true, streamId), new CommandReply.FollowUp() {
+					@Override
+					public void onReplySent(@NonNull final WebSocket connection) {
+						startExport(connection, "historyChunk", streamId, new Export() {
+							@Override
+							public void writeTo(final Writer out) throws IOException {
+								writeHistory(out);
+							}
+						});
+					}
+				});
+			}
+		});
+		//The document is sent as a single message, so it is held in memory completely: once as the message and once as the string
+		//it is read from. Large archives should be imported on the device using importHar(Reader) instead
+		registerCommandListener("importHar", new NiddlerCommandListener() {
+			@Nullable
+			@Override
+			public String onCommand(@NonNull final JSONObject command) {
+				final Object har = command.opt("har");
+				if (har == null) {
+					return MessageBuilder.buildCommandResult(command, false, "Missing har");
+				}
+				//Clients send the document as a string, older clients embed it as an object which has to be serialized again
+				final String document = (har instanceof String) ? (String) har : har.toString();
+				try {
+					return MessageBuilder.buildCommandResult(command, true, String.valueOf(importHar(new StringReader(document))));
+				} catch (final IOException e) {
+					return MessageBuilder.buildCommandResult(command, false, e.getMessage());
+				}
+			}
+		});
+	}
+
+	private void registerCaptureCommand() {
+		registerCommandListener("setCapture", new NiddlerCommandListener() {
+			@Nullable
+			@Override
+			public String onCommand(@NonNull final JSONObject command) {
+				setCaptureEnabled(command.optBoolean("enabled", true));
+				return MessageBuilder.buildCommandResult(command, true, null);
+			}
+		});
+	}
+
+	private void registerStatsCommand() {
+		registerCommandListener("getStats", new NiddlerCommandListener() {
+			@Nullable
+			@Override
+			public String onCommand(@NonNull final JSONObject command) {
+				return MessageBuilder.buildStats(command, getStats());
+			}
+		});
+	}
+
+	private void registerRouteStatsCommand(final RouteStats routeStats) {
+		registerCommandListener("getRouteStats", new NiddlerCommandListener() {
+			@Nullable
+			@Override
+			public String onCommand(@NonNull final JSONObject command) {
+				final String result = MessageBuilder.buildRouteStats(command, routeStats.snapshot());
+				if (command.optBoolean("reset")) {
+					routeStats.clear();
+				}
+				return result;
+			}
+		});
+	}
+
+	private void registerPayloadReportCommand(final PayloadAnalyzer analyzer) {
+		registerCommandListener("getPayloadReport", new NiddlerCommandListener() {
+			@Nullable
+			@Override
+			public String onCommand(@NonNull final JSONObject command) {
+				final String result = MessageBuilder.buildPayloadReport(command, analyzer.report());
+				if (command.optBoolean("reset")) {
+					analyzer.clear();
+				}
+				return result;
+			}
+		});
+	}
+
+	private void registerSearchCommand(final SearchIndex index) {
+		registerCommandListener("search", new NiddlerCommandListener() {
+			@Nullable
+			@Override
+			public String onCommand(@NonNull final JSONObject command) {
+				final String query = command.optString("query");
+				return MessageBuilder.buildSearchResult(command, index.search(query, command.optInt("limit", DEFAULT_SEARCH_LIMIT)));
+			}
+		});
+	}
+
+	private void registerOverrideCommands() {
+		registerCommandListener("registerOverride", new NiddlerCommandListener() {
+			@Nullable
+			@Override
+			public String onCommand(@NonNull final JSONObject command) {
+				final ResponseOverride override = MessageParser.parseResponseOverride(command);
+				if (override == null) {
+					return MessageBuilder.buildCommandResult(command, false, "Missing url");
+				}
+				mResponseOverrides.add(override);
+				return MessageBuilder.buildCommandResult(command, true, override.getId());
+			}
+		});
+		registerCommandListener("removeOverride", new NiddlerCommandListener() {
+			@Nullable
+			@Override
+			public String onCommand(@NonNull final JSONObject command) {
+				mResponseOverrides.remove(command.optString("id"));
+				return MessageBuilder.buildCommandResult(command, true, null);
+			}
+		});
+		registerCommandListener("clearOverrides", new NiddlerCommandListener() {
+			@Nullable
+			@Override
+			public String onCommand(@NonNull final JSONObject command) {
+				mResponseOverrides.clear();
+				return MessageBuilder.buildCommandResult(command, true, null);
+			}
+		});
+	}
+
 	/**
 	 * Indicates if niddler is configured to log requests, use this to determine in your interceptor if you need
 	 * to generate a message
@@ -136,6 +667,58 @@ public final class Niddler implements NiddlerServer.WebSocketListener, Closeable
 		return true;
 	}
 
+	/**
+	 * Pauses or resumes capturing. While capture is paused, interceptors pass calls through untouched and nothing is logged or
+	 * cached. Connected clients and the niddler notification are informed of the change
+	 *
+	 * @param enabled True to capture calls, false to pause capturing
+	 */
+	public void setCaptureEnabled(final boolean enabled) {
+		if (mCaptureEnabled == enabled) {
+			return;
+		}
+		mCaptureEnabled = enabled;
+		sendToAll(MessageBuilder.buildCaptureState(enabled));
+		final NiddlerService service = mNiddlerService;
+		if (service != null) {
+			service.onCaptureStateChanged();
+		}
+	}
+
+	/**
+	 * Checked by interceptors before doing any work for a call, this is a single volatile read
+	 *
+	 * @return True if calls are currently captured
+	 */
+	public boolean isCaptureEnabled() {
+		return mCaptureEnabled;
+	}
+
+	/**
+	 * Records the time a niddler interceptor spent on a call, excluding the time spent in the network call itself. Called by the
+	 * interceptors once per captured call
+	 *
+	 * @param nanos The time spent in the interceptor, in nanoseconds
+	 */
+	public void recordInterceptorTime(final long nanos) {
+		mStats.recordInterceptor(nanos);
+	}
+
+	/**
+	 * @return A snapshot of the overhead niddler added to the application so far
+	 */
+	@NonNull
+	public NiddlerStats getStats() {
+		final NiddlerServer server = mServer;
+		final DiskMessageTier diskTier = mDiskTier;
+		return mStats.snapshot((server == null) ? 0 : server.queueDepth(),
+				mMessageCache.getEvictionCount(),
+				mMessageCache.getDroppedCount(),
+				mMessageCache.getCacheSize(),
+				(diskTier == null) ? 0L : diskTier.getSize(),
+				(server == null) ? Collections.<NiddlerStats.ClientStats>emptyList() : server.clientStats());
+	}
+
 	/**
 	 * @return True if the niddler server is started
 	 */
@@ -150,10 +733,29 @@ public final class Niddler implements NiddlerServer.WebSocketListener, Closeable
 		return mIsClosed;
 	}
 
+	/**
+	 * @return The number of bytes the message cache may currently use. This changes with memory pressure when the cache size is adaptive
+	 */
+	public long getCacheBudget() {
+		return mCacheBudget.getBudget();
+	}
+
+	private String buildCacheBudgetMessage() {
+		return MessageBuilder.buildCacheBudget(mCacheBudget.getBudget(), mCacheBudget.getBaseline(), mMessageCache.getCacheSize());
+	}
+
 	private void sendWithCache(final String message) {
-		if (mServer != null) {
-			mMessageCache.put(message);
-			mServer.sendToAll(message);
+		mMessageCache.put(message);
+		sendToAll(message);
+	}
+
+	/**
+	 * Sends the message to the connected clients. Without a server (yet) there is nobody to send to, the message only lives in the cache
+	 */
+	private void sendToAll(final String message) {
+		final NiddlerServer server = mServer;
+		if (server != null) {
+			server.sendToAll(message);
 		}
 	}
 
@@ -161,7 +763,12 @@ public final class Niddler implements NiddlerServer.WebSocketListener, Closeable
 	 * @return The socket port we are listening on
 	 */
 	public int getPort() {
-		return mServer.getPort();
+		final NiddlerServer server = mServer;
+		if (server != null) {
+			return server.getPort();
+		}
+		final ServerDoorbell doorbell = mDoorbell;
+		return (doorbell == null) ? mPort : doorbell.getPort();
 	}
 
 	@SuppressWarnings({"WeakerAccess", "unused", "PackageVisibleField", "StaticMethodOnlyUsedInOneClass"})
@@ -187,13 +794,30 @@ public final class Niddler implements NiddlerServer.WebSocketListener, Closeable
 		}
 	}
 
+	private interface Export {
+
+		void writeTo(final Writer out) throws IOException;
+
+	}
+
 	@SuppressWarnings({"unused", "SameParameterValue", "MagicNumber"})
 	public static final class Builder {
 
 		private int mPort = 6555;
-		private long mCacheSize = 1024 * 1024; // By default use 1 MB cache
+		private long mCacheSize = 1024 * 1024; // By default use 1 MB cache, until the size is derived from the device's memory class
+		private boolean mAdaptiveCache = true;
+		private CacheEvictionPolicy mEvictionPolicy = CacheEvictionPolicy.FIFO;
+		private long mDiskCacheSize = 0; // By default messages evicted from memory are dropped
+		private boolean mSearchIndex = false;
 		private NiddlerServerInfo mNiddlerServerInfo = null;
 		private String mPassword;
+		private long mBatchWindow = 5; // By default coalesce messages sent within 5 ms
+		private int mMaxBatchSize = 64 * 1024; // ... up to 64 KB per batch
+		private boolean mLazyStart = false;
+		@Nullable
+		private List<String> mRouteTemplates;
+		private long mRedundantCallWindow = 0;
+		private int mPayloadSampleRate = 0;
 
 		/**
 		 * Creates a new builder with a given password to use for the niddler server authentication
@@ -222,13 +846,53 @@ public final class Niddler implements NiddlerServer.WebSocketListener, Closeable
 		}
 
 		/**
-		 * Sets the cache size to be used for caching requests and responses while there is no client connected
+		 * Sets the cache size to be used for caching requests and responses while there is no client connected. When not set, the cache
+		 * size is derived from the device's memory class once niddler is attached to the application. In both cases the cache shrinks
+		 * temporarily when the system reports memory pressure
 		 *
 		 * @param cacheSize The cache size to be used, in bytes
 		 * @return Builder
 		 */
 		public Builder setCacheSize(final long cacheSize) {
 			mCacheSize = cacheSize;
+			mAdaptiveCache = false;
+			return this;
+		}
+
+		/**
+		 * Sets the policy that decides which messages are evicted first when the cache is full, defaults to
+		 * {@link CacheEvictionPolicy#FIFO}
+		 *
+		 * @param evictionPolicy The eviction policy to use, eg: {@link CacheEvictionPolicy#ERRORS_AND_SLOW_LAST}
+		 * @return Builder
+		 */
+		public Builder setCacheEvictionPolicy(@NonNull final CacheEvictionPolicy evictionPolicy) {
+			mEvictionPolicy = evictionPolicy;
+			return this;
+		}
+
+		/**
+		 * Enables the disk cache. Messages evicted from the memory cache are compressed and moved to files in the application's cache
+		 * directory, so far more calls can be kept for clients that connect later. The disk cache is enabled when niddler is attached to
+		 * the application
+		 *
+		 * @param diskCacheSize The maximum size of the disk cache, in bytes. Use 0 to disable the disk cache
+		 * @return Builder
+		 */
+		public Builder setDiskCacheSize(final long diskCacheSize) {
+			mDiskCacheSize = diskCacheSize;
+			return this;
+		}
+
+		/**
+		 * Enables the on-device search index. The urls, header values and textual bodies of the messages in the memory cache are
+		 * indexed as they are captured, so clients can find calls using the "search" command without downloading every body
+		 *
+		 * @param enabled True to maintain the search index
+		 * @return Builder
+		 */
+		public Builder setSearchIndexEnabled(final boolean enabled) {
+			mSearchIndex = enabled;
 			return this;
 		}
 
@@ -243,13 +907,97 @@ public final class Niddler implements NiddlerServer.WebSocketListener, Closeable
 			return this;
 		}
 
+		/**
+		 * Configures how messages are coalesced into batch frames for clients that opt in to batching during the handshake.
+		 * Use a window of 0 to disable batching
+		 *
+		 * @param windowMillis The maximum time, in milliseconds, a message is held back waiting for other messages
+		 * @param maxBatchSize The size of the batch, in characters, after which the batch is sent immediately
+		 * @return Builder
+		 */
+		public Builder setMessageBatching(final long windowMillis, final int maxBatchSize) {
+			mBatchWindow = windowMillis;
+			mMaxBatchSize = maxBatchSize;
+			return this;
+		}
+
+		/**
+		 * Enables lazy start. Building niddler then only sets up the message cache: the websocket server and its threads are created when
+		 * the first client connects. Until then a single thread holds the port, and captured calls only go into the cache
+		 *
+		 * @param lazyStart True to delay creating the server until the first client connects
+		 * @return Builder
+		 */
+		public Builder setLazyStart(final boolean lazyStart) {
+			mLazyStart = lazyStart;
+			return this;
+		}
+
+		/**
+		 * Enables per route statistics. Calls are grouped by method and route template, numeric, uuid and long hex path segments are
+		 * replaced by placeholders, eg: {@code GET api.example.com/users/{id}/posts}. Clients query the count, latency quantiles,
+		 * payload sizes and error rate of every route using the "getRouteStats" command
+		 *
+		 * @param enabled True to keep statistics per route
+		 * @return Builder
+		 */
+		public Builder setRouteStatsEnabled(final boolean enabled) {
+			if (!enabled) {
+				mRouteTemplates = null;
+			} else if (mRouteTemplates == null) {
+				mRouteTemplates = new ArrayList<>();
+			}
+			return this;
+		}
+
+		/**
+		 * Adds a route template that takes precedence over the automatic detection of placeholders, and enables per route statistics.
+		 * Templates are tried in the order they are added
+		 *
+		 * @param template The path of the route, where a segment between braces matches any single segment, eg: {@code /users/{name}/posts}
+		 * @return Builder
+		 */
+		public Builder addRouteTemplate(@NonNull final String template) {
+			setRouteStatsEnabled(true);
+			mRouteTemplates.add(template);
+			return this;
+		}
+
+		/**
+		 * Enables the redundant call detector. Clients receive an "insight" message when a call has the same method, url and body as a
+		 * call made less than the window earlier, or when a GET goes to the network while an earlier response for the same url was still
+		 * fresh according to its Cache-Control header, or could have been revalidated using its ETag or Last-Modified header
+		 *
+		 * @param windowMillis The time, in milliseconds, within which identical calls are reported as duplicates. Use 0 to disable
+		 * @return Builder
+		 */
+		public Builder setRedundantCallDetection(final long windowMillis) {
+			mRedundantCallWindow = windowMillis;
+			return this;
+		}
+
+		/**
+		 * Enables the payload analyzer. Per endpoint, the wire and decoded sizes and the content encodings of the responses are recorded.
+		 * A sample of the response bodies is compressed on a background thread to estimate what gzip would save, and json bodies are
+		 * broken down into the fields that take up the most space. Clients fetch the report using the "getPayloadReport" command
+		 *
+		 * @param sampleRate Analyze the body of one in this many responses. Use 0 to disable the analyzer
+		 * @return Builder
+		 */
+		public Builder setPayloadAnalysis(final int sampleRate) {
+			mPayloadSampleRate = sampleRate;
+			return this;
+		}
+
 		/**
 		 * Builds a Niddler instance with the configured parameters
 		 *
 		 * @return a Niddler instance
 		 */
 		public Niddler build() {
-			return new Niddler(mPassword, mPort, mCacheSize, mNiddlerServerInfo);
+			return new Niddler(mPassword, mPort, mCacheSize, mNiddlerServerInfo, mBatchWindow, mMaxBatchSize, mAdaptiveCache, mEvictionPolicy,
+					mDiskCacheSize, mSearchIndex, mLazyStart, mRouteTemplates, mRedundantCallWindow,
+					mPayloadSampleRate);
 		}
 
 	}
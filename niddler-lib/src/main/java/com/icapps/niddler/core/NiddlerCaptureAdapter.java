@@ -0,0 +1,242 @@
+package com.icapps.niddler.core;
+
+import com.icapps.niddler.util.ObjectPool;
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.UUID;
+
+/**
+ * Base class for adapters that capture traffic of http stacks other than OkHttp. Adapters obtain pooled {@link CapturedRequest} and
+ * {@link CapturedResponse} instances, fill them in (optionally using the streaming body hooks) and submit them. Submitted messages
+ * are serialized by niddler and returned to the pool, the adapter must not touch them afterwards
+ *
+ * @author Nicola Verbeeck
+ */
+@SuppressWarnings("WeakerAccess")
+public abstract class NiddlerCaptureAdapter {
+
+	private static final int POOL_SIZE = 8;
+
+	private static final ObjectPool<CapturedRequest> REQUEST_POOL = new ObjectPool<>(POOL_SIZE, new ObjectPool.Factory<CapturedRequest>() {
+		@Override
+		public CapturedRequest create() {
+			return new CapturedRequest();
+		}
+	});
+	private static final ObjectPool<CapturedResponse> RESPONSE_POOL = new ObjectPool<>(POOL_SIZE, new ObjectPool.Factory<CapturedResponse>() {
+		@Override
+		public CapturedResponse create() {
+			return new CapturedResponse();
+		}
+	});
+
+	private final Niddler mNiddler;
+
+	protected NiddlerCaptureAdapter(final Niddler niddler) {
+		mNiddler = niddler;
+	}
+
+	/**
+	 * @return A new unique id to link a request to its response
+	 */
+	protected static String newRequestId() {
+		return UUID.randomUUID().toString();
+	}
+
+	/**
+	 * @param requestId The id of the request
+	 * @return An empty request message
+	 */
+	protected final CapturedRequest obtainRequest(final String requestId) {
+		final CapturedRequest request = REQUEST_POOL.acquire();
+		request.init(requestId);
+		return request;
+	}
+
+	/**
+	 * @param requestId The id of the request this is the response for
+	 * @return An empty response message
+	 */
+	protected final CapturedResponse obtainResponse(final String requestId) {
+		final CapturedResponse response = RESPONSE_POOL.acquire();
+		response.init(requestId);
+		return response;
+	}
+
+	/**
+	 * @return True if niddler is currently capturing calls, adapters should not capture anything when this returns false
+	 */
+	protected final boolean isCapturing() {
+		return mNiddler.isCaptureEnabled();
+	}
+
+	/**
+	 * Sends the request to niddler and returns it to the pool
+	 *
+	 * @param request The request to log
+	 */
+	protected final void submit(final CapturedRequest request) {
+		try {
+			mNiddler.logRequest(request);
+		} finally {
+			REQUEST_POOL.release(request);
+		}
+	}
+
+	/**
+	 * Sends the response to niddler and returns it to the pool
+	 *
+	 * @param response The response to log
+	 */
+	protected final void submit(final CapturedResponse response) {
+		try {
+			mNiddler.logResponse(response);
+		} finally {
+			RESPONSE_POOL.release(response);
+		}
+	}
+
+	/**
+	 * Returns a request to the pool without logging it, eg: when the call was cancelled
+	 *
+	 * @param request The request to discard
+	 */
+	protected final void discard(final CapturedRequest request) {
+		REQUEST_POOL.release(request);
+	}
+
+	/**
+	 * Returns a response to the pool without logging it
+	 *
+	 * @param response The response to discard
+	 */
+	protected final void discard(final CapturedResponse response) {
+		RESPONSE_POOL.release(response);
+	}
+
+	/**
+	 * Wraps the stream the application writes the request body to, every byte written is also captured in the request's body
+	 *
+	 * @param stream  The original body stream
+	 * @param request The request the body belongs to
+	 * @return A stream that captures the written bytes
+	 */
+	protected final OutputStream captureRequestBody(final OutputStream stream, final CapturedRequest request) {
+		return new CapturingOutputStream(stream, request.body());
+	}
+
+	/**
+	 * Wraps the stream the application reads the response body from. Every byte read is also captured in the response's body. When the
+	 * stream is exhausted or closed, {@link #onResponseBodyComplete(CapturedResponse)} is called exactly once
+	 *
+	 * @param stream   The original body stream
+	 * @param response The response the body belongs to
+	 * @return A stream that captures the read bytes
+	 */
+	protected final InputStream captureResponseBody(final InputStream stream, final CapturedResponse response) {
+		return new CapturingInputStream(stream, response, this);
+	}
+
+	/**
+	 * Called when the response body has been read completely or the body stream was closed. By default this submits the response
+	 *
+	 * @param response The response the body was captured for
+	 */
+	protected void onResponseBodyComplete(final CapturedResponse response) {
+		submit(response);
+	}
+
+	private static final class CapturingOutputStream extends FilterOutputStream {
+
+		private final CapturedBody mBody;
+
+		CapturingOutputStream(final OutputStream out, final CapturedBody body) {
+			super(out);
+			mBody = body;
+		}
+
+		@Override
+		public void write(final int b) throws IOException {
+			out.write(b);
+			mBody.write(b);
+		}
+
+		@Override
+		public void write(final byte[] b, final int off, final int len) throws IOException {
+			out.write(b, off, len);
+			mBody.write(b, off, len);
+		}
+	}
+
+	private static final class CapturingInputStream extends FilterInputStream {
+
+		private final CapturedResponse mResponse;
+		private final NiddlerCaptureAdapter mAdapter;
+		private boolean mCompleted;
+
+		CapturingInputStream(final InputStream in, final CapturedResponse response, final NiddlerCaptureAdapter adapter) {
+			super(in);
+			mResponse = response;
+			mAdapter = adapter;
+		}
+
+		@Override
+		public int read() throws IOException {
+			final int b = in.read();
+			if (b == -1) {
+				complete();
+			} else if (!mCompleted) {
+				mResponse.body().write(b);
+			}
+			return b;
+		}
+
+		@Override
+		public int read(final byte[] b, final int off, final int len) throws IOException {
+			final int read = in.read(b, off, len);
+			if (read == -1) {
+				complete();
+			} else if (!mCompleted) {
+				mResponse.body().write(b, off, read);
+			}
+			return read;
+		}
+
+		@Override
+		public long skip(final long n) throws IOException {
+			if (n <= 0) {
+				return 0;
+			}
+			final byte[] buffer = new byte[(int) Math.min(n, 8192)];
+			final int read = read(buffer, 0, buffer.length); //Skipped bytes are part of the body too
+			return (read < 0) ? 0 : read;
+		}
+
+		@Override
+		public boolean markSupported() {
+			return false;
+		}
+
+		@Override
+		public void close() throws IOException {
+			try {
+				in.close();
+			} finally {
+				complete();
+			}
+		}
+
+		private void complete() {
+			if (mCompleted) {
+				return;
+			}
+			mCompleted = true;
+			mAdapter.onResponseBodyComplete(mResponse);
+		}
+	}
+
+}
@@ -0,0 +1,25 @@
+package com.icapps.niddler.core;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import org.json.JSONObject;
+
+/**
+ * Listener for commands sent by authenticated niddler clients, register it using
+ * {@link Niddler#registerCommandListener(String, NiddlerCommandListener)}. Commands are delivered on the websocket thread, long running
+ * work should be moved to a background thread
+ *
+ * @author Nicola Verbeeck
+ */
+public interface NiddlerCommandListener {
+
+	/**
+	 * @param command The json command as sent by the client, the command's type is stored in the "type" field
+	 * @return A json message to send back to the client that issued the command, or null if the command is not handled or does not
+	 * require a reply
+	 */
+	@Nullable
+	String onCommand(@NonNull final JSONObject command);
+
+}
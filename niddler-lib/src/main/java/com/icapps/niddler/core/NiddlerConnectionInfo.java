@@ -0,0 +1,40 @@
+package com.icapps.niddler.core;
+
+import android.support.annotation.Nullable;
+
+/**
+ * Optional interface for responses that know which connection carried them. The connection details of responses implementing this
+ * interface are added to the response message
+ *
+ * @author Nicola Verbeeck
+ */
+public interface NiddlerConnectionInfo {
+
+	/**
+	 * @return The id of the connection, unique for the lifetime of the process. -1 if the response did not use a connection, eg: when it
+	 * was served from cache
+	 */
+	int connectionId();
+
+	/**
+	 * @return True if the connection was used by an earlier call
+	 */
+	boolean connectionReused();
+
+	/**
+	 * @return The protocol spoken on the connection, eg: h2
+	 */
+	@Nullable
+	String connectionProtocol();
+
+	/**
+	 * @return The number of calls using the connection at the time this call acquired it, including this call
+	 */
+	int concurrentStreams();
+
+	/**
+	 * @return The time, in milliseconds, this call spent setting up the connection (dns, connect and handshake). 0 if it was reused
+	 */
+	int connectTime();
+
+}
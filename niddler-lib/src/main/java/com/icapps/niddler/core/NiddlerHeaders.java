@@ -0,0 +1,18 @@
+package com.icapps.niddler.core;
+
+/**
+ * Optional interface for messages that can expose their headers as indexed name/value pairs. Messages implementing this interface are
+ * serialized without building the header map returned by {@link NiddlerMessageBase#getHeaders()}. Names may repeat for headers with
+ * multiple values
+ *
+ * @author Nicola Verbeeck
+ */
+public interface NiddlerHeaders {
+
+	int headerCount();
+
+	String headerName(final int index);
+
+	String headerValue(final int index);
+
+}
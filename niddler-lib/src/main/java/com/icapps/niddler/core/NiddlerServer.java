@@ -1,5 +1,6 @@
 package com.icapps.niddler.core;
 
+import android.support.annotation.Nullable;
 import android.text.TextUtils;
 import android.util.Log;
 import com.icapps.niddler.util.Logging;
@@ -9,37 +10,47 @@ import org.java_websocket.server.WebSocketServer;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.net.UnknownHostException;
 import java.nio.channels.NotYetConnectedException;
-import java.util.Iterator;
-import java.util.LinkedList;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * @author Maarten Van Giel
  * @author Nicola Verbeeck
  */
-class NiddlerServer extends WebSocketServer {
+class NiddlerServer extends WebSocketServer implements MessageBatcher.BatchListener {
 
 	private static final String LOG_TAG = NiddlerServer.class.getSimpleName();
+	private static final String HEADER_BATCHING = "X-Niddler-Batching";
+	private static final String HEADER_RESUME_TOKEN = "X-Niddler-Resume-Token";
+
 	private final String mPackageName;
 	private final WebSocketListener mListener;
-	private final List<ServerConnection> mConnections;
+	private final Map<WebSocket, ServerConnection> mConnections;
 	private final String mPassword;
+	private final MessageBatcher mBatcher;
+	private final StatsRecorder mStats;
 
 	private NiddlerServer(final String password, final InetSocketAddress address, final String packageName,
-	                      final WebSocketListener listener) {
+	                      final WebSocketListener listener, final long batchWindow, final int maxBatchSize, final StatsRecorder stats) {
 		super(address);
+		mStats = stats;
 		mPackageName = packageName;
 		mListener = listener;
 		mPassword = password;
-		mConnections = new LinkedList<>();
+		mConnections = new ConcurrentHashMap<>();
+		mBatcher = new MessageBatcher(batchWindow, maxBatchSize, this);
 	}
 
 	NiddlerServer(final String password, final int port, final String packageName,
-	              final WebSocketListener listener) throws UnknownHostException {
-		this(password, new InetSocketAddress(port), packageName, listener);
+	              final WebSocketListener listener, final long batchWindow, final int maxBatchSize, final StatsRecorder stats)
+			throws UnknownHostException {
+		this(password, new InetSocketAddress(port), packageName, listener, batchWindow, maxBatchSize, stats);
 	}
 
 	@Override
@@ -48,12 +59,15 @@ class NiddlerServer extends WebSocketServer {
 			Log.d(LOG_TAG, "New socket connection: " + handshake.getResourceDescriptor());
 		}
 		final ServerConnection connection = new ServerConnection(conn);
-		synchronized (mConnections) {
-			mConnections.add(connection);
+		if (mBatcher.isEnabled() && "true".equalsIgnoreCase(handshake.getFieldValue(HEADER_BATCHING))) {
+			connection.enableBatching();
 		}
+		mConnections.put(conn, connection);
 		if (TextUtils.isEmpty(mPassword)) {
 			connection.noAuth();
 			authSuccess(conn);
+		} else if (handshake.hasFieldValue(HEADER_RESUME_TOKEN) && connection.resumeAuth(handshake.getFieldValue(HEADER_RESUME_TOKEN))) {
+			authSuccess(conn);
 		} else {
 			connection.sendAuthRequest(mPackageName);
 		}
@@ -64,14 +78,7 @@ class NiddlerServer extends WebSocketServer {
 		if (Logging.DO_LOG) {
 			Log.d(LOG_TAG, "Connection closed: " + conn);
 		}
-		synchronized (mConnections) {
-			final Iterator<ServerConnection> iterator = mConnections.iterator();
-			while (iterator.hasNext()) {
-				if (iterator.next().isFor(conn)) {
-					iterator.remove();
-				}
-			}
-		}
+		mConnections.remove(conn);
 	}
 
 	@Override
@@ -79,7 +86,7 @@ class NiddlerServer extends WebSocketServer {
 		if (Logging.DO_LOG) {
 			Log.d(LOG_TAG, conn + ": " + message);
 		}
-		final ServerConnection connection = getConnection(conn);
+		final ServerConnection connection = mConnections.get(conn);
 		if (connection == null) {
 			conn.close();
 			return;
@@ -94,11 +101,22 @@ class NiddlerServer extends WebSocketServer {
 						if (Logging.DO_LOG) {
 							Log.w(LOG_TAG, "Client sent wrong authentication code!");
 						}
+						break;
 					}
 					authSuccess(conn);
 					break;
 				default:
-					if (Logging.DO_LOG) {
+					if (!connection.canReceiveData()) {
+						if (Logging.DO_LOG) {
+							Log.w(LOG_TAG, "Received command from unauthenticated client: " + message);
+						}
+						break;
+					}
+					final CommandReply reply = (mListener == null) ? null : mListener.onCommand(type, object);
+					if (reply != null) {
+						conn.send(reply.message);
+						reply.onSent(conn);
+					} else if (Logging.DO_LOG) {
 						Log.w(LOG_TAG, "Received unsolicited message from client: " + message);
 					}
 			}
@@ -109,17 +127,6 @@ class NiddlerServer extends WebSocketServer {
 		}
 	}
 
-	private ServerConnection getConnection(final WebSocket conn) {
-		synchronized (mConnections) {
-			for (final ServerConnection connection : mConnections) {
-				if (connection.isFor(conn)) {
-					return connection;
-				}
-			}
-		}
-		return null;
-	}
-
 	private void authSuccess(final WebSocket conn) {
 		if (mListener != null) {
 			mListener.onConnectionOpened(conn);
@@ -133,29 +140,87 @@ class NiddlerServer extends WebSocketServer {
 		}
 	}
 
+	@Override
+	public void stop(final int timeout) throws IOException, InterruptedException {
+		mBatcher.shutdown();
+		super.stop(timeout);
+	}
+
 	/**
-	 * Sends a String message to all sockets
+	 * Sends a String message to all sockets. Connections that opted in to batching receive the message as part of a batch frame.
+	 * No locks are held while writing, the connections are iterated using a weakly consistent view of the registry
 	 *
 	 * @param message the message to be sent
 	 */
-	final synchronized void sendToAll(final String message) {
-		synchronized (mConnections) {
-			for (final ServerConnection connection : mConnections) {
-				try {
-					if (connection.canReceiveData()) {
-						connection.send(message);
-					}
-				} catch (final NotYetConnectedException ignored) {
-					//Nothing to do, wait for the connection to complete
-				} catch (final IllegalArgumentException ignored) {
-					Log.e(LOG_TAG, "WebSocket error", ignored);
+	final void sendToAll(final String message) {
+		boolean needsBatch = false;
+		SharedFrame frame = null;
+		for (final ServerConnection connection : mConnections.values()) {
+			if (!connection.canReceiveData()) {
+				continue;
+			}
+			if (connection.isBatching()) {
+				needsBatch = true;
+			} else {
+				if (frame == null) {
+					frame = new SharedFrame(message, this, mStats);
 				}
+				send(connection, frame);
+			}
+		}
+		if (needsBatch) {
+			mBatcher.offer(message);
+		}
+	}
+
+	@Override
+	public final void onBatchReady(final String batch) {
+		final SharedFrame frame = new SharedFrame(batch, this, mStats);
+		for (final ServerConnection connection : mConnections.values()) {
+			if (connection.canReceiveData() && connection.isBatching()) {
+				send(connection, frame);
 			}
 		}
 	}
 
+	private void send(final ServerConnection connection, final SharedFrame frame) {
+		try {
+			connection.send(frame);
+		} catch (final NotYetConnectedException ignored) {
+			//Nothing to do, wait for the connection to complete
+			mStats.recordDropped();
+		} catch (final IllegalArgumentException ignored) {
+			Log.e(LOG_TAG, "WebSocket error", ignored);
+			mStats.recordDropped();
+		}
+	}
+
+	/**
+	 * @return The number of messages waiting for the next batch or in the socket queues of the clients
+	 */
+	int queueDepth() {
+		int depth = mBatcher.getPendingCount();
+		for (final ServerConnection connection : mConnections.values()) {
+			depth += connection.queuedFrames();
+		}
+		return depth;
+	}
+
+	List<NiddlerStats.ClientStats> clientStats() {
+		final List<NiddlerStats.ClientStats> stats = new ArrayList<>();
+		for (final ServerConnection connection : mConnections.values()) {
+			if (connection.canReceiveData()) {
+				stats.add(connection.stats());
+			}
+		}
+		return stats;
+	}
+
 	interface WebSocketListener {
 		void onConnectionOpened(final WebSocket conn);
+
+		@Nullable
+		CommandReply onCommand(final String type, final JSONObject command);
 	}
 
 }
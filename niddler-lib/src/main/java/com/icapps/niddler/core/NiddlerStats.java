@@ -0,0 +1,208 @@
+package com.icapps.niddler.core;
+
+import android.support.annotation.NonNull;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Snapshot of the overhead niddler itself adds to the application. Totals are counted since niddler was created, the values are read
+ * without stopping the threads updating them, so they are not necessarily consistent with each other
+ *
+ * @author Nicola Verbeeck
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+public final class NiddlerStats {
+
+	private final long mInterceptedCalls;
+	private final long mInterceptorNanos;
+	private final long mSerializedMessages;
+	private final long mSerializationNanos;
+	private final long mSerializedCharacters;
+	private final long mEncodedFrames;
+	private final long mEncodedBytes;
+	private final int mQueueDepth;
+	private final long mDroppedMessages;
+	private final long mCacheEvictions;
+	private final long mMemoryBytesHeld;
+	private final long mDiskBytesHeld;
+	private final List<ClientStats> mClients;
+
+	NiddlerStats(final long interceptedCalls, final long interceptorNanos, final long serializedMessages, final long serializationNanos,
+			final long serializedCharacters, final long encodedFrames, final long encodedBytes, final int queueDepth,
+			final long droppedMessages, final long cacheEvictions, final long memoryBytesHeld, final long diskBytesHeld,
+			final List<ClientStats> clients) {
+		mInterceptedCalls = interceptedCalls;
+		mInterceptorNanos = interceptorNanos;
+		mSerializedMessages = serializedMessages;
+		mSerializationNanos = serializationNanos;
+		mSerializedCharacters = serializedCharacters;
+		mEncodedFrames = encodedFrames;
+		mEncodedBytes = encodedBytes;
+		mQueueDepth = queueDepth;
+		mDroppedMessages = droppedMessages;
+		mCacheEvictions = cacheEvictions;
+		mMemoryBytesHeld = memoryBytesHeld;
+		mDiskBytesHeld = diskBytesHeld;
+		mClients = Collections.unmodifiableList(clients);
+	}
+
+	/**
+	 * @return The number of calls that went through a niddler interceptor while capturing
+	 */
+	public long getInterceptedCalls() {
+		return mInterceptedCalls;
+	}
+
+	/**
+	 * @return The total time spent in niddler interceptors outside of the network call itself, including serialization
+	 */
+	public long getInterceptorNanos() {
+		return mInterceptorNanos;
+	}
+
+	/**
+	 * @return The average time a call spent in a niddler interceptor, excluding the network call itself
+	 */
+	public long getInterceptorNanosPerCall() {
+		return (mInterceptedCalls == 0) ? 0 : (mInterceptorNanos / mInterceptedCalls);
+	}
+
+	/**
+	 * @return The number of requests and responses serialized to json
+	 */
+	public long getSerializedMessages() {
+		return mSerializedMessages;
+	}
+
+	/**
+	 * @return The total time spent serializing requests and responses to json
+	 */
+	public long getSerializationNanos() {
+		return mSerializationNanos;
+	}
+
+	/**
+	 * @return The total length of the serialized requests and responses, in characters
+	 */
+	public long getSerializedCharacters() {
+		return mSerializedCharacters;
+	}
+
+	/**
+	 * @return The number of websocket frames encoded. A frame sent to multiple clients is encoded once
+	 */
+	public long getEncodedFrames() {
+		return mEncodedFrames;
+	}
+
+	/**
+	 * @return The total size of the encoded websocket frames, in bytes
+	 */
+	public long getEncodedBytes() {
+		return mEncodedBytes;
+	}
+
+	/**
+	 * @return The number of messages waiting to be sent: queued for the next batch or waiting in the clients' socket queues
+	 */
+	public int getQueueDepth() {
+		return mQueueDepth;
+	}
+
+	/**
+	 * @return The number of messages that were captured but could neither be cached nor sent
+	 */
+	public long getDroppedMessages() {
+		return mDroppedMessages;
+	}
+
+	/**
+	 * @return The number of messages evicted from the memory cache
+	 */
+	public long getCacheEvictions() {
+		return mCacheEvictions;
+	}
+
+	/**
+	 * @return The (estimated) memory used by the messages in the memory cache, in bytes
+	 */
+	public long getMemoryBytesHeld() {
+		return mMemoryBytesHeld;
+	}
+
+	/**
+	 * @return The size of the disk cache, in bytes
+	 */
+	public long getDiskBytesHeld() {
+		return mDiskBytesHeld;
+	}
+
+	/**
+	 * @return The statistics of every connected client
+	 */
+	@NonNull
+	public List<ClientStats> getClients() {
+		return mClients;
+	}
+
+	public static final class ClientStats {
+
+		private final String mAddress;
+		private final long mMessagesSent;
+		private final long mSendNanos;
+		private final long mMaxSendNanos;
+		private final int mQueuedFrames;
+
+		ClientStats(final String address, final long messagesSent, final long sendNanos, final long maxSendNanos, final int queuedFrames) {
+			mAddress = address;
+			mMessagesSent = messagesSent;
+			mSendNanos = sendNanos;
+			mMaxSendNanos = maxSendNanos;
+			mQueuedFrames = queuedFrames;
+		}
+
+		/**
+		 * @return The remote address of the client
+		 */
+		public String getAddress() {
+			return mAddress;
+		}
+
+		/**
+		 * @return The number of messages (or batches) sent to the client
+		 */
+		public long getMessagesSent() {
+			return mMessagesSent;
+		}
+
+		/**
+		 * @return The total time spent handing messages to the client's socket
+		 */
+		public long getSendNanos() {
+			return mSendNanos;
+		}
+
+		/**
+		 * @return The average time it took to hand a message to the client's socket
+		 */
+		public long getSendNanosPerMessage() {
+			return (mMessagesSent == 0) ? 0 : (mSendNanos / mMessagesSent);
+		}
+
+		/**
+		 * @return The longest time it took to hand a message to the client's socket
+		 */
+		public long getMaxSendNanos() {
+			return mMaxSendNanos;
+		}
+
+		/**
+		 * @return The number of frames waiting to be written to the client's socket
+		 */
+		public int getQueuedFrames() {
+			return mQueuedFrames;
+		}
+	}
+
+}
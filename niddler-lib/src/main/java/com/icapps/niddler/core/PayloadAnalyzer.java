@@ -0,0 +1,537 @@
+package com.icapps.niddler.core;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.JsonReader;
+import android.util.JsonToken;
+import android.util.Log;
+
+import com.icapps.niddler.util.Logging;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Reports, per endpoint, how large the response payloads are on the wire and after decoding, which content encodings are used and how
+ * much gzip would save. For json bodies, the fields that make up most of the payload are reported as hotspots.
+ * <p>
+ * Sizes and encodings are recorded for every response, which only reads a few headers. Compressing bodies and walking json is done for
+ * a sample of the responses on a background thread: the buffer every n-th response body was written to is queued, when the queue is
+ * full the sample is skipped. Only responses that came from the network (as reported by the interceptor) are analyzed, cache hits don't
+ * ship a payload
+ *
+ * @author Nicola Verbeeck
+ */
+final class PayloadAnalyzer {
+
+	private static final String LOG_TAG = PayloadAnalyzer.class.getSimpleName();
+	static final int MAX_SAMPLE_SIZE = 1024 * 1024;
+	private static final int MAX_QUEUED_SAMPLES = 8;
+	private static final int MAX_ENDPOINTS = 256;
+	private static final int MAX_FIELDS = 64;
+	private static final int MAX_DEPTH = 8;
+	private static final int MAX_HOTSPOTS = 10;
+	private static final int GZIP_OVERHEAD = 18; //Gzip header and trailer around the deflate stream
+
+	private final RouteTemplates mTemplates;
+	private final int mSampleRate;
+	private final Map<String, Endpoint> mEndpoints = new HashMap<>();
+	private final ExecutorService mWorker;
+	private int mSampleCounter;
+
+	/**
+	 * @param templates  The templates to group the responses by
+	 * @param sampleRate Analyze the body of one in this many responses
+	 */
+	PayloadAnalyzer(@NonNull final RouteTemplates templates, final int sampleRate) {
+		mTemplates = templates;
+		mSampleRate = Math.max(1, sampleRate);
+		mWorker = new ThreadPoolExecutor(0, 1, 5, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(MAX_QUEUED_SAMPLES),
+				new ThreadFactory() {
+					@Override
+					public Thread newThread(final Runnable runnable) {
+						final Thread thread = new Thread(runnable, "Niddler-payload-analyzer");
+						thread.setDaemon(true);
+						thread.setPriority(Thread.MIN_PRIORITY);
+						return thread;
+					}
+				}, new ThreadPoolExecutor.DiscardPolicy());
+	}
+
+	/**
+	 * Decides if the body of the response should be sampled, the caller then keeps the buffer the body is written to while building the
+	 * message
+	 *
+	 * @param response The response that is about to be logged
+	 * @return True if the body of the response should be passed to {@link #onResponse(NiddlerResponse, int, BodyBuffer)}
+	 */
+	boolean shouldSample(@NonNull final NiddlerResponse response) {
+		if (response.actualNetworkReply() == null) {
+			return false;
+		}
+		final String encoding = encoding(response);
+		if (encoding != null && !"gzip".equals(encoding)) {
+			return false; //We can only decode gzip ourselves
+		}
+		synchronized (mEndpoints) {
+			return (mSampleCounter++ % mSampleRate) == 0;
+		}
+	}
+
+	/**
+	 * @param response The captured response
+	 * @param bodySize The size of the body as captured
+	 * @param body     The buffer holding the body when the response was sampled, null otherwise. The analyzer takes ownership of it
+	 */
+	void onResponse(@NonNull final NiddlerResponse response, final int bodySize, @Nullable final BodyBuffer body) {
+		final NiddlerRequest networkRequest = response.actualNetworkRequest();
+		final NiddlerResponse networkReply = response.actualNetworkReply();
+		if (networkRequest == null || networkReply == null || networkRequest.getUrl() == null) {
+			return;
+		}
+		final String appEncoding = encoding(response);
+		final String wireEncoding = (appEncoding != null) ? appEncoding : encoding(networkReply);
+		final long contentLength = parseLength(MessageBuilder.findHeader(networkReply, "content-length"));
+		final long wireSize;
+		final long decodedSize;
+		if (appEncoding != null) { //The application asked for the encoded body itself, what we captured is what went over the wire
+			wireSize = bodySize;
+			decodedSize = -1L;
+		} else {
+			decodedSize = bodySize;
+			wireSize = (contentLength >= 0 || wireEncoding != null) ? contentLength : bodySize;
+		}
+		final String contentType = MessageBuilder.findHeader(response, "content-type");
+		final boolean json = contentType != null && contentType.toLowerCase(Locale.ENGLISH).contains("json");
+
+		final Endpoint endpoint;
+		synchronized (mEndpoints) {
+			endpoint = endpoint(networkRequest.getMethod() + ' ' + mTemplates.template(networkRequest.getUrl()));
+			endpoint.record(wireEncoding, wireSize, decodedSize);
+		}
+		if (body != null && body.size() > 0) {
+			mWorker.execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						analyze(endpoint, body.buffer(), body.size(), "gzip".equals(appEncoding), wireEncoding != null, json);
+					} catch (final RuntimeException | StackOverflowError e) { //Never let a malformed body take the app down
+						if (Logging.DO_LOG) {
+							Log.w(LOG_TAG, "Failed to analyze body", e);
+						}
+					}
+				}
+			});
+		}
+	}
+
+	/**
+	 * @return The report of every endpoint seen so far, in no particular order
+	 */
+	@NonNull
+	List<Report> report() {
+		synchronized (mEndpoints) {
+			final List<Report> reports = new ArrayList<>(mEndpoints.size());
+			for (final Endpoint endpoint : mEndpoints.values()) {
+				reports.add(endpoint.report());
+			}
+			return reports;
+		}
+	}
+
+	void clear() {
+		synchronized (mEndpoints) {
+			mEndpoints.clear();
+		}
+	}
+
+	void close() {
+		mWorker.shutdownNow();
+	}
+
+	private Endpoint endpoint(final String key) {
+		Endpoint endpoint = mEndpoints.get(key);
+		if (endpoint == null) {
+			final String actualKey = (mEndpoints.size() < MAX_ENDPOINTS) ? key : RouteStats.OTHER_ROUTE;
+			endpoint = mEndpoints.get(actualKey);
+			if (endpoint == null) {
+				endpoint = new Endpoint(actualKey);
+				mEndpoints.put(actualKey, endpoint);
+			}
+		}
+		return endpoint;
+	}
+
+	private void analyze(final Endpoint endpoint, final byte[] captured, final int capturedSize, final boolean gzipped,
+			final boolean compressedOnWire, final boolean json) {
+		final byte[] body;
+		final int size;
+		if (gzipped) {
+			try {
+				body = gunzip(captured, capturedSize);
+			} catch (final IOException e) {
+				if (Logging.DO_LOG) {
+					Log.d(LOG_TAG, "Failed to decode body", e);
+				}
+				return;
+			}
+			size = body.length;
+		} else {
+			body = captured;
+			size = capturedSize;
+		}
+		final long gzipSize = deflatedSize(body, size) + GZIP_OVERHEAD;
+		final Map<String, long[]> fields = json ? fieldSizes(body, size) : null;
+		synchronized (mEndpoints) {
+			endpoint.recordSample(size, gzipped, compressedOnWire, gzipSize, fields);
+		}
+	}
+
+	private static long deflatedSize(final byte[] body, final int length) {
+		final Deflater deflater = new Deflater(6, true);
+		try {
+			deflater.setInput(body, 0, length);
+			deflater.finish();
+			final byte[] buffer = new byte[8 * 1024];
+			long size = 0;
+			while (!deflater.finished()) {
+				size += deflater.deflate(buffer);
+			}
+			return size;
+		} finally {
+			deflater.end();
+		}
+	}
+
+	private static byte[] gunzip(final byte[] body, final int size) throws IOException {
+		final InputStream in = new GZIPInputStream(new ByteArrayInputStream(body, 0, size));
+		try {
+			final ByteArrayOutputStream out = new ByteArrayOutputStream(size * 4);
+			final byte[] buffer = new byte[8 * 1024];
+			int read;
+			while ((read = in.read(buffer)) > 0 && out.size() < MAX_SAMPLE_SIZE * 4) {
+				out.write(buffer, 0, read);
+			}
+			return out.toByteArray();
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Walks the json body and sums the (approximate, in characters) serialized size of every field, fields of objects in arrays are
+	 * grouped under {@code path[]}. Values nested deeper than {@link #MAX_DEPTH} are skipped without recursing, only their size is counted
+	 *
+	 * @return The size of every field path, null if the body is not valid json
+	 */
+	@Nullable
+	private static Map<String, long[]> fieldSizes(final byte[] body, final int size) {
+		final Map<String, long[]> fields = new HashMap<>();
+		JsonReader reader = null;
+		try {
+			reader = new JsonReader(new InputStreamReader(new ByteArrayInputStream(body, 0, size), "UTF-8"));
+			walk(reader, "", 0, fields);
+			return fields;
+		} catch (final IOException | IllegalStateException | NumberFormatException e) {
+			return null;
+		} finally {
+			if (reader != null) {
+				try {
+					reader.close();
+				} catch (final IOException ignored) {
+				}
+			}
+		}
+	}
+
+	private static long walk(final JsonReader reader, final String path, final int depth, final Map<String, long[]> fields)
+			throws IOException {
+		if (depth >= MAX_DEPTH) {
+			return skipValue(reader);
+		}
+		final JsonToken token = reader.peek();
+		switch (token) {
+			case BEGIN_OBJECT: {
+				long size = 1;
+				reader.beginObject();
+				while (reader.hasNext()) {
+					final String name = reader.nextName();
+					final String fieldPath = path.isEmpty() ? name : (path + '.' + name);
+					final long fieldSize = name.length() + 3 + walk(reader, fieldPath, depth + 1, fields); //Quotes and colon
+					long[] total = fields.get(fieldPath);
+					if (total == null && fields.size() < MAX_FIELDS * 4) {
+						total = new long[1];
+						fields.put(fieldPath, total);
+					}
+					if (total != null) {
+						total[0] += fieldSize;
+					}
+					size += fieldSize + 1; //Comma or closing brace
+				}
+				reader.endObject();
+				return Math.max(2, size);
+			}
+			case BEGIN_ARRAY: {
+				long size = 1;
+				final String elementPath = path + "[]";
+				reader.beginArray();
+				while (reader.hasNext()) {
+					size += walk(reader, elementPath, depth + 1, fields) + 1; //Comma or closing bracket
+				}
+				reader.endArray();
+				return Math.max(2, size);
+			}
+			case STRING:
+				return reader.nextString().length() + 2;
+			case NUMBER:
+				return reader.nextString().length();
+			case BOOLEAN:
+				return reader.nextBoolean() ? 4 : 5;
+			case NULL:
+				reader.nextNull();
+				return 4;
+			default:
+				reader.skipValue();
+				return 0;
+		}
+	}
+
+	/**
+	 * Skips the next value like {@link JsonReader#skipValue()}, keeping track of the nesting in a counter instead of on the stack
+	 *
+	 * @return The (approximate) serialized size of the skipped value, counted the same way {@link #walk} does
+	 */
+	private static long skipValue(final JsonReader reader) throws IOException {
+		long size = 0; //Every value is counted with the comma or closing bracket that follows it
+		int nesting = 0;
+		boolean empty = false;
+		do {
+			final JsonToken token = reader.peek();
+			switch (token) {
+				case BEGIN_OBJECT:
+					reader.beginObject();
+					++nesting;
+					size += 2;
+					break;
+				case BEGIN_ARRAY:
+					reader.beginArray();
+					++nesting;
+					size += 2;
+					break;
+				case END_OBJECT:
+				case END_ARRAY:
+					if (token == JsonToken.END_OBJECT) {
+						reader.endObject();
+					} else {
+						reader.endArray();
+					}
+					--nesting;
+					size += empty ? 1 : 0; //Otherwise the closing bracket was counted with the last value
+					break;
+				case NAME:
+					size += reader.nextName().length() + 3; //Quotes and colon
+					break;
+				case STRING:
+					size += reader.nextString().length() + 3;
+					break;
+				case NUMBER:
+					size += reader.nextString().length() + 1;
+					break;
+				case BOOLEAN:
+					size += reader.nextBoolean() ? 5 : 6;
+					break;
+				case NULL:
+					reader.nextNull();
+					size += 5;
+					break;
+				default:
+					reader.skipValue();
+					break;
+			}
+			empty = token == JsonToken.BEGIN_OBJECT || token == JsonToken.BEGIN_ARRAY;
+		} while (nesting > 0);
+		return size - 1; //The value itself is not followed by anything
+	}
+
+	@Nullable
+	private static String encoding(final NiddlerResponse response) {
+		final String encoding = MessageBuilder.findHeader(response, "content-encoding");
+		if (encoding == null) {
+			return null;
+		}
+		final String normalized = encoding.trim().toLowerCase(Locale.ENGLISH);
+		return (normalized.isEmpty() || "identity".equals(normalized)) ? null : normalized;
+	}
+
+	private static long parseLength(@Nullable final String value) {
+		if (value == null) {
+			return -1L;
+		}
+		try {
+			return Long.parseLong(value.trim());
+		} catch (final NumberFormatException e) {
+			return -1L;
+		}
+	}
+
+	private static final class Endpoint {
+
+		final String mKey;
+		final Map<String, Integer> mEncodings = new HashMap<>();
+		final Map<String, long[]> mFields = new HashMap<>();
+		long mResponses;
+		long mWireBytes;
+		long mWireCount;
+		long mDecodedBytes;
+		long mDecodedCount;
+		long mMaxDecodedBytes;
+		long mSamples;
+		long mSampleBytes;
+		long mSampleGzipBytes;
+		long mSampleUncompressedBytes; //Decoded size of the samples that were sent without content encoding
+		long mSampleUncompressedGzipBytes;
+		long mJsonSamples;
+		long mJsonBytes;
+
+		Endpoint(final String key) {
+			mKey = key;
+		}
+
+		void record(@Nullable final String encoding, final long wireSize, final long decodedSize) {
+			++mResponses;
+			final String name = (encoding == null) ? "identity" : encoding;
+			final Integer count = mEncodings.get(name);
+			mEncodings.put(name, (count == null) ? 1 : (count + 1));
+			if (wireSize >= 0) {
+				mWireBytes += wireSize;
+				++mWireCount;
+			}
+			if (decodedSize >= 0) {
+				mDecodedBytes += decodedSize;
+				++mDecodedCount;
+				mMaxDecodedBytes = Math.max(mMaxDecodedBytes, decodedSize);
+			}
+		}
+
+		void recordSample(final int decodedSize, final boolean decodedBySampling, final boolean compressedOnWire, final long gzipSize,
+				@Nullable final Map<String, long[]> fields) {
+			++mSamples;
+			mSampleBytes += decodedSize;
+			mSampleGzipBytes += gzipSize;
+			if (!compressedOnWire) {
+				mSampleUncompressedBytes += decodedSize;
+				mSampleUncompressedGzipBytes += gzipSize;
+			}
+			if (decodedBySampling) { //The decoded size is only known now that the sample is decoded
+				mDecodedBytes += decodedSize;
+				++mDecodedCount;
+				mMaxDecodedBytes = Math.max(mMaxDecodedBytes, decodedSize);
+			}
+			if (fields == null) {
+				return;
+			}
+			++mJsonSamples;
+			mJsonBytes += decodedSize;
+			for (final Map.Entry<String, long[]> field : fields.entrySet()) {
+				long[] total = mFields.get(field.getKey());
+				if (total == null) {
+					if (mFields.size() >= MAX_FIELDS) {
+						continue;
+					}
+					total = new long[1];
+					mFields.put(field.getKey(), total);
+				}
+				total[0] += field.getValue()[0];
+			}
+		}
+
+		Report report() {
+			final List<Map.Entry<String, long[]>> fields = new ArrayList<>(mFields.entrySet());
+			Collections.sort(fields, new Comparator<Map.Entry<String, long[]>>() {
+				@Override
+				public int compare(final Map.Entry<String, long[]> first, final Map.Entry<String, long[]> second) {
+					final long a = first.getValue()[0];
+					final long b = second.getValue()[0];
+					return (a < b) ? 1 : ((a == b) ? 0 : -1);
+				}
+			});
+			final int hotspotCount = Math.min(MAX_HOTSPOTS, fields.size());
+			final String[] hotspotPaths = new String[hotspotCount];
+			final long[] hotspotBytes = new long[hotspotCount];
+			final double[] hotspotShares = new double[hotspotCount];
+			for (int i = 0; i < hotspotCount; ++i) {
+				final long total = fields.get(i).getValue()[0];
+				hotspotPaths[i] = fields.get(i).getKey();
+				hotspotBytes[i] = total / mJsonSamples;
+				hotspotShares[i] = (mJsonBytes == 0) ? 0.0 : Math.min(1.0, (double) total / mJsonBytes);
+			}
+			final int space = mKey.indexOf(' ');
+			return new Report((space < 0) ? null : mKey.substring(0, space), mKey.substring(space + 1), mResponses,
+					new HashMap<>(mEncodings), mWireBytes, mWireCount, mDecodedBytes, mDecodedCount, mMaxDecodedBytes, mSamples,
+					mSampleBytes, mSampleGzipBytes, mSampleUncompressedBytes - mSampleUncompressedGzipBytes, hotspotPaths, hotspotBytes,
+					hotspotShares);
+		}
+	}
+
+	@SuppressWarnings("PackageVisibleField")
+	static final class Report {
+
+		@Nullable
+		final String method;
+		final String template;
+		final long responses;
+		final Map<String, Integer> encodings;
+		final long wireBytes;
+		final long wireCount;
+		final long decodedBytes;
+		final long decodedCount;
+		final long maxDecodedBytes;
+		final long samples;
+		final long sampleBytes;
+		final long sampleGzipBytes;
+		final long sampleGzipSavings;
+		final String[] hotspotPaths;
+		final long[] hotspotBytes;
+		final double[] hotspotShares;
+
+		Report(@Nullable final String method, final String template, final long responses, final Map<String, Integer> encodings,
+				final long wireBytes, final long wireCount, final long decodedBytes, final long decodedCount, final long maxDecodedBytes,
+				final long samples, final long sampleBytes, final long sampleGzipBytes, final long sampleGzipSavings,
+				final String[] hotspotPaths, final long[] hotspotBytes, final double[] hotspotShares) {
+			this.method = method;
+			this.template = template;
+			this.responses = responses;
+			this.encodings = encodings;
+			this.wireBytes = wireBytes;
+			this.wireCount = wireCount;
+			this.decodedBytes = decodedBytes;
+			this.decodedCount = decodedCount;
+			this.maxDecodedBytes = maxDecodedBytes;
+			this.samples = samples;
+			this.sampleBytes = sampleBytes;
+			this.sampleGzipBytes = sampleGzipBytes;
+			this.sampleGzipSavings = sampleGzipSavings;
+			this.hotspotPaths = hotspotPaths;
+			this.hotspotBytes = hotspotBytes;
+			this.hotspotShares = hotspotShares;
+		}
+	}
+
+}
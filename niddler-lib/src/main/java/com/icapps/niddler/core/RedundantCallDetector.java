@@ -0,0 +1,201 @@
+package com.icapps.niddler.core;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.icapps.niddler.util.ExpiringHashTable;
+
+import java.util.Locale;
+
+/**
+ * Watches the captured calls for redundant network traffic:
+ * <ul>
+ * <li>Duplicates: a call with the same method, url and body as a call made less than the detection window earlier</li>
+ * <li>Cacheable: a GET that went to the network while the response of an earlier call to the same url was still fresh according to
+ * its {@code Cache-Control} header, or that was not made conditional while the earlier response carried an {@code ETag} or
+ * {@code Last-Modified} validator</li>
+ * </ul>
+ * Recent calls are kept in {@link ExpiringHashTable}s, so both memory use and the cost per call are bounded no matter how many calls
+ * are made. Whether a response came from the network is only known when the interceptor reports the network reply (OkHttp)
+ *
+ * @author Nicola Verbeeck
+ */
+final class RedundantCallDetector {
+
+	static final String REASON_FRESH = "fresh";
+	static final String REASON_NOT_REVALIDATED = "notRevalidated";
+
+	private static final int MAX_TRACKED_CALLS = 1024;
+	private static final int MAX_TRACKED_RESPONSES = 512;
+	private static final long VALIDATOR_TTL = 10 * 60 * 1000L; //How long we remember that a response could have been revalidated
+
+	private final long mWindow;
+	private final ExpiringHashTable<RecentCall> mRecentCalls = new ExpiringHashTable<>(MAX_TRACKED_CALLS);
+	private final ExpiringHashTable<CachedResponse> mCacheableResponses = new ExpiringHashTable<>(MAX_TRACKED_RESPONSES);
+
+	/**
+	 * @param window The time, in milliseconds, within which identical calls are reported as duplicates
+	 */
+	RedundantCallDetector(final long window) {
+		mWindow = window;
+	}
+
+	/**
+	 * @param request  The captured request
+	 * @param bodyHash The hash of the request body
+	 * @return The insight message to send when the request duplicates a recent call, null otherwise
+	 */
+	@Nullable
+	String onRequest(@NonNull final NiddlerRequest request, final long bodyHash) {
+		final String url = request.getUrl();
+		final String requestId = request.getRequestId();
+		if (url == null || requestId == null) {
+			return null;
+		}
+		final long now = request.getTimestamp();
+		final long key = hash(hash(bodyHash, request.getMethod()), url);
+		final RecentCall original;
+		final int occurrences;
+		synchronized (mRecentCalls) {
+			original = mRecentCalls.get(key, now);
+			if (original == null) {
+				mRecentCalls.put(key, new RecentCall(requestId, now), now + mWindow, now);
+				return null;
+			}
+			occurrences = ++original.mOccurrences;
+			mRecentCalls.put(key, original, now + mWindow, now); //The window slides along with the duplicates
+		}
+		return MessageBuilder.buildDuplicateInsight(requestId, original.mRequestId, request.getMethod(), url, occurrences,
+				now - original.mTimestamp);
+	}
+
+	/**
+	 * @param response The captured response
+	 * @return The insight message to send when the response was fetched from the network needlessly, null otherwise
+	 */
+	@Nullable
+	String onResponse(@NonNull final NiddlerResponse response) {
+		final NiddlerRequest networkRequest = response.actualNetworkRequest();
+		final NiddlerResponse networkReply = response.actualNetworkReply();
+		if (networkRequest == null || networkReply == null || !"GET".equals(networkRequest.getMethod())) {
+			return null; //Served from cache, or we can't tell
+		}
+		final String url = networkRequest.getUrl();
+		final String requestId = response.getRequestId();
+		if (url == null || requestId == null) {
+			return null;
+		}
+		final long now = response.getTimestamp();
+		final long key = hash(0L, url);
+		final boolean conditional = MessageBuilder.findHeader(networkRequest, "if-none-match") != null
+				|| MessageBuilder.findHeader(networkRequest, "if-modified-since") != null;
+
+		final CachedResponse previous;
+		synchronized (mCacheableResponses) {
+			previous = mCacheableResponses.get(key, now);
+			remember(key, requestId, networkReply, now);
+		}
+		if (previous == null || previous.mRequestId.equals(requestId)) {
+			return null;
+		}
+		if (now < previous.mFreshUntil) {
+			return MessageBuilder.buildCacheInsight(requestId, previous.mRequestId, url, REASON_FRESH, previous.mFreshUntil - now);
+		}
+		if (previous.mHasValidator && !conditional) {
+			return MessageBuilder.buildCacheInsight(requestId, previous.mRequestId, url, REASON_NOT_REVALIDATED, 0L);
+		}
+		return null;
+	}
+
+	void clear() {
+		synchronized (mRecentCalls) {
+			mRecentCalls.clear();
+		}
+		synchronized (mCacheableResponses) {
+			mCacheableResponses.clear();
+		}
+	}
+
+	private void remember(final long key, final String requestId, final NiddlerResponse networkReply, final long now) {
+		final String cacheControl = MessageBuilder.findHeader(networkReply, "cache-control");
+		long maxAge = 0L;
+		if (cacheControl != null) {
+			for (final String directive : cacheControl.toLowerCase(Locale.ENGLISH).split(",")) {
+				final String trimmed = directive.trim();
+				if ("no-store".equals(trimmed)) {
+					mCacheableResponses.remove(key);
+					return;
+				} else if (trimmed.startsWith("max-age=")) {
+					maxAge = parseSeconds(trimmed.substring(8));
+				} else if ("no-cache".equals(trimmed)) {
+					maxAge = -1L;
+					break;
+				}
+			}
+		}
+		if (maxAge > 0L) {
+			maxAge -= parseSeconds(MessageBuilder.findHeader(networkReply, "age"));
+		}
+		final boolean hasValidator = MessageBuilder.findHeader(networkReply, "etag") != null
+				|| MessageBuilder.findHeader(networkReply, "last-modified") != null;
+		final long freshUntil = now + Math.max(0L, maxAge) * 1000L;
+		if (freshUntil <= now && !hasValidator) {
+			mCacheableResponses.remove(key);
+			return;
+		}
+		mCacheableResponses.put(key, new CachedResponse(requestId, freshUntil, hasValidator),
+				hasValidator ? Math.max(freshUntil, now + VALIDATOR_TTL) : freshUntil, now);
+	}
+
+	private static long parseSeconds(@Nullable final String value) {
+		if (value == null) {
+			return 0L;
+		}
+		try {
+			return Long.parseLong(value.trim());
+		} catch (final NumberFormatException e) {
+			return 0L;
+		}
+	}
+
+	/**
+	 * Continues a 64 bit FNV-1a hash with the characters of the value
+	 */
+	private static long hash(final long seed, @Nullable final String value) {
+		long hash = seed ^ 0xCBF29CE484222325L;
+		if (value != null) {
+			final int length = value.length();
+			for (int i = 0; i < length; ++i) {
+				hash ^= value.charAt(i);
+				hash *= 0x100000001B3L;
+			}
+		}
+		return hash;
+	}
+
+	private static final class RecentCall {
+
+		final String mRequestId;
+		final long mTimestamp;
+		int mOccurrences = 1;
+
+		RecentCall(final String requestId, final long timestamp) {
+			mRequestId = requestId;
+			mTimestamp = timestamp;
+		}
+	}
+
+	private static final class CachedResponse {
+
+		final String mRequestId;
+		final long mFreshUntil;
+		final boolean mHasValidator;
+
+		CachedResponse(final String requestId, final long freshUntil, final boolean hasValidator) {
+			mRequestId = requestId;
+			mFreshUntil = freshUntil;
+			mHasValidator = hasValidator;
+		}
+	}
+
+}
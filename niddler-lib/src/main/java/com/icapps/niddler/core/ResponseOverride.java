@@ -0,0 +1,102 @@
+package com.icapps.niddler.core;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+/**
+ * A canned response that is served instead of the real response for matching requests
+ *
+ * @author Nicola Verbeeck
+ */
+@SuppressWarnings("WeakerAccess")
+public final class ResponseOverride {
+
+	private final String mId;
+	private final String mMethod;
+	private final String mUrl;
+	private final boolean mIgnoreQuery;
+	private final int mCode;
+	private final String mMessage;
+	private final String[] mHeaderNames;
+	private final String[] mHeaderValues;
+	private final byte[] mBody;
+
+	ResponseOverride(final String id, final String method, final String url, final boolean ignoreQuery, final int code,
+			final String message, final String[] headerNames, final String[] headerValues, final byte[] body) {
+		mId = id;
+		mMethod = method;
+		mUrl = url;
+		mIgnoreQuery = ignoreQuery;
+		mCode = code;
+		mMessage = message;
+		mHeaderNames = headerNames;
+		mHeaderValues = headerValues;
+		mBody = body;
+	}
+
+	@NonNull
+	public String getId() {
+		return mId;
+	}
+
+	@NonNull
+	public String getMethod() {
+		return mMethod;
+	}
+
+	@NonNull
+	public String getUrl() {
+		return mUrl;
+	}
+
+	/**
+	 * @return True if the override matches the url regardless of its query string
+	 */
+	public boolean ignoresQuery() {
+		return mIgnoreQuery;
+	}
+
+	public int getCode() {
+		return mCode;
+	}
+
+	@NonNull
+	public String getMessage() {
+		return mMessage;
+	}
+
+	public int getHeaderCount() {
+		return mHeaderNames.length;
+	}
+
+	public String getHeaderName(final int index) {
+		return mHeaderNames[index];
+	}
+
+	public String getHeaderValue(final int index) {
+		return mHeaderValues[index];
+	}
+
+	/**
+	 * @param name The name of the header, case insensitive
+	 * @return The first value of the header or null if the override does not define the header
+	 */
+	@Nullable
+	public String getHeader(@NonNull final String name) {
+		for (int i = 0; i < mHeaderNames.length; ++i) {
+			if (mHeaderNames[i].equalsIgnoreCase(name)) {
+				return mHeaderValues[i];
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @return The body of the response. Do not modify the returned array
+	 */
+	@NonNull
+	public byte[] getBody() {
+		return mBody;
+	}
+
+}
@@ -0,0 +1,98 @@
+package com.icapps.niddler.core;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * In memory store of {@link ResponseOverride}s registered by clients. Overrides are matched on the method and the exact url, or on the
+ * url without its query string, using hash lookups so the cost per request does not grow with the number of overrides
+ *
+ * @author Nicola Verbeeck
+ */
+@SuppressWarnings("WeakerAccess")
+public final class ResponseOverrides {
+
+	private final ConcurrentMap<String, ResponseOverride> mExact = new ConcurrentHashMap<>();
+	private final ConcurrentMap<String, ResponseOverride> mIgnoringQuery = new ConcurrentHashMap<>();
+	private final ConcurrentMap<String, ResponseOverride> mById = new ConcurrentHashMap<>();
+
+	ResponseOverrides() {
+	}
+
+	/**
+	 * @return True if there are no overrides registered, use this to skip building the lookup key
+	 */
+	public boolean isEmpty() {
+		return mById.isEmpty();
+	}
+
+	/**
+	 * Finds the override for the request
+	 *
+	 * @param method The method of the request
+	 * @param url    The full url of the request
+	 * @return The override to serve or null if the request should go to the network
+	 */
+	@Nullable
+	public ResponseOverride find(@NonNull final String method, @NonNull final String url) {
+		if (mById.isEmpty()) {
+			return null;
+		}
+		final String upperMethod = method.toUpperCase(Locale.US);
+		final ResponseOverride exact = mExact.get(key(upperMethod, url));
+		if (exact != null) {
+			return exact;
+		}
+		if (mIgnoringQuery.isEmpty()) {
+			return null;
+		}
+		return mIgnoringQuery.get(key(upperMethod, stripQuery(url)));
+	}
+
+	/**
+	 * Registers the override. An override with the same method and url replaces the existing one, which is removed completely
+	 */
+	synchronized void add(@NonNull final ResponseOverride override) {
+		remove(override.getId());
+		mById.put(override.getId(), override);
+		final ResponseOverride displaced = lookup(override).put(lookupKey(override), override);
+		if (displaced != null) {
+			mById.remove(displaced.getId(), displaced);
+		}
+	}
+
+	synchronized void remove(@NonNull final String id) {
+		final ResponseOverride override = mById.remove(id);
+		if (override != null) {
+			lookup(override).remove(lookupKey(override), override);
+		}
+	}
+
+	synchronized void clear() {
+		mById.clear();
+		mExact.clear();
+		mIgnoringQuery.clear();
+	}
+
+	private ConcurrentMap<String, ResponseOverride> lookup(final ResponseOverride override) {
+		return override.ignoresQuery() ? mIgnoringQuery : mExact;
+	}
+
+	private static String lookupKey(final ResponseOverride override) {
+		return key(override.getMethod(), override.ignoresQuery() ? stripQuery(override.getUrl()) : override.getUrl());
+	}
+
+	private static String key(final String method, final String url) {
+		return method + ' ' + url;
+	}
+
+	private static String stripQuery(final String url) {
+		final int index = url.indexOf('?');
+		return (index < 0) ? url : url.substring(0, index);
+	}
+
+}
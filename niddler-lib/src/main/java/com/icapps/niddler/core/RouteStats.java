@@ -0,0 +1,282 @@
+package com.icapps.niddler.core;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Aggregates captured calls per route template (see {@link RouteTemplates}): the number of calls, the latency distribution, the payload
+ * sizes and the number of error responses. Memory use is bounded: latencies are kept in a fixed size histogram, at most
+ * {@link #MAX_ROUTES} routes are tracked (further routes are counted under {@link #OTHER_ROUTE}) and at most {@link #MAX_PENDING}
+ * requests wait for their response
+ *
+ * @author Nicola Verbeeck
+ */
+final class RouteStats {
+
+	static final String OTHER_ROUTE = "(other)";
+	private static final int MAX_ROUTES = 256;
+	private static final int MAX_PENDING = 1024;
+
+	private final RouteTemplates mTemplates;
+	private final Map<String, Route> mRoutes = new HashMap<>();
+	private final Map<String, Pending> mPending = new LinkedHashMap<String, Pending>() {
+		@Override
+		protected boolean removeEldestEntry(final Map.Entry<String, Pending> eldest) {
+			return size() > MAX_PENDING; //Requests that never got a response (failed or cancelled calls)
+		}
+	};
+
+	RouteStats(@NonNull final RouteTemplates templates) {
+		mTemplates = templates;
+	}
+
+	/**
+	 * @param request  The request that was captured
+	 * @param bodySize The size of the request body, in bytes
+	 */
+	void onRequest(@NonNull final NiddlerRequest request, final int bodySize) {
+		final String url = request.getUrl();
+		final String requestId = request.getRequestId();
+		if (url == null || requestId == null) {
+			return;
+		}
+		final String key = request.getMethod() + ' ' + mTemplates.template(url);
+		synchronized (mPending) {
+			mPending.put(requestId, new Pending(key, request.getTimestamp(), bodySize));
+		}
+	}
+
+	/**
+	 * @param response The response that was captured
+	 * @param bodySize The size of the response body, in bytes
+	 */
+	void onResponse(@NonNull final NiddlerResponse response, final int bodySize) {
+		final String requestId = response.getRequestId();
+		final Pending pending;
+		synchronized (mPending) {
+			pending = (requestId == null) ? null : mPending.remove(requestId);
+		}
+		final String key;
+		final long latency;
+		final int requestSize;
+		if (pending != null) {
+			key = pending.mKey;
+			latency = response.getTimestamp() - pending.mTimestamp;
+			requestSize = pending.mBodySize;
+		} else {
+			final NiddlerRequest networkRequest = response.actualNetworkRequest();
+			if (networkRequest == null || networkRequest.getUrl() == null) {
+				return;
+			}
+			key = networkRequest.getMethod() + ' ' + mTemplates.template(networkRequest.getUrl());
+			latency = response.getWaitTime() + response.getReadTime();
+			requestSize = 0;
+		}
+		final Integer statusCode = response.getStatusCode();
+		final boolean error = statusCode != null && statusCode >= 400;
+
+		synchronized (mRoutes) {
+			Route route = mRoutes.get(key);
+			if (route == null) {
+				route = mRoutes.get(OTHER_ROUTE);
+				if (mRoutes.size() < MAX_ROUTES || route == null) {
+					route = new Route((mRoutes.size() < MAX_ROUTES) ? key : OTHER_ROUTE);
+					mRoutes.put(route.mKey, route);
+				}
+			}
+			route.record(Math.max(0L, latency), requestSize, bodySize, error);
+		}
+	}
+
+	/**
+	 * @return The statistics of every route seen so far, in no particular order
+	 */
+	@NonNull
+	List<Snapshot> snapshot() {
+		synchronized (mRoutes) {
+			final List<Snapshot> snapshots = new ArrayList<>(mRoutes.size());
+			for (final Route route : mRoutes.values()) {
+				snapshots.add(route.snapshot());
+			}
+			return snapshots;
+		}
+	}
+
+	void clear() {
+		synchronized (mRoutes) {
+			mRoutes.clear();
+		}
+	}
+
+	private static final class Pending {
+
+		final String mKey;
+		final long mTimestamp;
+		final int mBodySize;
+
+		Pending(final String key, final long timestamp, final int bodySize) {
+			mKey = key;
+			mTimestamp = timestamp;
+			mBodySize = bodySize;
+		}
+	}
+
+	private static final class Route {
+
+		final String mKey;
+		final LatencyHistogram mLatency = new LatencyHistogram();
+		long mCount;
+		long mErrors;
+		long mRequestBytes;
+		long mMaxRequestBytes;
+		long mResponseBytes;
+		long mMaxResponseBytes;
+
+		Route(final String key) {
+			mKey = key;
+		}
+
+		void record(final long latency, final int requestSize, final int responseSize, final boolean error) {
+			++mCount;
+			if (error) {
+				++mErrors;
+			}
+			mLatency.record(latency);
+			mRequestBytes += requestSize;
+			mMaxRequestBytes = Math.max(mMaxRequestBytes, requestSize);
+			mResponseBytes += responseSize;
+			mMaxResponseBytes = Math.max(mMaxResponseBytes, responseSize);
+		}
+
+		Snapshot snapshot() {
+			final int space = mKey.indexOf(' ');
+			return new Snapshot((space < 0) ? null : mKey.substring(0, space), mKey.substring(space + 1), mCount, mErrors,
+					mLatency.min(), mLatency.mean(), mLatency.quantile(0.5), mLatency.quantile(0.9), mLatency.quantile(0.99),
+					mLatency.max(), mRequestBytes, mMaxRequestBytes, mResponseBytes, mMaxResponseBytes);
+		}
+	}
+
+	/**
+	 * Histogram of latencies in milliseconds. Values below 16 have their own bucket, larger values are grouped in 8 buckets per power
+	 * of two, so quantiles are accurate to within 12.5%. Values above ~17 minutes are counted in the last bucket
+	 */
+	private static final class LatencyHistogram {
+
+		private static final int LINEAR_BUCKETS = 16;
+		private static final int SUB_BUCKET_BITS = 3;
+		private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+		private static final int MAX_EXPONENT = 19;
+		private static final int BUCKET_COUNT = LINEAR_BUCKETS + (MAX_EXPONENT - 3) * SUB_BUCKETS;
+
+		private final long[] mBuckets = new long[BUCKET_COUNT];
+		private long mCount;
+		private long mSum;
+		private long mMin = Long.MAX_VALUE;
+		private long mMax;
+
+		void record(final long value) {
+			++mBuckets[bucket(value)];
+			++mCount;
+			mSum += value;
+			mMin = Math.min(mMin, value);
+			mMax = Math.max(mMax, value);
+		}
+
+		long min() {
+			return (mCount == 0) ? 0 : mMin;
+		}
+
+		long max() {
+			return mMax;
+		}
+
+		long mean() {
+			return (mCount == 0) ? 0 : (mSum / mCount);
+		}
+
+		/**
+		 * @return The upper bound of the bucket holding the given quantile, capped at the largest value recorded
+		 */
+		long quantile(final double quantile) {
+			if (mCount == 0) {
+				return 0;
+			}
+			final long rank = Math.max(1L, (long) Math.ceil(quantile * mCount));
+			long seen = 0;
+			for (int i = 0; i < BUCKET_COUNT; ++i) {
+				seen += mBuckets[i];
+				if (seen >= rank) {
+					return Math.min(mMax, Math.max(mMin, upperBound(i)));
+				}
+			}
+			return mMax;
+		}
+
+		private static int bucket(final long value) {
+			if (value < LINEAR_BUCKETS) {
+				return (int) value;
+			}
+			final int exponent = 63 - Long.numberOfLeadingZeros(value);
+			if (exponent > MAX_EXPONENT) {
+				return BUCKET_COUNT - 1;
+			}
+			final int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+			return LINEAR_BUCKETS + (exponent - 4) * SUB_BUCKETS + subBucket;
+		}
+
+		private static long upperBound(final int bucket) {
+			if (bucket < LINEAR_BUCKETS) {
+				return bucket;
+			}
+			final int exponent = 4 + (bucket - LINEAR_BUCKETS) / SUB_BUCKETS;
+			final int subBucket = (bucket - LINEAR_BUCKETS) % SUB_BUCKETS;
+			return ((long) (SUB_BUCKETS + subBucket + 1) << (exponent - SUB_BUCKET_BITS)) - 1;
+		}
+	}
+
+	@SuppressWarnings("PackageVisibleField")
+	static final class Snapshot {
+
+		@Nullable
+		final String method;
+		final String template;
+		final long count;
+		final long errors;
+		final long minLatency;
+		final long meanLatency;
+		final long p50Latency;
+		final long p90Latency;
+		final long p99Latency;
+		final long maxLatency;
+		final long requestBytes;
+		final long maxRequestBytes;
+		final long responseBytes;
+		final long maxResponseBytes;
+
+		Snapshot(@Nullable final String method, final String template, final long count, final long errors, final long minLatency,
+				final long meanLatency, final long p50Latency, final long p90Latency, final long p99Latency, final long maxLatency,
+				final long requestBytes, final long maxRequestBytes, final long responseBytes, final long maxResponseBytes) {
+			this.method = method;
+			this.template = template;
+			this.count = count;
+			this.errors = errors;
+			this.minLatency = minLatency;
+			this.meanLatency = meanLatency;
+			this.p50Latency = p50Latency;
+			this.p90Latency = p90Latency;
+			this.p99Latency = p99Latency;
+			this.maxLatency = maxLatency;
+			this.requestBytes = requestBytes;
+			this.maxRequestBytes = maxRequestBytes;
+			this.responseBytes = responseBytes;
+			this.maxResponseBytes = maxResponseBytes;
+		}
+	}
+
+}
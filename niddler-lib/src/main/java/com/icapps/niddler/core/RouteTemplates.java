@@ -0,0 +1,156 @@
+package com.icapps.niddler.core;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Normalizes urls into route templates, so calls to {@code /users/123/posts} and {@code /users/456/posts} are grouped together as
+ * {@code /users/{id}/posts}. Configured templates are tried first, in the order they were added. Paths that match none of them are
+ * normalized automatically: numeric segments become {@code {id}}, uuids become {@code {uuid}} and long hex strings become
+ * {@code {hash}}. The query and fragment are always dropped
+ *
+ * @author Nicola Verbeeck
+ */
+final class RouteTemplates {
+
+	private static final int UUID_LENGTH = 36;
+	private static final int MIN_HASH_LENGTH = 16;
+
+	private final List<String[]> mTemplates = new ArrayList<>();
+	private final List<String> mTemplateNames = new ArrayList<>();
+
+	/**
+	 * @param templates The path templates to try first, eg: {@code /users/{userId}/posts}. A segment between braces matches any single
+	 *                  path segment
+	 */
+	RouteTemplates(@NonNull final List<String> templates) {
+		for (final String template : templates) {
+			final String path = template.startsWith("/") ? template : ('/' + template);
+			mTemplates.add(segments(path, 0, path.length()));
+			mTemplateNames.add(path);
+		}
+	}
+
+	/**
+	 * @param url The url of the call
+	 * @return The route template of the url: the host followed by the templated path, eg: {@code api.example.com/users/{id}/posts}
+	 */
+	@NonNull
+	String template(@NonNull final String url) {
+		int hostStart = url.indexOf("://");
+		hostStart = (hostStart < 0) ? 0 : (hostStart + 3);
+		int end = url.length();
+		final int query = url.indexOf('?', hostStart);
+		if (query >= 0) {
+			end = query;
+		}
+		final int fragment = url.indexOf('#', hostStart);
+		if (fragment >= 0 && fragment < end) {
+			end = fragment;
+		}
+		int pathStart = url.indexOf('/', hostStart);
+		if (pathStart < 0 || pathStart > end) {
+			pathStart = end;
+		}
+		final String host = url.substring(hostStart, pathStart);
+		final String[] segments = segments(url, pathStart, end);
+
+		final String configured = findTemplate(segments);
+		if (configured != null) {
+			return host + configured;
+		}
+		final StringBuilder builder = new StringBuilder(end - hostStart).append(host);
+		for (final String segment : segments) {
+			builder.append('/').append(normalize(segment));
+		}
+		if (segments.length == 0) {
+			builder.append('/');
+		}
+		return builder.toString();
+	}
+
+	@Nullable
+	private String findTemplate(final String[] segments) {
+		final int count = mTemplates.size();
+		for (int i = 0; i < count; ++i) {
+			if (matches(mTemplates.get(i), segments)) {
+				return mTemplateNames.get(i);
+			}
+		}
+		return null;
+	}
+
+	private static boolean matches(final String[] template, final String[] segments) {
+		if (template.length != segments.length) {
+			return false;
+		}
+		for (int i = 0; i < template.length; ++i) {
+			final String part = template[i];
+			final boolean wildcard = part.length() > 1 && part.charAt(0) == '{' && part.charAt(part.length() - 1) == '}';
+			if (!wildcard && !part.equals(segments[i])) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static String normalize(final String segment) {
+		final int length = segment.length();
+		if (length == 0) {
+			return segment;
+		}
+		boolean digits = true;
+		boolean hex = true;
+		for (int i = 0; i < length; ++i) {
+			final char c = segment.charAt(i);
+			final boolean digit = c >= '0' && c <= '9';
+			digits &= digit;
+			hex &= digit || (c >= 'a' && c <= 'f') || (c >= 'A' && c <= 'F');
+		}
+		if (digits) {
+			return "{id}";
+		}
+		if (length == UUID_LENGTH && isUuid(segment)) {
+			return "{uuid}";
+		}
+		if (hex && length >= MIN_HASH_LENGTH) {
+			return "{hash}";
+		}
+		return segment;
+	}
+
+	private static boolean isUuid(final String segment) {
+		for (int i = 0; i < UUID_LENGTH; ++i) {
+			final char c = segment.charAt(i);
+			if (i == 8 || i == 13 || i == 18 || i == 23) {
+				if (c != '-') {
+					return false;
+				}
+			} else if (!((c >= '0' && c <= '9') || (c >= 'a' && c <= 'f') || (c >= 'A' && c <= 'F'))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Splits the path between start and end into its non-empty segments
+	 */
+	private static String[] segments(final String value, final int start, final int end) {
+		final List<String> segments = new ArrayList<>();
+		int segmentStart = start;
+		for (int i = start; i <= end; ++i) {
+			if (i == end || value.charAt(i) == '/') {
+				if (i > segmentStart) {
+					segments.add(value.substring(segmentStart, i));
+				}
+				segmentStart = i + 1;
+			}
+		}
+		return segments.toArray(new String[segments.size()]);
+	}
+
+}
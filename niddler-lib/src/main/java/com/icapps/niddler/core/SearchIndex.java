@@ -0,0 +1,253 @@
+package com.icapps.niddler.core;
+
+import android.support.annotation.Nullable;
+import android.util.Base64;
+
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Inverted index over the urls, header values and textual bodies of the cached messages. Documents are added and removed by the
+ * {@link MessagesCache} as messages enter and leave the cache. The work per message is bounded: only the start of a body is indexed
+ * and a message contributes at most {@link #MAX_TERMS_PER_MESSAGE} terms. The total number of postings is capped, when the cap is
+ * reached the oldest documents are dropped from the index even if their messages are still cached
+ *
+ * @author Nicola Verbeeck
+ */
+final class SearchIndex {
+
+	static final int MAX_TERMS_PER_MESSAGE = 512;
+	private static final int MAX_BODY_CHARS = 16 * 1024;
+	private static final int MIN_TERM_LENGTH = 2;
+	private static final int MAX_TERM_LENGTH = 64;
+	private static final int MAX_POSTINGS = 256 * 1024;
+	private static final String BODY_FIELD = "\"body\":\"";
+
+	private final Map<String, Set<Long>> mPostings = new HashMap<>();
+	private final LinkedHashMap<Long, Document> mDocuments = new LinkedHashMap<>();
+	private int mPostingCount;
+
+	/**
+	 * Extracts the terms of a captured message
+	 *
+	 * @param base    The message
+	 * @param url     The url of the message, null for responses
+	 * @param message The serialized message, the body is read from here so it doesn't have to be written again
+	 * @return The unique terms of the message, at most {@link #MAX_TERMS_PER_MESSAGE}
+	 */
+	static String[] terms(final NiddlerMessageBase base, @Nullable final String url, final String message) {
+		final Set<String> terms = new LinkedHashSet<>();
+		if (url != null) {
+			tokenize(url, terms);
+		}
+		boolean textual = false;
+		if (base instanceof NiddlerHeaders) {
+			final NiddlerHeaders headers = (NiddlerHeaders) base;
+			final int count = headers.headerCount();
+			for (int i = 0; i < count; ++i) {
+				final String value = headers.headerValue(i);
+				tokenize(value, terms);
+				textual |= "content-type".equalsIgnoreCase(headers.headerName(i)) && isTextual(value);
+			}
+		} else if (base.getHeaders() != null) {
+			for (final Map.Entry<String, List<String>> header : base.getHeaders().entrySet()) {
+				for (final String value : header.getValue()) {
+					tokenize(value, terms);
+					textual |= "content-type".equalsIgnoreCase(header.getKey()) && isTextual(value);
+				}
+			}
+		}
+		if (textual) {
+			tokenize(bodyPrefix(message), terms);
+		}
+		return terms.toArray(new String[terms.size()]);
+	}
+
+	/**
+	 * Splits the query into terms the same way messages are indexed
+	 */
+	static String[] queryTerms(final String query) {
+		final Set<String> terms = new LinkedHashSet<>();
+		tokenize(query, terms);
+		return terms.toArray(new String[terms.size()]);
+	}
+
+	synchronized void add(final long sequence, @Nullable final String requestId, final String[] terms) {
+		if (requestId == null || terms.length == 0) {
+			return;
+		}
+		final Long key = sequence;
+		mDocuments.put(key, new Document(requestId, terms));
+		for (final String term : terms) {
+			Set<Long> postings = mPostings.get(term);
+			if (postings == null) {
+				postings = new HashSet<>();
+				mPostings.put(term, postings);
+			}
+			postings.add(key);
+		}
+		mPostingCount += terms.length;
+
+		final Iterator<Map.Entry<Long, Document>> oldest = mDocuments.entrySet().iterator();
+		while (mPostingCount > MAX_POSTINGS && oldest.hasNext()) {
+			final Map.Entry<Long, Document> entry = oldest.next();
+			oldest.remove();
+			removePostings(entry.getKey(), entry.getValue());
+		}
+	}
+
+	synchronized void remove(final long sequence) {
+		final Long key = sequence;
+		final Document document = mDocuments.remove(key);
+		if (document != null) {
+			removePostings(key, document);
+		}
+	}
+
+	synchronized void clear() {
+		mPostings.clear();
+		mDocuments.clear();
+		mPostingCount = 0;
+	}
+
+	/**
+	 * Finds the requests whose messages contain all terms of the query
+	 *
+	 * @param query The query
+	 * @param limit The maximum number of request ids to return
+	 * @return The matching request ids, most recent first
+	 */
+	synchronized List<String> search(final String query, final int limit) {
+		final String[] terms = queryTerms(query);
+		final List<String> result = new ArrayList<>();
+		if (terms.length == 0) {
+			return result;
+		}
+		Set<Long> smallest = null;
+		for (final String term : terms) {
+			final Set<Long> postings = mPostings.get(term);
+			if (postings == null) {
+				return result;
+			}
+			if (smallest == null || postings.size() < smallest.size()) {
+				smallest = postings;
+			}
+		}
+		final List<Long> matches = new ArrayList<>();
+		for (final Long candidate : smallest) {
+			if (containsAll(candidate, terms)) {
+				matches.add(candidate);
+			}
+		}
+		Collections.sort(matches, Collections.reverseOrder());
+		final Set<String> seen = new HashSet<>();
+		for (final Long match : matches) {
+			final String requestId = mDocuments.get(match).requestId;
+			if (seen.add(requestId)) {
+				result.add(requestId);
+				if (result.size() >= limit) {
+					break;
+				}
+			}
+		}
+		return result;
+	}
+
+	private boolean containsAll(final Long document, final String[] terms) {
+		for (final String term : terms) {
+			if (!mPostings.get(term).contains(document)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private void removePostings(final Long key, final Document document) {
+		for (final String term : document.terms) {
+			final Set<Long> postings = mPostings.get(term);
+			if (postings != null && postings.remove(key) && postings.isEmpty()) {
+				mPostings.remove(term);
+			}
+		}
+		mPostingCount -= document.terms.length;
+	}
+
+	/**
+	 * Lower case runs of letters and digits
+	 */
+	private static void tokenize(@Nullable final String text, final Set<String> terms) {
+		if (text == null) {
+			return;
+		}
+		final int length = text.length();
+		int start = -1;
+		for (int i = 0; i <= length && terms.size() < MAX_TERMS_PER_MESSAGE; ++i) {
+			final boolean termChar = (i < length) && Character.isLetterOrDigit(text.charAt(i));
+			if (termChar) {
+				if (start < 0) {
+					start = i;
+				}
+			} else if (start >= 0) {
+				final int termLength = i - start;
+				if (termLength >= MIN_TERM_LENGTH && termLength <= MAX_TERM_LENGTH) {
+					terms.add(text.substring(start, i).toLowerCase(Locale.US));
+				}
+				start = -1;
+			}
+		}
+	}
+
+	private static boolean isTextual(@Nullable final String contentType) {
+		if (contentType == null) {
+			return false;
+		}
+		final String type = contentType.toLowerCase(Locale.US);
+		return type.startsWith("text/") || type.contains("json") || type.contains("xml") || type.contains("javascript")
+				|| type.contains("x-www-form-urlencoded");
+	}
+
+	/**
+	 * Decodes the first part of the message's (own, not the network reply's) body. The body is written before the nested network
+	 * messages, so the first body field is the message's own
+	 */
+	private static String bodyPrefix(final String message) {
+		final int start = message.indexOf(BODY_FIELD);
+		if (start < 0) {
+			return "";
+		}
+		final int valueStart = start + BODY_FIELD.length();
+		int valueEnd = message.indexOf('"', valueStart);
+		if (valueEnd < 0) {
+			return "";
+		}
+		valueEnd = Math.min(valueEnd, valueStart + MAX_BODY_CHARS);
+		try {
+			final byte[] body = Base64.decode(message.substring(valueStart, valueEnd), Base64.URL_SAFE | Base64.NO_PADDING | Base64.NO_WRAP);
+			return new String(body, "UTF-8");
+		} catch (final IllegalArgumentException | UnsupportedEncodingException ignored) {
+			return "";
+		}
+	}
+
+	@SuppressWarnings("PackageVisibleField")
+	private static final class Document {
+		final String requestId;
+		final String[] terms;
+
+		Document(final String requestId, final String[] terms) {
+			this.requestId = requestId;
+			this.terms = terms;
+		}
+	}
+
+}
@@ -6,10 +6,14 @@ import android.util.Log;
 import com.icapps.niddler.util.Logging;
 
 import java.io.UnsupportedEncodingException;
+import java.security.InvalidKeyException;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
 
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
 /**
  * @author Nicola Verbeeck
  * Date 22/11/16.
@@ -20,9 +24,14 @@ final class ServerAuth {
 		//Utility class
 	}
 
+	private static final String RESUME_TOKEN_ALGORITHM = "HmacSHA256";
+	private static final long RESUME_TOKEN_LIFETIME = 5 * 60 * 1000L; // Sessions can be resumed for 5 minutes after the password auth
+	private static final int BASE64_FLAGS = Base64.URL_SAFE | Base64.NO_PADDING | Base64.NO_WRAP;
+
 	private static SecureRandom mRandom;
+	private static Mac mResumeMac;
 
-	private static void init() {
+	private static synchronized void init() {
 		if (mRandom != null) {
 			return;
 		}
@@ -30,11 +39,35 @@ final class ServerAuth {
 		mRandom = new SecureRandom();
 	}
 
+	/**
+	 * Lazily creates the mac used to sign resume tokens. The key is random and only lives as long as the process, which means that
+	 * tokens never survive an app restart
+	 */
+	@Nullable
+	private static Mac resumeMac() {
+		if (mResumeMac != null) {
+			return mResumeMac;
+		}
+		init();
+		final byte[] key = new byte[32];
+		mRandom.nextBytes(key);
+		try {
+			final Mac mac = Mac.getInstance(RESUME_TOKEN_ALGORITHM);
+			mac.init(new SecretKeySpec(key, RESUME_TOKEN_ALGORITHM));
+			mResumeMac = mac;
+		} catch (final NoSuchAlgorithmException | InvalidKeyException e) {
+			if (Logging.DO_LOG) {
+				Log.e("ServerAuth", "Failed to create resume token mac", e);
+			}
+		}
+		return mResumeMac;
+	}
+
 	static AuthRequest generateAuthenticationRequest(@Nullable final String packageName) {
 		init();
 		final byte[] randomBytes = new byte[512];
 		mRandom.nextBytes(randomBytes);
-		return new AuthRequest(Base64.encodeToString(randomBytes, Base64.URL_SAFE | Base64.NO_PADDING | Base64.NO_WRAP), packageName);
+		return new AuthRequest(Base64.encodeToString(randomBytes, BASE64_FLAGS), packageName);
 	}
 
 	static boolean checkAuthReply(final AuthRequest request, final AuthReply reply, final String password) {
@@ -42,7 +75,7 @@ final class ServerAuth {
 			return false;
 		}
 		try {
-			final String mustBe = Base64.encodeToString(MessageDigest.getInstance("SHA-512").digest((request.hashKey + password).getBytes("UTF-8")), Base64.URL_SAFE | Base64.NO_PADDING | Base64.NO_WRAP);
+			final String mustBe = Base64.encodeToString(MessageDigest.getInstance("SHA-512").digest((request.hashKey + password).getBytes("UTF-8")), BASE64_FLAGS);
 			return reply.hashKey.equals(mustBe);
 		} catch (final NoSuchAlgorithmException e) {
 			if (Logging.DO_LOG) {
@@ -54,6 +87,76 @@ final class ServerAuth {
 		}
 	}
 
+	/**
+	 * Generates a short lived token which a client that successfully completed the challenge can present when it reconnects. The signed
+	 * payload is the time of the password authentication, so the token bounds the whole session: resuming never extends it
+	 *
+	 * @return The resume token or null if tokens are not supported on this device
+	 */
+	@Nullable
+	static synchronized ResumeToken generateResumeToken() {
+		final Mac mac = resumeMac();
+		if (mac == null) {
+			return null;
+		}
+		final long authenticatedAt = System.currentTimeMillis();
+		final String payload = Long.toString(authenticatedAt);
+		return new ResumeToken(payload + '.' + Base64.encodeToString(sign(mac, payload), BASE64_FLAGS),
+				authenticatedAt + RESUME_TOKEN_LIFETIME);
+	}
+
+	/**
+	 * Checks if the token presented by a reconnecting client was issued by us and if the session it was issued for, which started at
+	 * the password authentication, is not older than the token lifetime
+	 *
+	 * @param token The token the client presented
+	 * @return The validated token, to hand back to the client unchanged, or null if the client has to complete the challenge
+	 */
+	@Nullable
+	static synchronized ResumeToken checkResumeToken(@Nullable final String token) {
+		final Mac mac = mResumeMac;
+		if (token == null || mac == null) {
+			return null;
+		}
+		final int separator = token.indexOf('.');
+		if (separator <= 0) {
+			return null;
+		}
+		final String payload = token.substring(0, separator);
+		try {
+			final long authenticatedAt = Long.parseLong(payload);
+			final long age = System.currentTimeMillis() - authenticatedAt;
+			if (age < 0 || age > RESUME_TOKEN_LIFETIME) {
+				return null;
+			}
+			if (!constantTimeEquals(sign(mac, payload), Base64.decode(token.substring(separator + 1), BASE64_FLAGS))) {
+				return null;
+			}
+			return new ResumeToken(token, authenticatedAt + RESUME_TOKEN_LIFETIME);
+		} catch (final IllegalArgumentException ignored) { //Also covers NumberFormatException
+			return null;
+		}
+	}
+
+	private static byte[] sign(final Mac mac, final String payload) {
+		try {
+			return mac.doFinal(payload.getBytes("UTF-8"));
+		} catch (final UnsupportedEncodingException e) {
+			throw new IllegalStateException("UTF-8 not found, BAIL", e);
+		}
+	}
+
+	private static boolean constantTimeEquals(final byte[] expected, final byte[] actual) {
+		if (expected.length != actual.length) {
+			return false;
+		}
+		int result = 0;
+		for (int i = 0; i < expected.length; ++i) {
+			result |= expected[i] ^ actual[i];
+		}
+		return result == 0;
+	}
+
 	static class AuthRequest {
 		final String hashKey;
 		@Nullable
@@ -65,6 +168,16 @@ final class ServerAuth {
 		}
 	}
 
+	static class ResumeToken {
+		final String token;
+		final long expiresAt;
+
+		ResumeToken(final String token, final long expiresAt) {
+			this.token = token;
+			this.expiresAt = expiresAt;
+		}
+	}
+
 	static class AuthReply {
 		final String hashKey;
 
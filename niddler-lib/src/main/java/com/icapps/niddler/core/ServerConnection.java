@@ -1,7 +1,14 @@
 package com.icapps.niddler.core;
 
 import android.support.annotation.Nullable;
+
+import com.icapps.niddler.util.StripedCounter;
+
 import org.java_websocket.WebSocket;
+import org.java_websocket.WebSocketImpl;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * @author Nicola Verbeeck
@@ -15,8 +22,12 @@ final class ServerConnection {
 	private static final int STATE_CLOSED = 3;
 
 	private final WebSocket mSocket;
-	private int mState = STATE_NEW;
+	private volatile int mState = STATE_NEW;
 	private ServerAuth.AuthRequest mAuthRequest;
+	private volatile boolean mBatching;
+	private final StripedCounter mMessagesSent = new StripedCounter();
+	private final StripedCounter mSendNanos = new StripedCounter();
+	private final AtomicLong mMaxSendNanos = new AtomicLong();
 
 	ServerConnection(final WebSocket socket) {
 		mSocket = socket;
@@ -27,6 +38,17 @@ final class ServerConnection {
 		return mState == STATE_READY;
 	}
 
+	/**
+	 * Marks this connection as accepting batch frames, see {@link MessageBatcher}
+	 */
+	void enableBatching() {
+		mBatching = true;
+	}
+
+	boolean isBatching() {
+		return mBatching;
+	}
+
 	void noAuth() {
 		if (mState == STATE_NEW) {
 			mState = STATE_READY;
@@ -39,31 +61,64 @@ final class ServerConnection {
 		mSocket.send(MessageBuilder.buildMessage(mAuthRequest));
 	}
 
+	/**
+	 * Skips the authentication challenge when the client presented a valid resume token. The same token is handed back, a new one is
+	 * only issued after a password authentication so resuming can't keep a session alive forever
+	 *
+	 * @param token The resume token sent in the handshake
+	 * @return True if the connection is authenticated
+	 */
+	boolean resumeAuth(@Nullable final String token) {
+		if (mState != STATE_NEW) {
+			return false;
+		}
+		final ServerAuth.ResumeToken resumeToken = ServerAuth.checkResumeToken(token);
+		if (resumeToken == null) {
+			return false;
+		}
+		mSocket.send(MessageBuilder.buildAuthSuccess(resumeToken));
+		mState = STATE_READY;
+		return true;
+	}
+
 	boolean checkAuthReply(final ServerAuth.AuthReply authReply, final String password) {
 		if ((mState != STATE_AUTH_REQ_SENT) || !ServerAuth.checkAuthReply(mAuthRequest, authReply, password)) {
 			mState = STATE_CLOSED;
 			mSocket.close(401);
 			return false;
 		}
-		sendAuthSuccess();
+		mSocket.send(MessageBuilder.buildAuthSuccess(ServerAuth.generateResumeToken()));
 		mState = STATE_READY;
 		return true;
 	}
 
-	boolean isFor(final WebSocket socket) {
-		return this.mSocket == socket;
+	void send(final SharedFrame frame) {
+		final long start = System.nanoTime();
+		frame.sendTo(mSocket);
+		final long duration = System.nanoTime() - start;
+		mMessagesSent.increment();
+		mSendNanos.add(duration);
+		long max = mMaxSendNanos.get();
+		while (duration > max && !mMaxSendNanos.compareAndSet(max, duration)) {
+			max = mMaxSendNanos.get();
+		}
 	}
 
-	void send(final String message) {
-		mSocket.send(message);
+	/**
+	 * @return The number of frames waiting to be written to the socket
+	 */
+	int queuedFrames() {
+		return (mSocket instanceof WebSocketImpl) ? ((WebSocketImpl) mSocket).outQueue.size() : 0;
 	}
 
-	private void sendProtocolInfo() {
-		mSocket.send(MessageBuilder.buildProtocolVersionMessage());
+	NiddlerStats.ClientStats stats() {
+		final InetSocketAddress address = mSocket.getRemoteSocketAddress();
+		return new NiddlerStats.ClientStats((address == null) ? "" : address.toString(), mMessagesSent.sum(), mSendNanos.sum(),
+				mMaxSendNanos.get(), queuedFrames());
 	}
 
-	private void sendAuthSuccess() {
-		mSocket.send(MessageBuilder.buildAuthSuccess());
+	private void sendProtocolInfo() {
+		mSocket.send(MessageBuilder.buildProtocolVersionMessage());
 	}
 
 }
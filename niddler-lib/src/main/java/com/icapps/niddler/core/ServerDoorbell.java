@@ -0,0 +1,205 @@
+package com.icapps.niddler.core;
+
+import android.util.Log;
+
+import com.icapps.niddler.util.Logging;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+
+/**
+ * Plain listening socket that holds the niddler port until the first client connects, so the websocket server and its selector and
+ * decoder threads are only created when somebody actually connects. The first connection is accepted by the doorbell, which then
+ * closes its listening socket, lets the real server bind the port and forwards the first connection to it over loopback. Later
+ * connections go to the real server directly
+ *
+ * @author Nicola Verbeeck
+ */
+final class ServerDoorbell implements Runnable {
+
+	private static final String LOG_TAG = ServerDoorbell.class.getSimpleName();
+	private static final int CONNECT_ATTEMPTS = 100;
+	private static final long CONNECT_RETRY_MILLIS = 20L;
+	private static final int BUFFER_SIZE = 8192;
+
+	private final int mPort;
+	private final Listener mListener;
+	private volatile ServerSocket mSocket;
+	private volatile boolean mClosed;
+
+	/**
+	 * @param port     The port to listen on
+	 * @param listener The listener that starts the real server when the first client connects
+	 */
+	ServerDoorbell(final int port, final Listener listener) {
+		mPort = port;
+		mListener = listener;
+	}
+
+	/**
+	 * Starts a single daemon thread that binds the port and waits for the first connection, the caller does not wait for the bind
+	 */
+	void open() {
+		final Thread thread = new Thread(this, "Niddler-doorbell");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * @return The port the doorbell is listening on
+	 */
+	int getPort() {
+		final ServerSocket socket = mSocket;
+		return (socket == null) ? mPort : socket.getLocalPort();
+	}
+
+	/**
+	 * Stops listening. Does not affect a connection that is already being forwarded
+	 */
+	void close() {
+		mClosed = true;
+		closeQuietly(mSocket);
+	}
+
+	@Override
+	public void run() {
+		final ServerSocket listening;
+		try {
+			listening = new ServerSocket();
+			listening.setReuseAddress(true);
+			listening.bind(new InetSocketAddress(mPort));
+		} catch (final IOException e) {
+			Log.e(LOG_TAG, "Failed to listen on port " + mPort + ": " + e.getLocalizedMessage());
+			return;
+		}
+		mSocket = listening;
+		if (mClosed) { //Closed while binding
+			closeQuietly(listening);
+			return;
+		}
+		final int port = listening.getLocalPort();
+		final Socket client;
+		try {
+			client = listening.accept();
+		} catch (final IOException e) {
+			return; //Closed before anybody connected
+		} finally {
+			closeQuietly(listening); //Frees the port for the real server
+		}
+		if (Logging.DO_LOG) {
+			Log.d(LOG_TAG, "First client connected, starting server on port " + port);
+		}
+		if (!mListener.onFirstConnection(port)) {
+			closeQuietly(client);
+			return;
+		}
+		final Socket server = connectToServer(port);
+		if (server == null) {
+			closeQuietly(client);
+			return;
+		}
+		try {
+			client.setTcpNoDelay(true);
+			server.setTcpNoDelay(true);
+			final Thread upstream = new Thread(new Pump(client, server), "Niddler-doorbell-upstream");
+			upstream.setDaemon(true);
+			upstream.start();
+			new Pump(server, client).run();
+		} catch (final IOException e) {
+			closeQuietly(client);
+			closeQuietly(server);
+		}
+	}
+
+	/**
+	 * The server binds its port on its own thread, wait for it to accept connections
+	 */
+	private static Socket connectToServer(final int port) {
+		for (int attempt = 0; attempt < CONNECT_ATTEMPTS; ++attempt) {
+			try {
+				return new Socket(InetAddress.getByName("127.0.0.1"), port);
+			} catch (final IOException e) {
+				try {
+					Thread.sleep(CONNECT_RETRY_MILLIS);
+				} catch (final InterruptedException ignored) {
+					Thread.currentThread().interrupt();
+					return null;
+				}
+			}
+		}
+		if (Logging.DO_LOG) {
+			Log.w(LOG_TAG, "Server did not start listening on port " + port);
+		}
+		return null;
+	}
+
+	private static void closeQuietly(final ServerSocket socket) {
+		if (socket == null) {
+			return;
+		}
+		try {
+			socket.close();
+		} catch (final IOException ignored) {
+			//Ignore
+		}
+	}
+
+	private static void closeQuietly(final Socket socket) {
+		try {
+			socket.close();
+		} catch (final IOException ignored) {
+			//Ignore
+		}
+	}
+
+	/**
+	 * Copies one direction of the forwarded connection, closes both sockets when either side is done
+	 */
+	private static final class Pump implements Runnable {
+
+		private final Socket mFrom;
+		private final Socket mTo;
+
+		Pump(final Socket from, final Socket to) {
+			mFrom = from;
+			mTo = to;
+		}
+
+		@Override
+		public void run() {
+			final byte[] buffer = new byte[BUFFER_SIZE];
+			try {
+				final InputStream in = mFrom.getInputStream();
+				final OutputStream out = mTo.getOutputStream();
+				int read;
+				while ((read = in.read(buffer)) >= 0) {
+					out.write(buffer, 0, read);
+					out.flush();
+				}
+			} catch (final IOException ignored) {
+				//Connection closed
+			} finally {
+				closeQuietly(mFrom);
+				closeQuietly(mTo);
+			}
+		}
+	}
+
+	interface Listener {
+
+		/**
+		 * Called on the doorbell's thread when the first client connects, the listening socket is already closed
+		 *
+		 * @param port The port the server should bind
+		 * @return True when the server was started, false to drop the connection
+		 */
+		boolean onFirstConnection(final int port);
+
+	}
+
+}
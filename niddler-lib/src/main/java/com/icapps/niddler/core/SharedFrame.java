@@ -0,0 +1,74 @@
+package com.icapps.niddler.core;
+
+import android.support.annotation.Nullable;
+
+import org.java_websocket.WebSocket;
+import org.java_websocket.WebSocketImpl;
+import org.java_websocket.drafts.Draft;
+import org.java_websocket.framing.Framedata;
+import org.java_websocket.server.WebSocketServer;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * A text message that is encoded into its websocket frame only once and shared between all connections it is sent to. Every
+ * connection receives a duplicate of the encoded buffer, which shares the underlying bytes but has its own position
+ *
+ * @author Nicola Verbeeck
+ */
+final class SharedFrame {
+
+	private final String mMessage;
+	private final WebSocketServer mServer;
+	private final StatsRecorder mStats;
+
+	private Class<? extends Draft> mEncodedDraft;
+	private ByteBuffer mEncoded;
+
+	SharedFrame(final String message, final WebSocketServer server, final StatsRecorder stats) {
+		mMessage = message;
+		mServer = server;
+		mStats = stats;
+	}
+
+	/**
+	 * Sends the frame over the given socket. Sockets that can not share the encoded frame, fall back to a regular send
+	 *
+	 * @param socket The socket to send the frame on
+	 */
+	void sendTo(final WebSocket socket) {
+		if (!(socket instanceof WebSocketImpl)) {
+			mStats.recordEncodedFrame(mMessage.length());
+			socket.send(mMessage);
+			return;
+		}
+		if (!socket.isOpen()) {
+			return;
+		}
+		final ByteBuffer encoded = encodedFor(socket.getDraft());
+		if (encoded == null) {
+			mStats.recordEncodedFrame(mMessage.length());
+			socket.send(mMessage);
+			return;
+		}
+		((WebSocketImpl) socket).outQueue.add(encoded.duplicate());
+		mServer.onWriteDemand(socket);
+	}
+
+	@Nullable
+	private synchronized ByteBuffer encodedFor(final Draft draft) {
+		if (mEncoded != null && mEncodedDraft == draft.getClass()) {
+			return mEncoded;
+		}
+		final List<Framedata> frames = draft.createFrames(mMessage, false);
+		if (frames.size() != 1) {
+			return null;
+		}
+		mEncoded = draft.createBinaryFrame(frames.get(0));
+		mEncodedDraft = draft.getClass();
+		mStats.recordEncodedFrame(mEncoded.remaining());
+		return mEncoded;
+	}
+
+}
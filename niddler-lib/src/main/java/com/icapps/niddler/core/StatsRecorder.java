@@ -0,0 +1,50 @@
+package com.icapps.niddler.core;
+
+import com.icapps.niddler.util.StripedCounter;
+
+import java.util.List;
+
+/**
+ * Collects the counters behind {@link NiddlerStats}. All counters are striped, recording never blocks the capturing threads
+ *
+ * @author Nicola Verbeeck
+ */
+final class StatsRecorder {
+
+	private final StripedCounter mInterceptedCalls = new StripedCounter();
+	private final StripedCounter mInterceptorNanos = new StripedCounter();
+	private final StripedCounter mSerializedMessages = new StripedCounter();
+	private final StripedCounter mSerializationNanos = new StripedCounter();
+	private final StripedCounter mSerializedCharacters = new StripedCounter();
+	private final StripedCounter mEncodedFrames = new StripedCounter();
+	private final StripedCounter mEncodedBytes = new StripedCounter();
+	private final StripedCounter mDroppedMessages = new StripedCounter();
+
+	void recordInterceptor(final long nanos) {
+		mInterceptedCalls.increment();
+		mInterceptorNanos.add(nanos);
+	}
+
+	void recordSerialization(final long nanos, final int characters) {
+		mSerializedMessages.increment();
+		mSerializationNanos.add(nanos);
+		mSerializedCharacters.add(characters);
+	}
+
+	void recordEncodedFrame(final int bytes) {
+		mEncodedFrames.increment();
+		mEncodedBytes.add(bytes);
+	}
+
+	void recordDropped() {
+		mDroppedMessages.increment();
+	}
+
+	NiddlerStats snapshot(final int queueDepth, final long cacheEvictions, final long cacheDropped, final long memoryBytesHeld,
+			final long diskBytesHeld, final List<NiddlerStats.ClientStats> clients) {
+		return new NiddlerStats(mInterceptedCalls.sum(), mInterceptorNanos.sum(), mSerializedMessages.sum(), mSerializationNanos.sum(),
+				mSerializedCharacters.sum(), mEncodedFrames.sum(), mEncodedBytes.sum(), queueDepth, mDroppedMessages.sum() + cacheDropped,
+				cacheEvictions, memoryBytesHeld, diskBytesHeld, clients);
+	}
+
+}
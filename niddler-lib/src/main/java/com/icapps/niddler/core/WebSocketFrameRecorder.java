@@ -0,0 +1,223 @@
+package com.icapps.niddler.core;
+
+import android.support.annotation.Nullable;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.UUID;
+import java.util.WeakHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Records the frames of a single websocket into a fixed size ring buffer. The buffer is drained periodically into a single
+ * "webSocketFrames" message, so chatty sockets don't produce a message per frame. When a socket sends more frames per second than the
+ * sampling budget allows, the surplus frames are counted but not recorded. When the ring overflows between flushes, the oldest frames
+ * are dropped
+ *
+ * @author Nicola Verbeeck
+ */
+public final class WebSocketFrameRecorder {
+
+	private static final int RING_CAPACITY = 256;
+	private static final int MAX_FRAMES_PER_SECOND = 100;
+	/**
+	 * The number of payload bytes kept per frame
+	 */
+	public static final int MAX_PAYLOAD_PREVIEW = 4 * 1024;
+	private static final long FLUSH_INTERVAL = 250L;
+
+	private static final Set<WebSocketFrameRecorder> ACTIVE = Collections.newSetFromMap(new WeakHashMap<WebSocketFrameRecorder, Boolean>());
+	private static ScheduledExecutorService sFlusher;
+
+	private final Niddler mNiddler;
+	private final String mRequestId;
+
+	private final boolean[] mOutgoing = new boolean[RING_CAPACITY];
+	private final boolean[] mBinary = new boolean[RING_CAPACITY];
+	private final long[] mSizes = new long[RING_CAPACITY];
+	private final long[] mTimestamps = new long[RING_CAPACITY];
+	private final byte[][] mPayloads = new byte[RING_CAPACITY][];
+	private int mHead;
+	private int mCount;
+	private int mDropped;
+	private int mSampledOut;
+	private long mWindowStart;
+	private int mWindowCount;
+
+	/**
+	 * @param niddler   The niddler instance to report the frames to
+	 * @param requestId The request id of the upgrade request that opened the socket
+	 */
+	public WebSocketFrameRecorder(final Niddler niddler, final String requestId) {
+		mNiddler = niddler;
+		mRequestId = requestId;
+		register(this);
+	}
+
+	/**
+	 * Counts a frame against the sampling budget. Call this before preparing the frame's payload, frames that are sampled out are only
+	 * counted and must not be passed to {@link #recordFrame(boolean, boolean, long, byte[])}
+	 *
+	 * @return True if the frame should be recorded
+	 */
+	public boolean sampleFrame() {
+		final long now = System.currentTimeMillis();
+		synchronized (this) {
+			if (now - mWindowStart >= 1000L) {
+				mWindowStart = now;
+				mWindowCount = 0;
+			}
+			if (++mWindowCount > MAX_FRAMES_PER_SECOND) {
+				++mSampledOut;
+				return false;
+			}
+			return true;
+		}
+	}
+
+	/**
+	 * Records a frame that passed {@link #sampleFrame()}
+	 *
+	 * @param outgoing True if the frame was sent by the app, false if it was received
+	 * @param binary   True for binary frames, false for text frames
+	 * @param size     The size of the frame's payload in bytes
+	 * @param payload  The payload of the frame, only the first {@link #MAX_PAYLOAD_PREVIEW} bytes are kept
+	 */
+	public void recordFrame(final boolean outgoing, final boolean binary, final long size, @Nullable final byte[] payload) {
+		final long now = System.currentTimeMillis();
+		synchronized (this) {
+			final int index = (mHead + mCount) % RING_CAPACITY;
+			if (mCount == RING_CAPACITY) {
+				mHead = (mHead + 1) % RING_CAPACITY;
+				++mDropped;
+			} else {
+				++mCount;
+			}
+			mOutgoing[index] = outgoing;
+			mBinary[index] = binary;
+			mSizes[index] = size;
+			mTimestamps[index] = now;
+			mPayloads[index] = preview(payload);
+		}
+	}
+
+	/**
+	 * Sends the recorded frames to niddler and stops recording. Call this when the socket is closed
+	 */
+	public void close() {
+		flush();
+		synchronized (ACTIVE) {
+			ACTIVE.remove(this);
+			stopFlusherIfIdle();
+		}
+	}
+
+	void flush() {
+		final Snapshot snapshot;
+		synchronized (this) {
+			if (mCount == 0 && mDropped == 0 && mSampledOut == 0) {
+				return;
+			}
+			snapshot = new Snapshot(mRequestId, mCount, mDropped, mSampledOut);
+			for (int i = 0; i < mCount; ++i) {
+				final int index = (mHead + i) % RING_CAPACITY;
+				snapshot.outgoing[i] = mOutgoing[index];
+				snapshot.binary[i] = mBinary[index];
+				snapshot.sizes[i] = mSizes[index];
+				snapshot.timestamps[i] = mTimestamps[index];
+				snapshot.payloads[i] = mPayloads[index];
+				mPayloads[index] = null;
+			}
+			mHead = 0;
+			mCount = 0;
+			mDropped = 0;
+			mSampledOut = 0;
+		}
+		mNiddler.logMessage(MessageBuilder.buildMessage(snapshot));
+	}
+
+	@Nullable
+	private static byte[] preview(@Nullable final byte[] payload) {
+		if (payload == null || payload.length <= MAX_PAYLOAD_PREVIEW) {
+			return payload;
+		}
+		final byte[] preview = new byte[MAX_PAYLOAD_PREVIEW];
+		System.arraycopy(payload, 0, preview, 0, MAX_PAYLOAD_PREVIEW);
+		return preview;
+	}
+
+	private static void register(final WebSocketFrameRecorder recorder) {
+		synchronized (ACTIVE) {
+			ACTIVE.add(recorder);
+			if (sFlusher != null) {
+				return;
+			}
+			sFlusher = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+				@Override
+				public Thread newThread(final Runnable runnable) {
+					final Thread thread = new Thread(runnable, "Niddler-websocket-frames");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+			sFlusher.scheduleWithFixedDelay(new Runnable() {
+				@Override
+				public void run() {
+					flushAll();
+				}
+			}, FLUSH_INTERVAL, FLUSH_INTERVAL, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	private static void flushAll() {
+		final WebSocketFrameRecorder[] recorders;
+		synchronized (ACTIVE) {
+			recorders = ACTIVE.toArray(new WebSocketFrameRecorder[ACTIVE.size()]);
+			stopFlusherIfIdle(); //Recorders of sockets that were never closed disappear from the weak set
+		}
+		for (final WebSocketFrameRecorder recorder : recorders) {
+			recorder.flush();
+		}
+	}
+
+	/**
+	 * Stops the flush thread once no recorders are left, the next recorder starts a new one. Must be called while holding ACTIVE
+	 */
+	private static void stopFlusherIfIdle() {
+		if (ACTIVE.isEmpty() && sFlusher != null) {
+			sFlusher.shutdown();
+			sFlusher = null;
+		}
+	}
+
+	@SuppressWarnings("PackageVisibleField")
+	static final class Snapshot {
+		final String messageId;
+		final String requestId;
+		final long timestamp;
+		final int dropped;
+		final int sampledOut;
+		final boolean[] outgoing;
+		final boolean[] binary;
+		final long[] sizes;
+		final long[] timestamps;
+		final byte[][] payloads;
+
+		Snapshot(final String requestId, final int count, final int dropped, final int sampledOut) {
+			this.messageId = UUID.randomUUID().toString();
+			this.requestId = requestId;
+			this.timestamp = System.currentTimeMillis();
+			this.dropped = dropped;
+			this.sampledOut = sampledOut;
+			outgoing = new boolean[count];
+			binary = new boolean[count];
+			sizes = new long[count];
+			timestamps = new long[count];
+			payloads = new byte[count][];
+		}
+	}
+
+}
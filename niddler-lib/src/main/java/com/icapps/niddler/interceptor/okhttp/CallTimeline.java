@@ -0,0 +1,262 @@
+package com.icapps.niddler.interceptor.okhttp;
+
+import android.os.Build;
+import android.os.SystemClock;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import com.icapps.niddler.util.Logging;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import okhttp3.Call;
+
+/**
+ * Records when calls are enqueued, when they start running and when they end, so clients can render a waterfall of the calls and see
+ * which calls were queued behind the limits of OkHttp's dispatcher. Calls that are in flight are kept in a small open addressing table,
+ * finished calls in a ring buffer. Both are updated using atomic operations only, the calling threads never block on each other.
+ * <p>
+ * Timestamps are taken from {@link SystemClock#elapsedRealtimeNanos()} (or {@link SystemClock#elapsedRealtime()} before API 17) and
+ * reported in microseconds relative to the creation of the timeline
+ *
+ * @author Nicola Verbeeck
+ */
+final class CallTimeline {
+
+	private static final String LOG_TAG = CallTimeline.class.getSimpleName();
+
+	private static final int IN_FLIGHT_SLOTS = 256;
+	private static final int MAX_PROBES = 16;
+	private static final int HISTORY_SIZE = 1024; //Must be a power of 2
+	private static final long NOT_YET = -1L;
+
+	private final AtomicReferenceArray<Entry> mInFlight = new AtomicReferenceArray<>(IN_FLIGHT_SLOTS);
+	private final AtomicReferenceArray<Entry> mHistory = new AtomicReferenceArray<>(HISTORY_SIZE);
+	private final AtomicLong mSequence = new AtomicLong();
+	private final AtomicInteger mQueued = new AtomicInteger();
+	private final AtomicInteger mRunning = new AtomicInteger();
+	private final AtomicInteger mMaxRunning = new AtomicInteger();
+	private final long mOrigin = now();
+
+	/**
+	 * Called when the call is enqueued on (or executed by) the client, as reported by {@link NiddlerEventListener}
+	 */
+	void onEnqueued(final Call call) {
+		final Entry entry = new Entry(call, now(), mRunning.get());
+		mQueued.incrementAndGet();
+		if (!insert(entry)) {
+			mQueued.decrementAndGet(); //Not in the table, onStarted and onCallEnd won't find it to take it off the queue again
+		}
+	}
+
+	/**
+	 * Called when the interceptor starts processing the call
+	 *
+	 * @param call The call, null if the chain did not provide it
+	 * @return The entry to pass to {@link #onFinished(Entry)} when the call ends
+	 */
+	Entry onStarted(@Nullable final Call call) {
+		final long now = now();
+		Entry entry = (call == null) ? null : find(call);
+		if (entry != null && entry.mStartedAt == NOT_YET) {
+			mQueued.decrementAndGet();
+		} else {
+			entry = new Entry(call, now, mRunning.get()); //Not seen by the event listener, we don't know when it was enqueued
+			if (call != null) {
+				insert(entry);
+			}
+		}
+		final int running = mRunning.incrementAndGet();
+		entry.mRunningAtStart = running;
+		entry.mStartedAt = now;
+
+		int max;
+		do {
+			max = mMaxRunning.get();
+		} while (running > max && !mMaxRunning.compareAndSet(max, running));
+		return entry;
+	}
+
+	void onFinished(final Entry entry) {
+		entry.mEndedAt = now();
+		mRunning.decrementAndGet();
+		remove(entry);
+		entry.mCall = null; //The history must not keep the call, its request and the client alive
+		final long sequence = mSequence.getAndIncrement();
+		entry.mSequence = sequence;
+		mHistory.set((int) (sequence & (HISTORY_SIZE - 1)), entry);
+	}
+
+	/**
+	 * Called when the call ended according to the event listener. Drops the call if it never reached the interceptor
+	 */
+	void onCallEnd(final Call call) {
+		final Entry entry = find(call);
+		if (entry != null && entry.mStartedAt == NOT_YET && remove(entry)) {
+			entry.mCall = null;
+			mQueued.decrementAndGet();
+		}
+	}
+
+	/**
+	 * Builds the "timeline" message: the calls that are in flight and the calls that finished since the requested sequence number.
+	 * Every call is sent as a compact array: [requestId, enqueued, started, ended, status, runningAtEnqueue, runningAtStart]. Times are
+	 * in microseconds relative to the timeline's origin, -1 if the call did not reach that point yet. The status is the response code,
+	 * -1 when the call failed
+	 *
+	 * @param command The command: {"since":0}
+	 * @return The reply to send to the client
+	 */
+	@Nullable
+	String buildTimelineMessage(final JSONObject command) {
+		final long now = now();
+		final JSONObject object = new JSONObject();
+		try {
+			object.put("type", "timeline");
+			object.put("commandId", command.opt("commandId"));
+			object.put("now", toMicros(now));
+			object.put("time", System.currentTimeMillis());
+			object.put("queued", mQueued.get());
+			object.put("running", mRunning.get());
+			object.put("maxRunning", mMaxRunning.get());
+
+			final JSONArray inFlight = new JSONArray();
+			for (int i = 0; i < IN_FLIGHT_SLOTS; ++i) {
+				final Entry entry = mInFlight.get(i);
+				if (entry != null) {
+					inFlight.put(toJson(entry));
+				}
+			}
+			object.put("inFlight", inFlight);
+
+			final long next = mSequence.get();
+			final long since = Math.max(command.optLong("since", 0L), next - HISTORY_SIZE);
+			final JSONArray calls = new JSONArray();
+			for (long sequence = Math.max(0L, since); sequence < next; ++sequence) {
+				final Entry entry = mHistory.get((int) (sequence & (HISTORY_SIZE - 1)));
+				if (entry != null && entry.mSequence == sequence) {
+					calls.put(toJson(entry));
+				}
+			}
+			object.put("calls", calls);
+			object.put("sequence", next);
+		} catch (final JSONException e) {
+			if (Logging.DO_LOG) {
+				Log.e(LOG_TAG, "Failed to create json: ", e);
+			}
+			return null;
+		}
+		return object.toString();
+	}
+
+	private JSONArray toJson(final Entry entry) {
+		final JSONArray array = new JSONArray();
+		final String requestId = entry.mRequestId;
+		array.put((requestId == null) ? JSONObject.NULL : requestId);
+		array.put(toMicros(entry.mEnqueuedAt));
+		array.put(toMicros(entry.mStartedAt));
+		array.put(toMicros(entry.mEndedAt));
+		array.put(entry.mStatus);
+		array.put(entry.mRunningAtEnqueue);
+		array.put(entry.mRunningAtStart);
+		return array;
+	}
+
+	private long toMicros(final long timestamp) {
+		return (timestamp == NOT_YET) ? NOT_YET : TimeUnit.NANOSECONDS.toMicros(timestamp - mOrigin);
+	}
+
+	/**
+	 * @return False if the table is full around the call's slot, the call won't be listed as in flight
+	 */
+	private boolean insert(final Entry entry) {
+		final Call call = entry.mCall;
+		if (call == null) {
+			return false;
+		}
+		final int start = slot(call);
+		for (int i = 0; i < MAX_PROBES; ++i) {
+			if (mInFlight.compareAndSet((start + i) & (IN_FLIGHT_SLOTS - 1), null, entry)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	@Nullable
+	private Entry find(final Call call) {
+		final int start = slot(call);
+		for (int i = 0; i < MAX_PROBES; ++i) {
+			final Entry entry = mInFlight.get((start + i) & (IN_FLIGHT_SLOTS - 1));
+			if (entry != null && entry.mCall == call) {
+				return entry;
+			}
+		}
+		return null;
+	}
+
+	private boolean remove(final Entry entry) {
+		final Call call = entry.mCall;
+		if (call == null) {
+			return false;
+		}
+		final int start = slot(call);
+		for (int i = 0; i < MAX_PROBES; ++i) {
+			if (mInFlight.compareAndSet((start + i) & (IN_FLIGHT_SLOTS - 1), entry, null)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static int slot(final Call call) {
+		return (System.identityHashCode(call) * 0x9E3779B9) >>> 24; //Fibonacci hashing onto the 256 slots
+	}
+
+	private static long now() {
+		if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1) {
+			return SystemClock.elapsedRealtimeNanos();
+		}
+		return TimeUnit.MILLISECONDS.toNanos(SystemClock.elapsedRealtime());
+	}
+
+	/**
+	 * A call on the timeline. Written by the thread that runs the call, read by the thread that builds the timeline message
+	 */
+	static final class Entry {
+
+		@Nullable
+		volatile Call mCall; //Cleared when the call leaves the in flight table
+		final long mEnqueuedAt;
+		final int mRunningAtEnqueue;
+		volatile long mStartedAt = NOT_YET;
+		volatile long mEndedAt = NOT_YET;
+		volatile int mRunningAtStart;
+		@Nullable
+		volatile String mRequestId;
+		volatile int mStatus = -1;
+		volatile long mSequence = NOT_YET;
+
+		Entry(@Nullable final Call call, final long enqueuedAt, final int runningAtEnqueue) {
+			mCall = call;
+			mEnqueuedAt = enqueuedAt;
+			mRunningAtEnqueue = runningAtEnqueue;
+		}
+
+		void setRequestId(final String requestId) {
+			mRequestId = requestId;
+		}
+
+		void setStatus(final int status) {
+			mStatus = status;
+		}
+	}
+
+}
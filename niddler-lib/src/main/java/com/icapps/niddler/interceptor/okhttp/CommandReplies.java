@@ -0,0 +1,48 @@
+package com.icapps.niddler.interceptor.okhttp;
+
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import com.icapps.niddler.util.Logging;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * @author Nicola Verbeeck
+ */
+final class CommandReplies {
+
+	private static final String LOG_TAG = CommandReplies.class.getSimpleName();
+
+	private CommandReplies() {
+		//Utility class
+	}
+
+	/**
+	 * Builds the reply to a client command, in the same format as the replies to the core commands
+	 *
+	 * @param command The command that was executed
+	 * @param success True if the command succeeded
+	 * @param detail  Optional detail about the result
+	 * @return The reply message
+	 */
+	@Nullable
+	static String build(final JSONObject command, final boolean success, @Nullable final String detail) {
+		final JSONObject reply = new JSONObject();
+		try {
+			reply.put("type", "commandResult");
+			reply.put("command", command.optString("type"));
+			reply.put("commandId", command.opt("commandId"));
+			reply.put("success", success);
+			reply.put("detail", detail);
+		} catch (final JSONException e) {
+			if (Logging.DO_LOG) {
+				Log.e(LOG_TAG, "Failed to create json: ", e);
+			}
+			return null;
+		}
+		return reply.toString();
+	}
+
+}
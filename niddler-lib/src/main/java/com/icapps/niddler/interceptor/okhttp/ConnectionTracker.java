@@ -0,0 +1,245 @@
+package com.icapps.niddler.interceptor.okhttp;
+
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import com.icapps.niddler.util.Logging;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.Call;
+import okhttp3.Connection;
+import okhttp3.Handshake;
+
+/**
+ * Keeps track of the connections OkHttp uses for the calls it makes, as reported by {@link NiddlerEventListener}: how often every
+ * connection is reused, how long it took to set up and how many calls share it at once. The connections are held weakly, connections
+ * that were evicted from the pool disappear once they are garbage collected
+ *
+ * @author Nicola Verbeeck
+ */
+final class ConnectionTracker {
+
+	private static final String LOG_TAG = ConnectionTracker.class.getSimpleName();
+
+	private final Map<Connection, ConnectionStats> mConnections = new WeakHashMap<>();
+	private final Map<Call, CallConnection> mCalls = new WeakHashMap<>();
+	private final Map<String, HostStats> mHosts = new HashMap<>();
+	private int mNextId;
+	private long mAcquisitions;
+	private long mReusedAcquisitions;
+
+	/**
+	 * Called when a call acquired a connection
+	 *
+	 * @param call         The call
+	 * @param connection   The connection it acquired
+	 * @param dnsNanos     The time the call spent resolving the host, 0 if it didn't
+	 * @param connectNanos The time the call spent connecting (including the handshake), 0 if it didn't connect
+	 * @param tlsNanos     The time the call spent on the TLS handshake, 0 if it didn't do a handshake
+	 */
+	void onConnectionAcquired(final Call call, final Connection connection, final long dnsNanos, final long connectNanos,
+			final long tlsNanos) {
+		final CallConnection callConnection;
+		synchronized (mConnections) {
+			ConnectionStats stats = mConnections.get(connection);
+			final boolean reused = stats != null;
+			if (stats == null) {
+				stats = new ConnectionStats(mNextId++, connection, dnsNanos, connectNanos, tlsNanos);
+				mConnections.put(connection, stats);
+				host(stats.mHost).mConnections++;
+			}
+			++stats.mCalls;
+			++stats.mActiveCalls;
+			stats.mMaxActiveCalls = Math.max(stats.mMaxActiveCalls, stats.mActiveCalls);
+			++mAcquisitions;
+			if (reused) {
+				++mReusedAcquisitions;
+			}
+			++host(stats.mHost).mCalls;
+			callConnection = new CallConnection(stats.mId, reused, stats.mProtocol, stats.mActiveCalls,
+					reused ? 0 : (int) TimeUnit.NANOSECONDS.toMillis(dnsNanos + connectNanos));
+		}
+		synchronized (mCalls) {
+			mCalls.put(call, callConnection);
+		}
+	}
+
+	void onConnectionReleased(final Connection connection) {
+		synchronized (mConnections) {
+			final ConnectionStats stats = mConnections.get(connection);
+			if (stats != null && stats.mActiveCalls > 0) {
+				--stats.mActiveCalls;
+			}
+		}
+	}
+
+	void onCallFinished(final Call call) {
+		synchronized (mCalls) {
+			mCalls.remove(call);
+		}
+	}
+
+	/**
+	 * @param call The call
+	 * @return The connection the call used last, null if it did not use a connection
+	 */
+	@Nullable
+	CallConnection connectionFor(final Call call) {
+		synchronized (mCalls) {
+			return mCalls.remove(call);
+		}
+	}
+
+	/**
+	 * Builds the "connections" view: every connection that is still alive, and the number of connections and calls per host
+	 */
+	@Nullable
+	String buildConnectionsMessage(final JSONObject command) {
+		final JSONObject object = new JSONObject();
+		try {
+			object.put("type", "connections");
+			object.put("commandId", command.opt("commandId"));
+			final List<ConnectionStats> connections;
+			synchronized (mConnections) {
+				connections = new ArrayList<>(mConnections.size());
+				for (final ConnectionStats stats : mConnections.values()) {
+					connections.add(stats.copy());
+				}
+				object.put("acquisitions", mAcquisitions);
+				object.put("reusedAcquisitions", mReusedAcquisitions);
+				final JSONArray hosts = new JSONArray();
+				for (final Map.Entry<String, HostStats> host : mHosts.entrySet()) {
+					final JSONObject hostObject = new JSONObject();
+					hostObject.put("host", host.getKey());
+					hostObject.put("connections", host.getValue().mConnections);
+					hostObject.put("calls", host.getValue().mCalls);
+					hosts.put(hostObject);
+				}
+				object.put("hosts", hosts);
+			}
+			final JSONArray array = new JSONArray();
+			for (final ConnectionStats stats : connections) {
+				final JSONObject connection = new JSONObject();
+				connection.put("id", stats.mId);
+				connection.put("host", stats.mHost);
+				connection.putOpt("protocol", stats.mProtocol);
+				connection.putOpt("tlsVersion", stats.mTlsVersion);
+				connection.putOpt("cipherSuite", stats.mCipherSuite);
+				connection.put("age", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - stats.mCreatedAt));
+				connection.put("calls", stats.mCalls);
+				connection.put("reuseCount", stats.mCalls - 1);
+				connection.put("activeCalls", stats.mActiveCalls);
+				connection.put("maxConcurrentCalls", stats.mMaxActiveCalls);
+				connection.put("dnsTime", TimeUnit.NANOSECONDS.toMillis(stats.mDnsNanos));
+				connection.put("connectTime", TimeUnit.NANOSECONDS.toMillis(stats.mConnectNanos));
+				connection.put("tlsTime", TimeUnit.NANOSECONDS.toMillis(stats.mTlsNanos));
+				array.put(connection);
+			}
+			object.put("connections", array);
+		} catch (final JSONException e) {
+			if (Logging.DO_LOG) {
+				Log.e(LOG_TAG, "Failed to create json: ", e);
+			}
+			return null;
+		}
+		return object.toString();
+	}
+
+	private HostStats host(final String host) {
+		HostStats stats = mHosts.get(host);
+		if (stats == null) {
+			stats = new HostStats();
+			mHosts.put(host, stats);
+		}
+		return stats;
+	}
+
+	@SuppressWarnings("PackageVisibleField")
+	static final class CallConnection {
+
+		final int id;
+		final boolean reused;
+		@Nullable
+		final String protocol;
+		final int concurrentStreams;
+		final int connectTime;
+
+		CallConnection(final int id, final boolean reused, @Nullable final String protocol, final int concurrentStreams,
+				final int connectTime) {
+			this.id = id;
+			this.reused = reused;
+			this.protocol = protocol;
+			this.concurrentStreams = concurrentStreams;
+			this.connectTime = connectTime;
+		}
+	}
+
+	private static final class HostStats {
+		int mConnections;
+		long mCalls;
+	}
+
+	private static final class ConnectionStats {
+
+		final int mId;
+		final String mHost;
+		@Nullable
+		final String mProtocol;
+		@Nullable
+		final String mTlsVersion;
+		@Nullable
+		final String mCipherSuite;
+		final long mCreatedAt;
+		final long mDnsNanos;
+		final long mConnectNanos;
+		final long mTlsNanos;
+		long mCalls;
+		int mActiveCalls;
+		int mMaxActiveCalls;
+
+		ConnectionStats(final int id, final Connection connection, final long dnsNanos, final long connectNanos, final long tlsNanos) {
+			mId = id;
+			final InetSocketAddress address = connection.route().socketAddress();
+			mHost = connection.route().address().url().host() + ':' + address.getPort();
+			mProtocol = String.valueOf(connection.protocol());
+			final Handshake handshake = connection.handshake();
+			mTlsVersion = (handshake == null) ? null : handshake.tlsVersion().javaName();
+			mCipherSuite = (handshake == null) ? null : handshake.cipherSuite().javaName();
+			mCreatedAt = System.nanoTime();
+			mDnsNanos = dnsNanos;
+			mConnectNanos = connectNanos;
+			mTlsNanos = tlsNanos;
+		}
+
+		private ConnectionStats(final ConnectionStats other) {
+			mId = other.mId;
+			mHost = other.mHost;
+			mProtocol = other.mProtocol;
+			mTlsVersion = other.mTlsVersion;
+			mCipherSuite = other.mCipherSuite;
+			mCreatedAt = other.mCreatedAt;
+			mDnsNanos = other.mDnsNanos;
+			mConnectNanos = other.mConnectNanos;
+			mTlsNanos = other.mTlsNanos;
+			mCalls = other.mCalls;
+			mActiveCalls = other.mActiveCalls;
+			mMaxActiveCalls = other.mMaxActiveCalls;
+		}
+
+		ConnectionStats copy() {
+			return new ConnectionStats(this);
+		}
+	}
+
+}
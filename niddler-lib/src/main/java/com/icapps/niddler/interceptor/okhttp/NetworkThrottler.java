@@ -0,0 +1,243 @@
+package com.icapps.niddler.interceptor.okhttp;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.icapps.niddler.util.TimerWheel;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+
+import okhttp3.MediaType;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.Buffer;
+import okio.BufferedSink;
+import okio.BufferedSource;
+import okio.ForwardingSink;
+import okio.ForwardingSource;
+import okio.Okio;
+import okio.Sink;
+import okio.Source;
+
+/**
+ * Simulates slow or lossy networks for requests going through the interceptor. Profiles are registered per host (or for all hosts
+ * using {@link #ALL_HOSTS}) by connected clients. All delays are served by the shared {@link TimerWheel}
+ *
+ * @author Nicola Verbeeck
+ */
+final class NetworkThrottler {
+
+	static final String ALL_HOSTS = "*";
+
+	private static final long CHUNK_MILLIS = 100L;
+
+	private final Map<String, ThrottleProfile> mProfiles = new ConcurrentHashMap<>();
+	private final Random mRandom = new Random();
+	private volatile boolean mEnabled;
+
+	void setProfile(@NonNull final String host, @NonNull final ThrottleProfile profile) {
+		mProfiles.put(host.toLowerCase(Locale.US), profile);
+		mEnabled = true;
+	}
+
+	void removeProfile(@NonNull final String host) {
+		mProfiles.remove(host.toLowerCase(Locale.US));
+		mEnabled = !mProfiles.isEmpty();
+	}
+
+	void clear() {
+		mProfiles.clear();
+		mEnabled = false;
+	}
+
+	/**
+	 * @param host The host of the request
+	 * @return The profile to apply to requests to the given host, or null if the host should not be throttled
+	 */
+	@Nullable
+	ThrottleProfile profileFor(@NonNull final String host) {
+		if (!mEnabled) {
+			return null;
+		}
+		final ThrottleProfile profile = mProfiles.get(host);
+		return (profile == null) ? mProfiles.get(ALL_HOSTS) : profile;
+	}
+
+	/**
+	 * Delays the request by the profile's latency and fails it according to the profile's failure rate
+	 *
+	 * @throws IOException When the request was selected to fail
+	 */
+	void beforeRequest(@NonNull final ThrottleProfile profile) throws IOException {
+		TimerWheel.shared().await(profile.latencyMillis);
+		if (profile.failureRate > 0.0 && mRandom.nextDouble() < profile.failureRate) {
+			throw new SocketTimeoutException("Packet loss simulated by niddler");
+		}
+	}
+
+	/**
+	 * @return The request with its body limited to the profile's upload rate
+	 */
+	static Request throttleRequest(@NonNull final Request request, @NonNull final ThrottleProfile profile) {
+		final RequestBody body = request.body();
+		if (body == null || profile.uploadBytesPerSecond <= 0) {
+			return request;
+		}
+		return request.newBuilder().method(request.method(), new ThrottledRequestBody(body, profile.uploadBytesPerSecond)).build();
+	}
+
+	/**
+	 * @return The original body of a request body that was throttled, so the body can be captured without being delayed
+	 */
+	@Nullable
+	static RequestBody unwrap(@Nullable final RequestBody body) {
+		return (body instanceof ThrottledRequestBody) ? ((ThrottledRequestBody) body).mDelegate : body;
+	}
+
+	/**
+	 * @return The response with its body limited to the profile's download rate
+	 */
+	static Response throttleResponse(@NonNull final Response response, @NonNull final ThrottleProfile profile) {
+		final ResponseBody body = response.body();
+		if (body == null || profile.downloadBytesPerSecond <= 0) {
+			return response;
+		}
+		return response.newBuilder().body(new ThrottledResponseBody(body, profile.downloadBytesPerSecond)).build();
+	}
+
+	/**
+	 * Keeps the transfer at the configured rate: after every chunk the caller is delayed until the expected transfer time of all bytes so
+	 * far has passed. Chunks are sized to roughly {@link #CHUNK_MILLIS} worth of bytes
+	 */
+	private static final class Pacer {
+
+		private final long mBytesPerSecond;
+		private final long mChunkSize;
+		private long mStart;
+		private long mTransferred;
+
+		Pacer(final long bytesPerSecond) {
+			mBytesPerSecond = bytesPerSecond;
+			mChunkSize = Math.max(1L, (bytesPerSecond * CHUNK_MILLIS) / 1000L);
+		}
+
+		long chunkSize(final long requested) {
+			return Math.min(requested, mChunkSize);
+		}
+
+		void onTransferred(final long bytes) throws IOException {
+			final long now = System.currentTimeMillis();
+			if (mStart == 0L) {
+				mStart = now;
+			}
+			mTransferred += bytes;
+			final long expectedEnd = mStart + ((mTransferred * 1000L) / mBytesPerSecond);
+			TimerWheel.shared().await(expectedEnd - now);
+		}
+	}
+
+	private static final class ThrottledSource extends ForwardingSource {
+
+		private final Pacer mPacer;
+
+		ThrottledSource(final Source delegate, final long bytesPerSecond) {
+			super(delegate);
+			mPacer = new Pacer(bytesPerSecond);
+		}
+
+		@Override
+		public long read(final Buffer sink, final long byteCount) throws IOException {
+			final long read = super.read(sink, mPacer.chunkSize(byteCount));
+			if (read > 0) {
+				mPacer.onTransferred(read);
+			}
+			return read;
+		}
+	}
+
+	private static final class ThrottledSink extends ForwardingSink {
+
+		private final Pacer mPacer;
+
+		ThrottledSink(final Sink delegate, final long bytesPerSecond) {
+			super(delegate);
+			mPacer = new Pacer(bytesPerSecond);
+		}
+
+		@Override
+		public void write(final Buffer source, final long byteCount) throws IOException {
+			long remaining = byteCount;
+			while (remaining > 0) {
+				final long chunk = mPacer.chunkSize(remaining);
+				super.write(source, chunk);
+				super.flush();
+				remaining -= chunk;
+				mPacer.onTransferred(chunk);
+			}
+		}
+	}
+
+	private static final class ThrottledRequestBody extends RequestBody {
+
+		private final RequestBody mDelegate;
+		private final long mBytesPerSecond;
+
+		ThrottledRequestBody(final RequestBody delegate, final long bytesPerSecond) {
+			mDelegate = delegate;
+			mBytesPerSecond = bytesPerSecond;
+		}
+
+		@Nullable
+		@Override
+		public MediaType contentType() {
+			return mDelegate.contentType();
+		}
+
+		@Override
+		public long contentLength() throws IOException {
+			return mDelegate.contentLength();
+		}
+
+		@Override
+		public void writeTo(@NonNull final BufferedSink sink) throws IOException {
+			final BufferedSink throttled = Okio.buffer(new ThrottledSink(sink, mBytesPerSecond));
+			mDelegate.writeTo(throttled);
+			throttled.emit();
+		}
+	}
+
+	private static final class ThrottledResponseBody extends ResponseBody {
+
+		private final ResponseBody mDelegate;
+		private final BufferedSource mSource;
+
+		ThrottledResponseBody(final ResponseBody delegate, final long bytesPerSecond) {
+			mDelegate = delegate;
+			mSource = Okio.buffer(new ThrottledSource(delegate.source(), bytesPerSecond));
+		}
+
+		@Nullable
+		@Override
+		public MediaType contentType() {
+			return mDelegate.contentType();
+		}
+
+		@Override
+		public long contentLength() {
+			return mDelegate.contentLength();
+		}
+
+		@Override
+		public BufferedSource source() {
+			return mSource;
+		}
+	}
+
+}
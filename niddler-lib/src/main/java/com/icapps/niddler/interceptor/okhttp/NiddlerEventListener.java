@@ -0,0 +1,178 @@
+package com.icapps.niddler.interceptor.okhttp;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.util.List;
+
+import okhttp3.Call;
+import okhttp3.Connection;
+import okhttp3.EventListener;
+import okhttp3.Handshake;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * Event listener that reports the connections a call uses to the {@link ConnectionTracker} and when the call was enqueued to the
+ * {@link CallTimeline}. One listener is created per call, every event is forwarded to the application's own listener (if any)
+ *
+ * @author Nicola Verbeeck
+ */
+final class NiddlerEventListener extends EventListener {
+
+	private final ConnectionTracker mTracker;
+	private final CallTimeline mTimeline;
+	private final EventListener mDelegate;
+	private long mDnsStart;
+	private long mDnsNanos;
+	private long mConnectStart;
+	private long mConnectNanos;
+	private long mSecureConnectStart;
+	private long mTlsNanos;
+
+	private NiddlerEventListener(final ConnectionTracker tracker, final CallTimeline timeline, final EventListener delegate) {
+		mTracker = tracker;
+		mTimeline = timeline;
+		mDelegate = delegate;
+	}
+
+	/**
+	 * @param tracker  The tracker to report to
+	 * @param timeline The timeline to report enqueued calls to
+	 * @param delegate The application's event listener factory, null if it has none
+	 * @return The factory to install on the OkHttp client
+	 */
+	static EventListener.Factory factory(@NonNull final ConnectionTracker tracker, @NonNull final CallTimeline timeline,
+			@Nullable final EventListener.Factory delegate) {
+		return new EventListener.Factory() {
+			@Override
+			public EventListener create(final Call call) {
+				return new NiddlerEventListener(tracker, timeline, (delegate == null) ? EventListener.NONE : delegate.create(call));
+			}
+		};
+	}
+
+	@Override
+	public void callStart(final Call call) {
+		mTimeline.onEnqueued(call);
+		mDelegate.callStart(call);
+	}
+
+	@Override
+	public void dnsStart(final Call call, final String domainName) {
+		mDnsStart = System.nanoTime();
+		mDelegate.dnsStart(call, domainName);
+	}
+
+	@Override
+	public void dnsEnd(final Call call, final String domainName, final List<InetAddress> inetAddressList) {
+		mDnsNanos += System.nanoTime() - mDnsStart;
+		mDelegate.dnsEnd(call, domainName, inetAddressList);
+	}
+
+	@Override
+	public void connectStart(final Call call, final InetSocketAddress inetSocketAddress, final Proxy proxy) {
+		mConnectStart = System.nanoTime();
+		mDelegate.connectStart(call, inetSocketAddress, proxy);
+	}
+
+	@Override
+	public void secureConnectStart(final Call call) {
+		mSecureConnectStart = System.nanoTime();
+		mDelegate.secureConnectStart(call);
+	}
+
+	@Override
+	public void secureConnectEnd(final Call call, final Handshake handshake) {
+		mTlsNanos += System.nanoTime() - mSecureConnectStart;
+		mDelegate.secureConnectEnd(call, handshake);
+	}
+
+	@Override
+	public void connectEnd(final Call call, final InetSocketAddress inetSocketAddress, final Proxy proxy, final Protocol protocol) {
+		mConnectNanos += System.nanoTime() - mConnectStart;
+		mDelegate.connectEnd(call, inetSocketAddress, proxy, protocol);
+	}
+
+	@Override
+	public void connectFailed(final Call call, final InetSocketAddress inetSocketAddress, final Proxy proxy, final Protocol protocol,
+			final IOException ioe) {
+		mConnectNanos += System.nanoTime() - mConnectStart;
+		mDelegate.connectFailed(call, inetSocketAddress, proxy, protocol, ioe);
+	}
+
+	@Override
+	public void connectionAcquired(final Call call, final Connection connection) {
+		mTracker.onConnectionAcquired(call, connection, mDnsNanos, mConnectNanos, mTlsNanos);
+		mDnsNanos = 0; //A follow up (redirect, retry) that sets up another connection starts counting again
+		mConnectNanos = 0;
+		mTlsNanos = 0;
+		mDelegate.connectionAcquired(call, connection);
+	}
+
+	@Override
+	public void connectionReleased(final Call call, final Connection connection) {
+		mTracker.onConnectionReleased(connection);
+		mDelegate.connectionReleased(call, connection);
+	}
+
+	@Override
+	public void requestHeadersStart(final Call call) {
+		mDelegate.requestHeadersStart(call);
+	}
+
+	@Override
+	public void requestHeadersEnd(final Call call, final Request request) {
+		mDelegate.requestHeadersEnd(call, request);
+	}
+
+	@Override
+	public void requestBodyStart(final Call call) {
+		mDelegate.requestBodyStart(call);
+	}
+
+	@Override
+	public void requestBodyEnd(final Call call, final long byteCount) {
+		mDelegate.requestBodyEnd(call, byteCount);
+	}
+
+	@Override
+	public void responseHeadersStart(final Call call) {
+		mDelegate.responseHeadersStart(call);
+	}
+
+	@Override
+	public void responseHeadersEnd(final Call call, final Response response) {
+		mDelegate.responseHeadersEnd(call, response);
+	}
+
+	@Override
+	public void responseBodyStart(final Call call) {
+		mDelegate.responseBodyStart(call);
+	}
+
+	@Override
+	public void responseBodyEnd(final Call call, final long byteCount) {
+		mDelegate.responseBodyEnd(call, byteCount);
+	}
+
+	@Override
+	public void callEnd(final Call call) {
+		mTracker.onCallFinished(call);
+		mTimeline.onCallEnd(call);
+		mDelegate.callEnd(call);
+	}
+
+	@Override
+	public void callFailed(final Call call, final IOException ioe) {
+		mTracker.onCallFinished(call);
+		mTimeline.onCallEnd(call);
+		mDelegate.callFailed(call, ioe);
+	}
+
+}
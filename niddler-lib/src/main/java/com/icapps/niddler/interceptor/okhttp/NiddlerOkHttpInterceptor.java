@@ -1,18 +1,32 @@
 package com.icapps.niddler.interceptor.okhttp;
 
 import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
 
 import com.icapps.niddler.core.Niddler;
+import com.icapps.niddler.core.ResponseOverride;
+import com.icapps.niddler.core.ResponseOverrides;
+import com.icapps.niddler.util.TraceParent;
 
 import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URL;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.TimeUnit;
 import java.util.regex.Pattern;
 
+import okhttp3.Call;
+import okhttp3.EventListener;
+import okhttp3.Headers;
 import okhttp3.Interceptor;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
 import okhttp3.Request;
 import okhttp3.Response;
+import okhttp3.ResponseBody;
 
 /**
  * @author Nicola Verbeeck
@@ -21,10 +35,36 @@ public class NiddlerOkHttpInterceptor implements Interceptor {
 
 	private final Niddler mNiddler;
 	private final List<Pattern> mBlacklist;
+	private final SharedInterceptorState mSharedState;
+	private volatile boolean mInjectTraceContext;
+	@Nullable
+	private volatile OtlpSpanExporter mSpanExporter;
+	@Nullable
+	private volatile ConnectionTracker mConnectionTracker;
 
 	public NiddlerOkHttpInterceptor(final Niddler niddler) {
 		mNiddler = niddler;
 		mBlacklist = new ArrayList<>();
+		mSharedState = SharedInterceptorState.of(niddler);
+	}
+
+	/**
+	 * Adds a niddler interceptor to the client builder. Prefer this over adding the interceptor directly: the no-op library does not
+	 * add an interceptor at all, so release builds keep the client's interceptor chain untouched
+	 *
+	 * @param builder   The client builder to add the interceptor to
+	 * @param niddler   The niddler instance to log to
+	 * @param blacklist Patterns of urls that should not be logged
+	 * @return The client builder
+	 */
+	@NonNull
+	public static OkHttpClient.Builder install(@NonNull final OkHttpClient.Builder builder, @NonNull final Niddler niddler,
+			@NonNull final String... blacklist) {
+		final NiddlerOkHttpInterceptor interceptor = new NiddlerOkHttpInterceptor(niddler);
+		for (final String urlPattern : blacklist) {
+			interceptor.blacklist(urlPattern);
+		}
+		return builder.addInterceptor(interceptor);
 	}
 
 	public NiddlerOkHttpInterceptor blacklist(@NonNull final String urlPattern) {
@@ -32,18 +72,147 @@ public class NiddlerOkHttpInterceptor implements Interceptor {
 		return this;
 	}
 
+	/**
+	 * Adds a W3C traceparent header to calls that don't carry one yet, so the calls can be found in the backend's traces. The trace and
+	 * span id of calls that carry a traceparent header (added by niddler or by the application) are recorded in the captured messages
+	 *
+	 * @param inject True to start a new trace for calls without traceparent header
+	 * @return This interceptor
+	 */
+	public NiddlerOkHttpInterceptor traceContext(final boolean inject) {
+		mInjectTraceContext = inject;
+		return this;
+	}
+
+	/**
+	 * Exports the calls niddler started a trace for as OTLP spans to a collector. Enables adding traceparent headers, see
+	 * {@link #traceContext(boolean)}. Calls that already carried a traceparent header are left to the application's own tracer
+	 *
+	 * @param endpoint    The OTLP/HTTP traces endpoint of the collector, eg: http://10.0.2.2:4318/v1/traces
+	 * @param serviceName The service name to report the spans under
+	 * @return This interceptor
+	 */
+	public NiddlerOkHttpInterceptor exportSpans(@NonNull final String endpoint, @NonNull final String serviceName) {
+		final OtlpSpanExporter exporter;
+		try {
+			exporter = new OtlpSpanExporter(new URL(endpoint), serviceName);
+		} catch (final MalformedURLException e) {
+			throw new IllegalArgumentException("Invalid collector endpoint: " + endpoint, e);
+		}
+		final OtlpSpanExporter previous;
+		synchronized (this) {
+			previous = mSpanExporter;
+			mSpanExporter = exporter;
+		}
+		if (previous != null) {
+			previous.close();
+		}
+		mInjectTraceContext = true;
+		return this;
+	}
+
+	/**
+	 * Stops exporting spans. Spans that are waiting to be sent are still exported, after which the export thread stops. Traceparent
+	 * headers are still added, see {@link #traceContext(boolean)}
+	 *
+	 * @return This interceptor
+	 */
+	public NiddlerOkHttpInterceptor stopExportingSpans() {
+		final OtlpSpanExporter exporter;
+		synchronized (this) {
+			exporter = mSpanExporter;
+			mSpanExporter = null;
+		}
+		if (exporter != null) {
+			exporter.close();
+		}
+		return this;
+	}
+
+	/**
+	 * Creates the event listener factory that tracks the connections used by the client: the connection every captured call used, how
+	 * often it was reused, how long it took to set up and how many calls it carried at once. Install the factory on the same client
+	 * as this interceptor using {@link OkHttpClient.Builder#eventListenerFactory(EventListener.Factory)}. Clients can fetch an overview
+	 * of the connections using the "getConnections" command. The listeners also report when calls are enqueued, so the "getTimeline"
+	 * command can tell how long calls waited for the dispatcher
+	 *
+	 * @param delegate The application's own event listener factory, its listeners receive every event. Null if it has none
+	 * @return The event listener factory to install on the client
+	 */
+	@NonNull
+	public EventListener.Factory connectionTracker(@Nullable final EventListener.Factory delegate) {
+		final ConnectionTracker tracker = mSharedState.connectionTracker(mNiddler);
+		mConnectionTracker = tracker;
+		return NiddlerEventListener.factory(tracker, mSharedState.timeline(), delegate);
+	}
+
 	@Override
 	public Response intercept(final Chain chain) throws IOException {
-		final Request request = chain.request();
-		if (isBlacklisted(request.url().toString())) {
-			return chain.proceed(request);
+		final Request appRequest = chain.request();
+		final String socketRequestId = appRequest.header(NiddlerWebSocketListener.HEADER_REQUEST_ID);
+		final Request original = (socketRequestId == null) ? appRequest
+				: appRequest.newBuilder().removeHeader(NiddlerWebSocketListener.HEADER_REQUEST_ID).build();
+		if (!mNiddler.isCaptureEnabled()) {
+			return chain.proceed(original);
+		}
+		final CallTimeline timeline = mSharedState.timeline();
+		final CallTimeline.Entry timelineEntry = timeline.onStarted(chain.call());
+		try {
+			return interceptCall(chain, original, socketRequestId, timelineEntry);
+		} finally {
+			timeline.onFinished(timelineEntry);
 		}
+	}
 
-		final String uuid = UUID.randomUUID().toString();
+	private Response interceptCall(final Chain chain, final Request original, @Nullable final String socketRequestId,
+			final CallTimeline.Entry timelineEntry) throws IOException {
+		final boolean blacklisted = isBlacklisted(original.url().toString());
+		final TraceParent startedTrace = (mInjectTraceContext && !blacklisted && original.header(TraceParent.HEADER) == null)
+				? TraceParent.generate() : null;
+		final Request request = (startedTrace == null) ? original
+				: original.newBuilder().header(TraceParent.HEADER, startedTrace.toHeader()).build();
+		final NetworkThrottler throttler = mSharedState.throttler();
+		final ThrottleProfile throttle = throttler.profileFor(request.url().host());
+		final Request outgoingRequest = (throttle == null) ? request : NetworkThrottler.throttleRequest(request, throttle);
+		if (throttle != null) {
+			throttler.beforeRequest(throttle);
+		}
+		if (blacklisted) {
+			final Response response = chain.proceed(outgoingRequest);
+			timelineEntry.setStatus(response.code());
+			return (throttle == null) ? response : NetworkThrottler.throttleResponse(response, throttle);
+		}
+
+		final long start = System.nanoTime();
+		final String uuid = (socketRequestId == null) ? UUID.randomUUID().toString() : socketRequestId;
 
-		mNiddler.logRequest(new NiddlerOkHttpRequest(request, uuid));
+		timelineEntry.setRequestId(uuid);
+		final NiddlerOkHttpRequest niddlerRequest = NiddlerOkHttpRequest.obtain(request, uuid);
+		try {
+			mNiddler.logRequest(niddlerRequest);
+		} finally {
+			niddlerRequest.recycle();
+		}
+		mSharedState.rememberCall(uuid, chain.call());
 
-		final Response response = chain.proceed(request);
+		final ResponseOverrides overrides = mNiddler.getResponseOverrides();
+		final ResponseOverride override = overrides.isEmpty() ? null : overrides.find(request.method(), request.url().toString());
+		final long startedAt = System.currentTimeMillis();
+		final long beforeCall = System.nanoTime();
+		final Response response;
+		try {
+			response = (override == null) ? chain.proceed(outgoingRequest) : buildOverrideResponse(request, override);
+		} catch (final IOException e) {
+			exportSpan(startedTrace, request, startedAt, System.nanoTime() - beforeCall, -1, e.toString());
+			throw e;
+		}
+		final long afterCall = System.nanoTime();
+		timelineEntry.setStatus(response.code());
+		exportSpan(startedTrace, request, startedAt, afterCall - beforeCall, response.code(), null);
+		final ConnectionTracker connectionTracker = mConnectionTracker;
+		final Call call = chain.call();
+		final ConnectionTracker.CallConnection connection = (connectionTracker == null || call == null || override != null)
+				? null : connectionTracker.connectionFor(call);
 
 		final long now = System.currentTimeMillis();
 		final long sentAt = response.sentRequestAtMillis();
@@ -54,13 +223,51 @@ public class NiddlerOkHttpInterceptor implements Interceptor {
 
 		final Response networkResponse = response.networkResponse();
 		final Request networkRequest = (networkResponse == null) ? null : networkResponse.request();
-		mNiddler.logResponse(new NiddlerOkHttpResponse(response,
+		final NiddlerOkHttpResponse niddlerResponse = NiddlerOkHttpResponse.obtain(response,
 				uuid,
-				(networkRequest == null) ? null : new NiddlerOkHttpRequest(networkRequest, uuid),
-				(networkResponse == null) ? null : new NiddlerOkHttpResponse(networkResponse, uuid, null, null, writeTime, readTime, wait),
-				writeTime, readTime, wait));
+				(networkRequest == null) ? null : NiddlerOkHttpRequest.obtain(networkRequest, uuid),
+				(networkResponse == null) ? null : NiddlerOkHttpResponse.obtain(networkResponse, uuid, null, null, writeTime, readTime, wait),
+				writeTime, readTime, wait);
+		niddlerResponse.setConnection(connection);
+		try {
+			mNiddler.logResponse(niddlerResponse);
+		} finally {
+			niddlerResponse.recycle();
+		}
+		mNiddler.recordInterceptorTime((beforeCall - start) + (System.nanoTime() - afterCall));
+
+		return (throttle == null) ? response : NetworkThrottler.throttleResponse(response, throttle);
+	}
+
+	private void exportSpan(@Nullable final TraceParent trace, final Request request, final long startedAtMillis, final long durationNanos,
+			final int statusCode, @Nullable final String error) {
+		final OtlpSpanExporter exporter = mSpanExporter;
+		if (exporter == null || trace == null) {
+			return;
+		}
+		final long startNanos = TimeUnit.MILLISECONDS.toNanos(startedAtMillis);
+		exporter.export(new OtlpSpanExporter.Span(trace.getTraceId(), trace.getSpanId(), request.method(), request.url().toString(),
+				startNanos, startNanos + durationNanos, statusCode, error));
+	}
 
-		return response;
+	private static Response buildOverrideResponse(final Request request, final ResponseOverride override) {
+		final Headers.Builder headers = new Headers.Builder();
+		final int headerCount = override.getHeaderCount();
+		for (int i = 0; i < headerCount; ++i) {
+			headers.add(override.getHeaderName(i), override.getHeaderValue(i));
+		}
+		final String contentType = override.getHeader("content-type");
+		final long now = System.currentTimeMillis();
+		return new Response.Builder()
+				.request(request)
+				.protocol(Protocol.HTTP_1_1)
+				.code(override.getCode())
+				.message(override.getMessage())
+				.headers(headers.build())
+				.body(ResponseBody.create((contentType == null) ? null : MediaType.parse(contentType), override.getBody()))
+				.sentRequestAtMillis(now)
+				.receivedResponseAtMillis(now)
+				.build();
 	}
 
 	private boolean isBlacklisted(@NonNull final CharSequence url) {
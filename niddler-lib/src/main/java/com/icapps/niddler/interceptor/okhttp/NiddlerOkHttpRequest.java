@@ -2,7 +2,9 @@ package com.icapps.niddler.interceptor.okhttp;
 
 import android.support.annotation.NonNull;
 
+import com.icapps.niddler.core.NiddlerHeaders;
 import com.icapps.niddler.core.NiddlerRequest;
+import com.icapps.niddler.util.ObjectPool;
 
 import java.io.IOException;
 import java.io.OutputStream;
@@ -11,6 +13,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.UUID;
 
+import okhttp3.Headers;
 import okhttp3.Protocol;
 import okhttp3.Request;
 import okhttp3.RequestBody;
@@ -20,18 +23,52 @@ import okio.Okio;
 /**
  * @author Maarten Van Giel
  */
-final class NiddlerOkHttpRequest implements NiddlerRequest {
+final class NiddlerOkHttpRequest implements NiddlerRequest, NiddlerHeaders, ObjectPool.Poolable {
 
-	private final Request mRequest;
-	private final String mRequestId;
-	private final String mMessageId;
-	private final long mTimestamp;
+	private static final ObjectPool<NiddlerOkHttpRequest> POOL = new ObjectPool<>(8, new ObjectPool.Factory<NiddlerOkHttpRequest>() {
+		@Override
+		public NiddlerOkHttpRequest create() {
+			return new NiddlerOkHttpRequest();
+		}
+	});
+
+	private Request mRequest;
+	private String mRequestId;
+	private String mMessageId;
+	private long mTimestamp;
+
+	private NiddlerOkHttpRequest() {
+	}
+
+	/**
+	 * Obtains a pooled request message. The caller owns the message until it calls {@link #recycle()}
+	 *
+	 * @param request   The request to wrap
+	 * @param requestId The id of the request
+	 * @return The request message
+	 */
+	static NiddlerOkHttpRequest obtain(final Request request, final String requestId) {
+		final NiddlerOkHttpRequest niddlerRequest = POOL.acquire();
+		niddlerRequest.mRequest = request;
+		niddlerRequest.mRequestId = requestId;
+		niddlerRequest.mMessageId = UUID.randomUUID().toString();
+		niddlerRequest.mTimestamp = System.currentTimeMillis();
+		return niddlerRequest;
+	}
 
-	NiddlerOkHttpRequest(final Request request, final String requestId) {
-		mRequest = request;
-		mRequestId = requestId;
-		mMessageId = UUID.randomUUID().toString();
-		mTimestamp = System.currentTimeMillis();
+	/**
+	 * Returns the message to the pool. It must not be used afterwards
+	 */
+	void recycle() {
+		POOL.release(this);
+	}
+
+	@Override
+	public void reset() {
+		mRequest = null;
+		mRequestId = null;
+		mMessageId = null;
+		mTimestamp = 0;
 	}
 
 	@Override
@@ -63,6 +100,28 @@ final class NiddlerOkHttpRequest implements NiddlerRequest {
 		return headers;
 	}
 
+	@Override
+	public int headerCount() {
+		return mRequest.headers().size() + (needsContentTypeHeader() ? 1 : 0);
+	}
+
+	@Override
+	public String headerName(final int index) {
+		final Headers headers = mRequest.headers();
+		return (index < headers.size()) ? headers.name(index) : "Content-Type";
+	}
+
+	@Override
+	public String headerValue(final int index) {
+		final Headers headers = mRequest.headers();
+		return (index < headers.size()) ? headers.value(index) : String.valueOf(mRequest.body().contentType());
+	}
+
+	private boolean needsContentTypeHeader() {
+		final RequestBody body = mRequest.body();
+		return (body != null) && (body.contentType() != null) && (mRequest.header("Content-Type") == null);
+	}
+
 	@Override
 	public String getMethod() {
 		return mRequest.method();
@@ -73,7 +132,7 @@ final class NiddlerOkHttpRequest implements NiddlerRequest {
 		try {
 			final BufferedSink buffer = Okio.buffer(Okio.sink(stream));
 
-			final RequestBody body = mRequest.body();
+			final RequestBody body = NetworkThrottler.unwrap(mRequest.body());
 			if (body != null) {
 				body.writeTo(buffer);
 				buffer.flush();
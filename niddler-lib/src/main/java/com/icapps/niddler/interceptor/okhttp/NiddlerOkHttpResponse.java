@@ -3,8 +3,11 @@ package com.icapps.niddler.interceptor.okhttp;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 
+import com.icapps.niddler.core.NiddlerConnectionInfo;
+import com.icapps.niddler.core.NiddlerHeaders;
 import com.icapps.niddler.core.NiddlerRequest;
 import com.icapps.niddler.core.NiddlerResponse;
+import com.icapps.niddler.util.ObjectPool;
 
 import java.io.IOException;
 import java.io.OutputStream;
@@ -20,36 +23,88 @@ import okio.BufferedSource;
 /**
  * @author Maarten Van Giel
  */
-final class NiddlerOkHttpResponse implements NiddlerResponse {
+final class NiddlerOkHttpResponse implements NiddlerResponse, NiddlerHeaders, NiddlerConnectionInfo, ObjectPool.Poolable {
 
-	private final Response mResponse;
-	private final String mRequestId;
-	private final String mMessageId;
-	private final long mTimestamp;
+	private static final ObjectPool<NiddlerOkHttpResponse> POOL = new ObjectPool<>(8, new ObjectPool.Factory<NiddlerOkHttpResponse>() {
+		@Override
+		public NiddlerOkHttpResponse create() {
+			return new NiddlerOkHttpResponse();
+		}
+	});
+
+	private Response mResponse;
+	private String mRequestId;
+	private String mMessageId;
+	private long mTimestamp;
+	@Nullable
+	private NiddlerOkHttpRequest mActualNetworkRequest;
 	@Nullable
-	private final NiddlerRequest mActualNetworkRequest;
+	private NiddlerOkHttpResponse mActualNetworkReply;
+	private int mWriteTime;
+	private int mReadTime;
+	private int mWaitTime;
 	@Nullable
-	private final NiddlerResponse mActualNetworkReply;
-	private final int mWriteTime;
-	private final int mReadTime;
-	private final int mWaitTime;
+	private ConnectionTracker.CallConnection mConnection;
+
+	private NiddlerOkHttpResponse() {
+	}
 
-	NiddlerOkHttpResponse(final Response response,
+	/**
+	 * Obtains a pooled response message. The caller owns the message until it calls {@link #recycle()}, ownership of the network
+	 * request and reply is transferred to the returned message
+	 */
+	static NiddlerOkHttpResponse obtain(final Response response,
 			final String requestId,
-			@Nullable final NiddlerRequest actualNetworkRequest,
-			@Nullable final NiddlerResponse actualNetworkReply,
+			@Nullable final NiddlerOkHttpRequest actualNetworkRequest,
+			@Nullable final NiddlerOkHttpResponse actualNetworkReply,
 			final int writeTime,
 			final int readTime,
 			final int waitTime) {
-		mResponse = response;
-		mRequestId = requestId;
-		mActualNetworkRequest = actualNetworkRequest;
-		mActualNetworkReply = actualNetworkReply;
-		mWriteTime = writeTime;
-		mReadTime = readTime;
-		mWaitTime = waitTime;
-		mMessageId = UUID.randomUUID().toString();
-		mTimestamp = System.currentTimeMillis();
+		final NiddlerOkHttpResponse niddlerResponse = POOL.acquire();
+		niddlerResponse.mResponse = response;
+		niddlerResponse.mRequestId = requestId;
+		niddlerResponse.mActualNetworkRequest = actualNetworkRequest;
+		niddlerResponse.mActualNetworkReply = actualNetworkReply;
+		niddlerResponse.mWriteTime = writeTime;
+		niddlerResponse.mReadTime = readTime;
+		niddlerResponse.mWaitTime = waitTime;
+		niddlerResponse.mMessageId = UUID.randomUUID().toString();
+		niddlerResponse.mTimestamp = System.currentTimeMillis();
+		return niddlerResponse;
+	}
+
+	/**
+	 * @param connection The connection the call used, as reported by the connection tracker. Null if unknown
+	 */
+	void setConnection(@Nullable final ConnectionTracker.CallConnection connection) {
+		mConnection = connection;
+	}
+
+	/**
+	 * Returns the message, and the network request and reply it owns, to the pool. It must not be used afterwards
+	 */
+	void recycle() {
+		if (mActualNetworkRequest != null) {
+			mActualNetworkRequest.recycle();
+		}
+		if (mActualNetworkReply != null) {
+			mActualNetworkReply.recycle();
+		}
+		POOL.release(this);
+	}
+
+	@Override
+	public void reset() {
+		mResponse = null;
+		mRequestId = null;
+		mMessageId = null;
+		mTimestamp = 0;
+		mActualNetworkRequest = null;
+		mActualNetworkReply = null;
+		mWriteTime = 0;
+		mReadTime = 0;
+		mWaitTime = 0;
+		mConnection = null;
 	}
 
 	@Override
@@ -72,6 +127,47 @@ final class NiddlerOkHttpResponse implements NiddlerResponse {
 		return mResponse.headers().toMultimap();
 	}
 
+	@Override
+	public int headerCount() {
+		return mResponse.headers().size();
+	}
+
+	@Override
+	public String headerName(final int index) {
+		return mResponse.headers().name(index);
+	}
+
+	@Override
+	public String headerValue(final int index) {
+		return mResponse.headers().value(index);
+	}
+
+	@Override
+	public int connectionId() {
+		return (mConnection == null) ? -1 : mConnection.id;
+	}
+
+	@Override
+	public boolean connectionReused() {
+		return (mConnection != null) && mConnection.reused;
+	}
+
+	@Nullable
+	@Override
+	public String connectionProtocol() {
+		return (mConnection == null) ? null : mConnection.protocol;
+	}
+
+	@Override
+	public int concurrentStreams() {
+		return (mConnection == null) ? 0 : mConnection.concurrentStreams;
+	}
+
+	@Override
+	public int connectTime() {
+		return (mConnection == null) ? 0 : mConnection.connectTime;
+	}
+
 	@Override
 	public Integer getStatusCode() {
 		return mResponse.code();
@@ -125,7 +221,7 @@ final class NiddlerOkHttpResponse implements NiddlerResponse {
 				source.request(Long.MAX_VALUE); // Buffer entire body
 
 				final Buffer buffer = source.buffer();
-				stream.write(buffer.clone().readByteArray());
+				buffer.copyTo(stream, 0, buffer.size());
 				stream.flush();
 			}
 		} catch (final IOException e) {
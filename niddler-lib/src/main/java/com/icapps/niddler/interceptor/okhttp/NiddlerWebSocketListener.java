@@ -0,0 +1,190 @@
+package com.icapps.niddler.interceptor.okhttp;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.icapps.niddler.core.Niddler;
+import com.icapps.niddler.core.WebSocketFrameRecorder;
+import com.icapps.niddler.util.StringSizeUtil;
+
+import java.util.List;
+import java.util.UUID;
+
+import okhttp3.Interceptor;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.WebSocket;
+import okhttp3.WebSocketListener;
+import okio.ByteString;
+
+/**
+ * Listener that records the frames sent and received on an OkHttp websocket before passing them on to the application's listener.
+ * Create sockets using {@link #newWebSocket(Niddler, OkHttpClient, Request, WebSocketListener)} so outgoing frames are captured as well.
+ * Frames are linked to the upgrade request logged by {@link NiddlerOkHttpInterceptor}
+ *
+ * @author Nicola Verbeeck
+ */
+public final class NiddlerWebSocketListener extends WebSocketListener {
+
+	/**
+	 * Carries the request id of the upgrade request from {@link #newWebSocket(Niddler, OkHttpClient, Request, WebSocketListener)} to
+	 * the interceptor, which removes it before the request goes out
+	 */
+	static final String HEADER_REQUEST_ID = "X-Niddler-Request-Id";
+
+	private final WebSocketListener mDelegate;
+	private final WebSocketFrameRecorder mRecorder;
+	private NiddlerWebSocket mSocket;
+
+	private NiddlerWebSocketListener(final WebSocketListener delegate, final WebSocketFrameRecorder recorder) {
+		mDelegate = delegate;
+		mRecorder = recorder;
+	}
+
+	/**
+	 * Opens a websocket of which all frames are captured by niddler
+	 *
+	 * @param niddler  The niddler instance to report to
+	 * @param client   The client to open the socket with
+	 * @param request  The websocket request
+	 * @param listener The application's listener
+	 * @return The websocket, use this instance to send frames
+	 */
+	public static WebSocket newWebSocket(@NonNull final Niddler niddler, @NonNull final OkHttpClient client,
+			@NonNull final Request request, @NonNull final WebSocketListener listener) {
+		final String requestId = UUID.randomUUID().toString();
+		final Request linked = hasNiddlerInterceptor(client) ? request.newBuilder().header(HEADER_REQUEST_ID, requestId).build() : request;
+
+		final NiddlerWebSocketListener niddlerListener = new NiddlerWebSocketListener(listener, new WebSocketFrameRecorder(niddler, requestId));
+		return niddlerListener.wrap(client.newWebSocket(linked, niddlerListener));
+	}
+
+	/**
+	 * Only clients with a niddler interceptor get the request id header, other clients would send it to the server. The interceptor
+	 * can be registered as an application or as a network interceptor
+	 */
+	private static boolean hasNiddlerInterceptor(final OkHttpClient client) {
+		return containsNiddlerInterceptor(client.interceptors()) || containsNiddlerInterceptor(client.networkInterceptors());
+	}
+
+	private static boolean containsNiddlerInterceptor(final List<Interceptor> interceptors) {
+		for (final Interceptor interceptor : interceptors) {
+			if (interceptor instanceof NiddlerOkHttpInterceptor) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private synchronized WebSocket wrap(final WebSocket webSocket) {
+		if (mSocket == null) {
+			mSocket = new NiddlerWebSocket(webSocket, mRecorder);
+		}
+		return mSocket;
+	}
+
+	@Override
+	public void onOpen(final WebSocket webSocket, final Response response) {
+		mDelegate.onOpen(wrap(webSocket), response);
+	}
+
+	@Override
+	public void onMessage(final WebSocket webSocket, final String text) {
+		recordText(mRecorder, false, text);
+		mDelegate.onMessage(wrap(webSocket), text);
+	}
+
+	@Override
+	public void onMessage(final WebSocket webSocket, final ByteString bytes) {
+		recordBinary(mRecorder, false, bytes);
+		mDelegate.onMessage(wrap(webSocket), bytes);
+	}
+
+	@Override
+	public void onClosing(final WebSocket webSocket, final int code, final String reason) {
+		mDelegate.onClosing(wrap(webSocket), code, reason);
+	}
+
+	@Override
+	public void onClosed(final WebSocket webSocket, final int code, final String reason) {
+		mRecorder.close();
+		mDelegate.onClosed(wrap(webSocket), code, reason);
+	}
+
+	@Override
+	public void onFailure(final WebSocket webSocket, final Throwable t, @Nullable final Response response) {
+		mRecorder.close();
+		mDelegate.onFailure(wrap(webSocket), t, response);
+	}
+
+	/**
+	 * Frames are only encoded after they passed the recorder's sampling, and only as far as the recorder keeps their payload
+	 */
+	private static void recordText(final WebSocketFrameRecorder recorder, final boolean outgoing, final String text) {
+		if (recorder.sampleFrame()) {
+			final String preview = (text.length() > WebSocketFrameRecorder.MAX_PAYLOAD_PREVIEW)
+					? text.substring(0, WebSocketFrameRecorder.MAX_PAYLOAD_PREVIEW) : text;
+			recorder.recordFrame(outgoing, false, StringSizeUtil.utf8Length(text), ByteString.encodeUtf8(preview).toByteArray());
+		}
+	}
+
+	private static void recordBinary(final WebSocketFrameRecorder recorder, final boolean outgoing, final ByteString bytes) {
+		if (recorder.sampleFrame()) {
+			final int size = bytes.size();
+			final ByteString preview = (size > WebSocketFrameRecorder.MAX_PAYLOAD_PREVIEW)
+					? bytes.substring(0, WebSocketFrameRecorder.MAX_PAYLOAD_PREVIEW) : bytes;
+			recorder.recordFrame(outgoing, true, size, preview.toByteArray());
+		}
+	}
+
+	private static final class NiddlerWebSocket implements WebSocket {
+
+		private final WebSocket mDelegate;
+		private final WebSocketFrameRecorder mRecorder;
+
+		NiddlerWebSocket(final WebSocket delegate, final WebSocketFrameRecorder recorder) {
+			mDelegate = delegate;
+			mRecorder = recorder;
+		}
+
+		@Override
+		public Request request() {
+			return mDelegate.request();
+		}
+
+		@Override
+		public long queueSize() {
+			return mDelegate.queueSize();
+		}
+
+		@Override
+		public boolean send(@NonNull final String text) {
+			final boolean queued = mDelegate.send(text);
+			if (queued) {
+				recordText(mRecorder, true, text);
+			}
+			return queued;
+		}
+
+		@Override
+		public boolean send(@NonNull final ByteString bytes) {
+			final boolean queued = mDelegate.send(bytes);
+			if (queued) {
+				recordBinary(mRecorder, true, bytes);
+			}
+			return queued;
+		}
+
+		@Override
+		public boolean close(final int code, @Nullable final String reason) {
+			return mDelegate.close(code, reason);
+		}
+
+		@Override
+		public void cancel() {
+			mDelegate.cancel();
+		}
+	}
+
+}
@@ -0,0 +1,250 @@
+package com.icapps.niddler.interceptor.okhttp;
+
+import android.support.annotation.Nullable;
+import android.util.JsonWriter;
+import android.util.Log;
+
+import com.icapps.niddler.util.Logging;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Exports the spans of captured calls to an OpenTelemetry collector using OTLP/HTTP with the json encoding. Spans are batched: a
+ * batch is posted one second after its first span, or as soon as it is full. The collector is called using a plain
+ * {@link HttpURLConnection}, so the export itself never passes through the application's interceptors. When the collector can not
+ * keep up, new spans are dropped. The export thread stops when it has been idle for a while, or when the exporter is closed
+ *
+ * @author Nicola Verbeeck
+ */
+final class OtlpSpanExporter {
+
+	private static final String LOG_TAG = OtlpSpanExporter.class.getSimpleName();
+	private static final int MAX_BATCH_SIZE = 64;
+	private static final int MAX_PENDING = 2048;
+	private static final long FLUSH_DELAY_MILLIS = 1000L;
+	private static final int TIMEOUT_MILLIS = 5000;
+	private static final int SPAN_KIND_CLIENT = 3;
+	private static final int STATUS_CODE_ERROR = 2;
+	private static final long IDLE_TIMEOUT_SECONDS = 30L;
+
+	private final URL mEndpoint;
+	private final String mServiceName;
+	private final Object mLock = new Object();
+	private List<Span> mPending = new ArrayList<>();
+	private boolean mFlushScheduled;
+	private boolean mClosed;
+	@Nullable
+	private ScheduledThreadPoolExecutor mExecutor;
+
+	/**
+	 * @param endpoint    The traces endpoint of the collector, eg: http://10.0.2.2:4318/v1/traces
+	 * @param serviceName The service name to report the spans under
+	 */
+	OtlpSpanExporter(final URL endpoint, final String serviceName) {
+		mEndpoint = endpoint;
+		mServiceName = serviceName;
+	}
+
+	void export(final Span span) {
+		synchronized (mLock) {
+			if (mClosed || mPending.size() >= MAX_PENDING) {
+				return;
+			}
+			mPending.add(span);
+			if (mPending.size() == MAX_BATCH_SIZE) {
+				schedule(0L);
+			} else if (!mFlushScheduled) {
+				mFlushScheduled = true;
+				schedule(FLUSH_DELAY_MILLIS);
+			}
+		}
+	}
+
+	/**
+	 * Stops the exporter. Spans that are pending are still sent, after which the export thread stops. Spans exported after closing
+	 * are dropped
+	 */
+	void close() {
+		final ScheduledExecutorService executor;
+		synchronized (mLock) {
+			mClosed = true;
+			executor = mExecutor;
+			mExecutor = null;
+		}
+		if (executor != null) {
+			executor.shutdown(); //Delayed flushes still run
+		}
+	}
+
+	private void schedule(final long delayMillis) {
+		executor().schedule(new Runnable() {
+			@Override
+			public void run() {
+				flush();
+			}
+		}, delayMillis, TimeUnit.MILLISECONDS);
+	}
+
+	private void flush() {
+		final List<Span> spans;
+		synchronized (mLock) {
+			mFlushScheduled = false;
+			if (mPending.isEmpty()) {
+				return;
+			}
+			spans = mPending;
+			mPending = new ArrayList<>();
+		}
+		for (int start = 0; start < spans.size(); start += MAX_BATCH_SIZE) {
+			post(spans.subList(start, Math.min(spans.size(), start + MAX_BATCH_SIZE)));
+		}
+	}
+
+	private void post(final List<Span> spans) {
+		HttpURLConnection connection = null;
+		try {
+			connection = (HttpURLConnection) mEndpoint.openConnection();
+			connection.setConnectTimeout(TIMEOUT_MILLIS);
+			connection.setReadTimeout(TIMEOUT_MILLIS);
+			connection.setRequestMethod("POST");
+			connection.setRequestProperty("Content-Type", "application/json");
+			connection.setDoOutput(true);
+			final JsonWriter writer = new JsonWriter(new OutputStreamWriter(connection.getOutputStream(), "UTF-8"));
+			try {
+				writeSpans(writer, spans);
+			} finally {
+				writer.close();
+			}
+			final int code = connection.getResponseCode();
+			if (code >= 300 && Logging.DO_LOG) {
+				Log.w(LOG_TAG, "Collector rejected " + spans.size() + " spans: " + code);
+			}
+			final InputStream in = (code >= 400) ? connection.getErrorStream() : connection.getInputStream();
+			if (in != null) {
+				in.close();
+			}
+		} catch (final IOException e) {
+			if (Logging.DO_LOG) {
+				Log.w(LOG_TAG, "Failed to export " + spans.size() + " spans", e);
+			}
+		} finally {
+			if (connection != null) {
+				connection.disconnect();
+			}
+		}
+	}
+
+	private void writeSpans(final JsonWriter writer, final List<Span> spans) throws IOException {
+		writer.beginObject();
+		writer.name("resourceSpans").beginArray().beginObject();
+		writer.name("resource").beginObject();
+		writer.name("attributes").beginArray();
+		writeAttribute(writer, "service.name", mServiceName);
+		writer.endArray();
+		writer.endObject();
+		writer.name("scopeSpans").beginArray().beginObject();
+		writer.name("scope").beginObject().name("name").value("niddler").endObject();
+		writer.name("spans").beginArray();
+		for (final Span span : spans) {
+			writeSpan(writer, span);
+		}
+		writer.endArray();
+		writer.endObject().endArray();
+		writer.endObject().endArray();
+		writer.endObject();
+	}
+
+	private static void writeSpan(final JsonWriter writer, final Span span) throws IOException {
+		writer.beginObject();
+		writer.name("traceId").value(span.traceId);
+		writer.name("spanId").value(span.spanId);
+		writer.name("name").value(span.method);
+		writer.name("kind").value(SPAN_KIND_CLIENT);
+		writer.name("startTimeUnixNano").value(String.valueOf(span.startNanos)); //int64 values are strings in OTLP json
+		writer.name("endTimeUnixNano").value(String.valueOf(span.endNanos));
+		writer.name("attributes").beginArray();
+		writeAttribute(writer, "http.request.method", span.method);
+		writeAttribute(writer, "url.full", span.url);
+		if (span.statusCode > 0) {
+			writer.beginObject();
+			writer.name("key").value("http.response.status_code");
+			writer.name("value").beginObject().name("intValue").value(String.valueOf(span.statusCode)).endObject();
+			writer.endObject();
+		}
+		writer.endArray();
+		if (span.error != null || span.statusCode >= 400) {
+			writer.name("status").beginObject();
+			writer.name("code").value(STATUS_CODE_ERROR);
+			if (span.error != null) {
+				writer.name("message").value(span.error);
+			}
+			writer.endObject();
+		}
+		writer.endObject();
+	}
+
+	private static void writeAttribute(final JsonWriter writer, final String key, final String value) throws IOException {
+		writer.beginObject();
+		writer.name("key").value(key);
+		writer.name("value").beginObject().name("stringValue").value(value).endObject();
+		writer.endObject();
+	}
+
+	private ScheduledExecutorService executor() {
+		if (mExecutor == null) {
+			mExecutor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+				@Override
+				public Thread newThread(final Runnable runnable) {
+					final Thread thread = new Thread(runnable, "Niddler-span-exporter");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+			mExecutor.setKeepAliveTime(IDLE_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+			mExecutor.allowCoreThreadTimeOut(true);
+		}
+		return mExecutor;
+	}
+
+	@SuppressWarnings("PackageVisibleField")
+	static final class Span {
+		final String traceId;
+		final String spanId;
+		final String method;
+		final String url;
+		final long startNanos;
+		final long endNanos;
+		final int statusCode;
+		@Nullable
+		final String error;
+
+		/**
+		 * @param startNanos The start of the call, in nanoseconds since the epoch
+		 * @param endNanos   The end of the call, in nanoseconds since the epoch
+		 * @param statusCode The status code of the response, -1 when the call failed
+		 * @param error      The reason the call failed, null when a response was received
+		 */
+		Span(final String traceId, final String spanId, final String method, final String url, final long startNanos, final long endNanos,
+				final int statusCode, @Nullable final String error) {
+			this.traceId = traceId;
+			this.spanId = spanId;
+			this.method = method;
+			this.url = url;
+			this.startNanos = startNanos;
+			this.endNanos = endNanos;
+			this.statusCode = statusCode;
+			this.error = error;
+		}
+	}
+
+}
@@ -0,0 +1,189 @@
+package com.icapps.niddler.interceptor.okhttp;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import com.icapps.niddler.core.Niddler;
+import com.icapps.niddler.core.NiddlerCommandListener;
+import com.icapps.niddler.util.Logging;
+
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.Response;
+
+/**
+ * State shared by all interceptors that log to the same niddler instance. An application creates an interceptor per client, but the
+ * client commands are dispatched to the first listener that replies. Registering the command listeners once per niddler instance makes
+ * every command see the calls of every client, and keeps interceptors from piling up listeners
+ *
+ * @author Nicola Verbeeck
+ */
+final class SharedInterceptorState {
+
+	private static final String LOG_TAG = SharedInterceptorState.class.getSimpleName();
+	private static final int MAX_REPLAYABLE_CALLS = 64;
+	private static final int MAX_REPLAY_COUNT = 100;
+
+	private static final Map<Niddler, SharedInterceptorState> sStates = new WeakHashMap<>();
+
+	private final Map<String, Call> mReplayableCalls;
+	private final NetworkThrottler mThrottler = new NetworkThrottler();
+	private final CallTimeline mTimeline = new CallTimeline();
+	@Nullable
+	private ConnectionTracker mConnectionTracker;
+
+	private SharedInterceptorState() {
+		mReplayableCalls = new LinkedHashMap<String, Call>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(final Map.Entry<String, Call> eldest) {
+				return size() > MAX_REPLAYABLE_CALLS;
+			}
+		};
+	}
+
+	/**
+	 * @param niddler The niddler instance the interceptor logs to
+	 * @return The state shared by the interceptors of the niddler instance, the commands are registered when it is first requested
+	 */
+	@NonNull
+	static SharedInterceptorState of(@NonNull final Niddler niddler) {
+		synchronized (sStates) {
+			SharedInterceptorState state = sStates.get(niddler);
+			if (state == null) {
+				state = new SharedInterceptorState();
+				state.registerCommands(niddler);
+				sStates.put(niddler, state);
+			}
+			return state;
+		}
+	}
+
+	/**
+	 * @return The throttler applied by every interceptor, configured by the "setThrottle" and "clearThrottle" commands
+	 */
+	@NonNull
+	NetworkThrottler throttler() {
+		return mThrottler;
+	}
+
+	/**
+	 * @return The timeline of the calls of every interceptor, reported by the "getTimeline" command
+	 */
+	@NonNull
+	CallTimeline timeline() {
+		return mTimeline;
+	}
+
+	/**
+	 * @param niddler The niddler instance to register the "getConnections" command on when the tracker is created
+	 * @return The connection tracker shared by the clients that installed a connection tracking event listener
+	 */
+	@NonNull
+	synchronized ConnectionTracker connectionTracker(@NonNull final Niddler niddler) {
+		if (mConnectionTracker == null) {
+			final ConnectionTracker tracker = new ConnectionTracker();
+			niddler.registerCommandListener("getConnections", new NiddlerCommandListener() {
+				@Nullable
+				@Override
+				public String onCommand(@NonNull final JSONObject command) {
+					return tracker.buildConnectionsMessage(command);
+				}
+			});
+			mConnectionTracker = tracker;
+		}
+		return mConnectionTracker;
+	}
+
+	void rememberCall(final String uuid, @Nullable final Call call) {
+		if (call == null) {
+			return;
+		}
+		synchronized (mReplayableCalls) {
+			mReplayableCalls.put(uuid, call);
+		}
+	}
+
+	private void registerCommands(final Niddler niddler) {
+		niddler.registerCommandListener("replayRequest", new NiddlerCommandListener() {
+			@Nullable
+			@Override
+			public String onCommand(@NonNull final JSONObject command) {
+				return replay(command);
+			}
+		});
+		niddler.registerCommandListener("getTimeline", new NiddlerCommandListener() {
+			@Nullable
+			@Override
+			public String onCommand(@NonNull final JSONObject command) {
+				return mTimeline.buildTimelineMessage(command);
+			}
+		});
+		niddler.registerCommandListener("setThrottle", new NiddlerCommandListener() {
+			@Nullable
+			@Override
+			public String onCommand(@NonNull final JSONObject command) {
+				mThrottler.setProfile(command.optString("host", NetworkThrottler.ALL_HOSTS), ThrottleProfile.fromJson(command));
+				return CommandReplies.build(command, true, null);
+			}
+		});
+		niddler.registerCommandListener("clearThrottle", new NiddlerCommandListener() {
+			@Nullable
+			@Override
+			public String onCommand(@NonNull final JSONObject command) {
+				final String host = command.optString("host", null);
+				if (host == null) {
+					mThrottler.clear();
+				} else {
+					mThrottler.removeProfile(host);
+				}
+				return CommandReplies.build(command, true, null);
+			}
+		});
+	}
+
+	/**
+	 * Replays a previously executed call through the client that executed it. Replays go through the interceptor chain again and are
+	 * reported as new requests
+	 *
+	 * @param command The replay command: {"requestId":"...","count":1}
+	 * @return The reply to send to the client
+	 */
+	@Nullable
+	private String replay(final JSONObject command) {
+		final String requestId = command.optString("requestId");
+		final int count = Math.max(1, Math.min(MAX_REPLAY_COUNT, command.optInt("count", 1)));
+		final Call call;
+		synchronized (mReplayableCalls) {
+			call = mReplayableCalls.get(requestId);
+		}
+		if (call != null) {
+			for (int i = 0; i < count; ++i) {
+				call.clone().enqueue(REPLAY_CALLBACK);
+			}
+		}
+		return CommandReplies.build(command, call != null, (call == null) ? "Unknown request" : String.valueOf(count));
+	}
+
+	private static final Callback REPLAY_CALLBACK = new Callback() {
+		@Override
+		public void onFailure(final Call call, final IOException e) {
+			if (Logging.DO_LOG) {
+				Log.w(LOG_TAG, "Replayed request failed", e);
+			}
+		}
+
+		@Override
+		public void onResponse(final Call call, final Response response) {
+			response.close();
+		}
+	};
+
+}
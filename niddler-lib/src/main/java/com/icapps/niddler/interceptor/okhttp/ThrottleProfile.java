@@ -0,0 +1,36 @@
+package com.icapps.niddler.interceptor.okhttp;
+
+import org.json.JSONObject;
+
+/**
+ * Describes the network conditions to simulate for a host
+ *
+ * @author Nicola Verbeeck
+ */
+@SuppressWarnings("PackageVisibleField")
+final class ThrottleProfile {
+
+	final long latencyMillis;
+	final long downloadBytesPerSecond;
+	final long uploadBytesPerSecond;
+	final double failureRate;
+
+	ThrottleProfile(final long latencyMillis, final long downloadBytesPerSecond, final long uploadBytesPerSecond, final double failureRate) {
+		this.latencyMillis = Math.max(0L, latencyMillis);
+		this.downloadBytesPerSecond = Math.max(0L, downloadBytesPerSecond);
+		this.uploadBytesPerSecond = Math.max(0L, uploadBytesPerSecond);
+		this.failureRate = Math.max(0.0, Math.min(1.0, failureRate));
+	}
+
+	/**
+	 * Parses a profile from the setThrottle command, eg: {"host":"api.example.com","latency":300,"downloadBytesPerSecond":16384,
+	 * "uploadBytesPerSecond":8192,"failureRate":0.05}. Missing fields disable that part of the profile
+	 */
+	static ThrottleProfile fromJson(final JSONObject object) {
+		return new ThrottleProfile(object.optLong("latency", 0L),
+				object.optLong("downloadBytesPerSecond", 0L),
+				object.optLong("uploadBytesPerSecond", 0L),
+				object.optDouble("failureRate", 0.0));
+	}
+
+}
@@ -0,0 +1,418 @@
+package com.icapps.niddler.interceptor.urlconnection;
+
+import android.support.annotation.Nullable;
+
+import com.icapps.niddler.core.CapturedRequest;
+import com.icapps.niddler.core.CapturedResponse;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.ProtocolException;
+import java.net.URL;
+import java.security.Permission;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * {@link HttpURLConnection} that delegates to the real connection while capturing the request and response
+ *
+ * @author Nicola Verbeeck
+ */
+final class NiddlerHttpURLConnection extends HttpURLConnection {
+
+	private final HttpURLConnection mDelegate;
+	private final NiddlerUrlConnectionAdapter mAdapter;
+	private final String mRequestId;
+
+	private CapturedRequest mRequest;
+	private CapturedResponse mResponse;
+	private InputStream mBodyStream;
+	private long mStartTime;
+	private boolean mRequestLogged;
+
+	NiddlerHttpURLConnection(final HttpURLConnection delegate, final NiddlerUrlConnectionAdapter adapter) {
+		super(delegate.getURL());
+		mDelegate = delegate;
+		mAdapter = adapter;
+		mRequestId = NiddlerUrlConnectionAdapter.newId();
+	}
+
+	/**
+	 * Snapshots the request before it is sent. Request properties can no longer be read once the connection is connected
+	 */
+	private synchronized void beforeConnect() {
+		if (mRequest != null || mRequestLogged) {
+			return;
+		}
+		mStartTime = System.currentTimeMillis();
+		mRequest = mAdapter.newRequest(mRequestId);
+		mRequest.setUrl(mDelegate.getURL().toString());
+		mRequest.setMethod(mDelegate.getRequestMethod());
+		mRequest.addHeaders(mDelegate.getRequestProperties());
+	}
+
+	/**
+	 * Logs the request (its body has been written completely by now) and captures the response headers
+	 */
+	private synchronized void afterConnect() {
+		beforeConnect();
+		if (!mRequestLogged) {
+			mRequestLogged = true;
+			final CapturedRequest request = mRequest;
+			mRequest = null;
+			mAdapter.log(request);
+		}
+		if (mResponse != null || mBodyStream != null) {
+			return;
+		}
+		final int code;
+		try {
+			code = mDelegate.getResponseCode();
+		} catch (final IOException ignored) {
+			return; //No response to capture
+		}
+		final CapturedResponse response = mAdapter.newResponse(mRequestId);
+		response.setStatusCode(code);
+		try {
+			response.setStatusLine(mDelegate.getResponseMessage());
+		} catch (final IOException ignored) {
+			//Leave empty
+		}
+		response.setHttpVersion(httpVersion(mDelegate.getHeaderField(0)));
+		response.addHeaders(mDelegate.getHeaderFields());
+		final int elapsed = (int) (System.currentTimeMillis() - mStartTime);
+		response.setTimings(-1, -1, elapsed);
+		mResponse = response;
+	}
+
+	@Nullable
+	private synchronized InputStream captureBody(@Nullable final InputStream stream) {
+		if (stream == null || mResponse == null) {
+			return stream;
+		}
+		if (mBodyStream == null) {
+			mBodyStream = mAdapter.captureBody(stream, mResponse);
+			mResponse = null; //Ownership passed to the body stream
+		}
+		return mBodyStream;
+	}
+
+	private static String httpVersion(@Nullable final String statusLine) {
+		if (statusLine == null) {
+			return "";
+		}
+		final int space = statusLine.indexOf(' ');
+		return ((space > 0) ? statusLine.substring(0, space) : statusLine).toLowerCase(Locale.US);
+	}
+
+	@Override
+	public void connect() throws IOException {
+		beforeConnect();
+		mDelegate.connect();
+	}
+
+	@Override
+	public void disconnect() {
+		final CapturedResponse pending;
+		final InputStream bodyStream;
+		synchronized (this) {
+			pending = mResponse;
+			bodyStream = mBodyStream;
+			mResponse = null;
+			if (!mRequestLogged && mRequest != null) {
+				mAdapter.cancel(mRequest);
+				mRequest = null;
+			}
+		}
+		if (pending != null) {
+			mAdapter.log(pending);
+		} else if (bodyStream != null) {
+			try {
+				bodyStream.close(); //Completes the capture
+			} catch (final IOException ignored) {
+				//Ignore
+			}
+		}
+		mDelegate.disconnect();
+	}
+
+	@Override
+	public OutputStream getOutputStream() throws IOException {
+		beforeConnect();
+		final OutputStream stream = mDelegate.getOutputStream();
+		synchronized (this) {
+			if (mRequest == null) {
+				return stream;
+			}
+			return mAdapter.captureBody(stream, mRequest);
+		}
+	}
+
+	@Override
+	public InputStream getInputStream() throws IOException {
+		afterConnect();
+		return captureBody(mDelegate.getInputStream());
+	}
+
+	@Override
+	public InputStream getErrorStream() {
+		afterConnect();
+		return captureBody(mDelegate.getErrorStream());
+	}
+
+	@Override
+	public int getResponseCode() throws IOException {
+		afterConnect();
+		return mDelegate.getResponseCode();
+	}
+
+	@Override
+	public String getResponseMessage() throws IOException {
+		afterConnect();
+		return mDelegate.getResponseMessage();
+	}
+
+	@Override
+	public String getHeaderField(final String name) {
+		afterConnect();
+		return mDelegate.getHeaderField(name);
+	}
+
+	@Override
+	public String getHeaderField(final int n) {
+		afterConnect();
+		return mDelegate.getHeaderField(n);
+	}
+
+	@Override
+	public String getHeaderFieldKey(final int n) {
+		afterConnect();
+		return mDelegate.getHeaderFieldKey(n);
+	}
+
+	@Override
+	public Map<String, List<String>> getHeaderFields() {
+		afterConnect();
+		return mDelegate.getHeaderFields();
+	}
+
+	@Override
+	public int getHeaderFieldInt(final String name, final int defaultValue) {
+		afterConnect();
+		return mDelegate.getHeaderFieldInt(name, defaultValue);
+	}
+
+	@Override
+	public long getHeaderFieldDate(final String name, final long defaultValue) {
+		afterConnect();
+		return mDelegate.getHeaderFieldDate(name, defaultValue);
+	}
+
+	@Override
+	public int getContentLength() {
+		afterConnect();
+		return mDelegate.getContentLength();
+	}
+
+	@Override
+	public String getContentType() {
+		afterConnect();
+		return mDelegate.getContentType();
+	}
+
+	@Override
+	public String getContentEncoding() {
+		afterConnect();
+		return mDelegate.getContentEncoding();
+	}
+
+	@Override
+	public long getExpiration() {
+		afterConnect();
+		return mDelegate.getExpiration();
+	}
+
+	@Override
+	public long getDate() {
+		afterConnect();
+		return mDelegate.getDate();
+	}
+
+	@Override
+	public long getLastModified() {
+		afterConnect();
+		return mDelegate.getLastModified();
+	}
+
+	@Override
+	public Object getContent() throws IOException {
+		afterConnect();
+		return mDelegate.getContent();
+	}
+
+	@SuppressWarnings("rawtypes")
+	@Override
+	public Object getContent(final Class[] classes) throws IOException {
+		afterConnect();
+		return mDelegate.getContent(classes);
+	}
+
+	@Override
+	public boolean usingProxy() {
+		return mDelegate.usingProxy();
+	}
+
+	@Override
+	public Permission getPermission() throws IOException {
+		return mDelegate.getPermission();
+	}
+
+	@Override
+	public URL getURL() {
+		return mDelegate.getURL();
+	}
+
+	@Override
+	public void setRequestMethod(final String method) throws ProtocolException {
+		mDelegate.setRequestMethod(method);
+	}
+
+	@Override
+	public String getRequestMethod() {
+		return mDelegate.getRequestMethod();
+	}
+
+	@Override
+	public void setRequestProperty(final String key, final String value) {
+		mDelegate.setRequestProperty(key, value);
+	}
+
+	@Override
+	public void addRequestProperty(final String key, final String value) {
+		mDelegate.addRequestProperty(key, value);
+	}
+
+	@Override
+	public String getRequestProperty(final String key) {
+		return mDelegate.getRequestProperty(key);
+	}
+
+	@Override
+	public Map<String, List<String>> getRequestProperties() {
+		return mDelegate.getRequestProperties();
+	}
+
+	@Override
+	public void setFixedLengthStreamingMode(final int contentLength) {
+		mDelegate.setFixedLengthStreamingMode(contentLength);
+	}
+
+	@Override
+	public void setFixedLengthStreamingMode(final long contentLength) {
+		mDelegate.setFixedLengthStreamingMode(contentLength);
+	}
+
+	@Override
+	public void setChunkedStreamingMode(final int chunkLength) {
+		mDelegate.setChunkedStreamingMode(chunkLength);
+	}
+
+	@Override
+	public void setInstanceFollowRedirects(final boolean followRedirects) {
+		mDelegate.setInstanceFollowRedirects(followRedirects);
+	}
+
+	@Override
+	public boolean getInstanceFollowRedirects() {
+		return mDelegate.getInstanceFollowRedirects();
+	}
+
+	@Override
+	public void setConnectTimeout(final int timeout) {
+		mDelegate.setConnectTimeout(timeout);
+	}
+
+	@Override
+	public int getConnectTimeout() {
+		return mDelegate.getConnectTimeout();
+	}
+
+	@Override
+	public void setReadTimeout(final int timeout) {
+		mDelegate.setReadTimeout(timeout);
+	}
+
+	@Override
+	public int getReadTimeout() {
+		return mDelegate.getReadTimeout();
+	}
+
+	@Override
+	public void setDoInput(final boolean doInput) {
+		mDelegate.setDoInput(doInput);
+	}
+
+	@Override
+	public boolean getDoInput() {
+		return mDelegate.getDoInput();
+	}
+
+	@Override
+	public void setDoOutput(final boolean doOutput) {
+		mDelegate.setDoOutput(doOutput);
+	}
+
+	@Override
+	public boolean getDoOutput() {
+		return mDelegate.getDoOutput();
+	}
+
+	@Override
+	public void setAllowUserInteraction(final boolean allowUserInteraction) {
+		mDelegate.setAllowUserInteraction(allowUserInteraction);
+	}
+
+	@Override
+	public boolean getAllowUserInteraction() {
+		return mDelegate.getAllowUserInteraction();
+	}
+
+	@Override
+	public void setUseCaches(final boolean useCaches) {
+		mDelegate.setUseCaches(useCaches);
+	}
+
+	@Override
+	public boolean getUseCaches() {
+		return mDelegate.getUseCaches();
+	}
+
+	@Override
+	public void setIfModifiedSince(final long ifModifiedSince) {
+		mDelegate.setIfModifiedSince(ifModifiedSince);
+	}
+
+	@Override
+	public long getIfModifiedSince() {
+		return mDelegate.getIfModifiedSince();
+	}
+
+	@Override
+	public boolean getDefaultUseCaches() {
+		return mDelegate.getDefaultUseCaches();
+	}
+
+	@Override
+	public void setDefaultUseCaches(final boolean defaultUseCaches) {
+		mDelegate.setDefaultUseCaches(defaultUseCaches);
+	}
+
+	@Override
+	public String toString() {
+		return mDelegate.toString();
+	}
+
+}
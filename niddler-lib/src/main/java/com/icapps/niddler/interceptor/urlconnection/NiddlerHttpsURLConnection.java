@@ -0,0 +1,342 @@
+package com.icapps.niddler.interceptor.urlconnection;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ProtocolException;
+import java.net.URL;
+import java.security.Permission;
+import java.security.Principal;
+import java.security.cert.Certificate;
+import java.util.List;
+import java.util.Map;
+
+import javax.net.ssl.HostnameVerifier;
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLPeerUnverifiedException;
+import javax.net.ssl.SSLSocketFactory;
+
+/**
+ * {@link HttpsURLConnection} counterpart of {@link NiddlerHttpURLConnection}, so applications can still configure the TLS settings of
+ * wrapped https connections. The http methods go through the capturing connection, the TLS methods go to the real connection
+ *
+ * @author Nicola Verbeeck
+ */
+final class NiddlerHttpsURLConnection extends HttpsURLConnection {
+
+	private final NiddlerHttpURLConnection mDelegate;
+	private final HttpsURLConnection mHttpsDelegate;
+
+	NiddlerHttpsURLConnection(final HttpsURLConnection delegate, final NiddlerHttpURLConnection capturing) {
+		super(delegate.getURL());
+		mHttpsDelegate = delegate;
+		mDelegate = capturing;
+	}
+
+	@Override
+	public String getCipherSuite() {
+		return mHttpsDelegate.getCipherSuite();
+	}
+
+	@Override
+	public Certificate[] getLocalCertificates() {
+		return mHttpsDelegate.getLocalCertificates();
+	}
+
+	@Override
+	public Certificate[] getServerCertificates() throws SSLPeerUnverifiedException {
+		return mHttpsDelegate.getServerCertificates();
+	}
+
+	@Override
+	public Principal getPeerPrincipal() throws SSLPeerUnverifiedException {
+		return mHttpsDelegate.getPeerPrincipal();
+	}
+
+	@Override
+	public Principal getLocalPrincipal() {
+		return mHttpsDelegate.getLocalPrincipal();
+	}
+
+	@Override
+	public void setHostnameVerifier(final HostnameVerifier verifier) {
+		mHttpsDelegate.setHostnameVerifier(verifier);
+	}
+
+	@Override
+	public HostnameVerifier getHostnameVerifier() {
+		return mHttpsDelegate.getHostnameVerifier();
+	}
+
+	@Override
+	public void setSSLSocketFactory(final SSLSocketFactory factory) {
+		mHttpsDelegate.setSSLSocketFactory(factory);
+	}
+
+	@Override
+	public SSLSocketFactory getSSLSocketFactory() {
+		return mHttpsDelegate.getSSLSocketFactory();
+	}
+
+	@Override
+	public void connect() throws IOException {
+		mDelegate.connect();
+	}
+
+	@Override
+	public void disconnect() {
+		mDelegate.disconnect();
+	}
+
+	@Override
+	public OutputStream getOutputStream() throws IOException {
+		return mDelegate.getOutputStream();
+	}
+
+	@Override
+	public InputStream getInputStream() throws IOException {
+		return mDelegate.getInputStream();
+	}
+
+	@Override
+	public InputStream getErrorStream() {
+		return mDelegate.getErrorStream();
+	}
+
+	@Override
+	public int getResponseCode() throws IOException {
+		return mDelegate.getResponseCode();
+	}
+
+	@Override
+	public String getResponseMessage() throws IOException {
+		return mDelegate.getResponseMessage();
+	}
+
+	@Override
+	public String getHeaderField(final String name) {
+		return mDelegate.getHeaderField(name);
+	}
+
+	@Override
+	public String getHeaderField(final int n) {
+		return mDelegate.getHeaderField(n);
+	}
+
+	@Override
+	public String getHeaderFieldKey(final int n) {
+		return mDelegate.getHeaderFieldKey(n);
+	}
+
+	@Override
+	public Map<String, List<String>> getHeaderFields() {
+		return mDelegate.getHeaderFields();
+	}
+
+	@Override
+	public int getHeaderFieldInt(final String name, final int defaultValue) {
+		return mDelegate.getHeaderFieldInt(name, defaultValue);
+	}
+
+	@Override
+	public long getHeaderFieldDate(final String name, final long defaultValue) {
+		return mDelegate.getHeaderFieldDate(name, defaultValue);
+	}
+
+	@Override
+	public int getContentLength() {
+		return mDelegate.getContentLength();
+	}
+
+	@Override
+	public String getContentType() {
+		return mDelegate.getContentType();
+	}
+
+	@Override
+	public String getContentEncoding() {
+		return mDelegate.getContentEncoding();
+	}
+
+	@Override
+	public long getExpiration() {
+		return mDelegate.getExpiration();
+	}
+
+	@Override
+	public long getDate() {
+		return mDelegate.getDate();
+	}
+
+	@Override
+	public long getLastModified() {
+		return mDelegate.getLastModified();
+	}
+
+	@Override
+	public Object getContent() throws IOException {
+		return mDelegate.getContent();
+	}
+
+	@SuppressWarnings("rawtypes")
+	@Override
+	public Object getContent(final Class[] classes) throws IOException {
+		return mDelegate.getContent(classes);
+	}
+
+	@Override
+	public boolean usingProxy() {
+		return mDelegate.usingProxy();
+	}
+
+	@Override
+	public Permission getPermission() throws IOException {
+		return mDelegate.getPermission();
+	}
+
+	@Override
+	public URL getURL() {
+		return mDelegate.getURL();
+	}
+
+	@Override
+	public void setRequestMethod(final String method) throws ProtocolException {
+		mDelegate.setRequestMethod(method);
+	}
+
+	@Override
+	public String getRequestMethod() {
+		return mDelegate.getRequestMethod();
+	}
+
+	@Override
+	public void setRequestProperty(final String key, final String value) {
+		mDelegate.setRequestProperty(key, value);
+	}
+
+	@Override
+	public void addRequestProperty(final String key, final String value) {
+		mDelegate.addRequestProperty(key, value);
+	}
+
+	@Override
+	public String getRequestProperty(final String key) {
+		return mDelegate.getRequestProperty(key);
+	}
+
+	@Override
+	public Map<String, List<String>> getRequestProperties() {
+		return mDelegate.getRequestProperties();
+	}
+
+	@Override
+	public void setFixedLengthStreamingMode(final int contentLength) {
+		mDelegate.setFixedLengthStreamingMode(contentLength);
+	}
+
+	@Override
+	public void setFixedLengthStreamingMode(final long contentLength) {
+		mDelegate.setFixedLengthStreamingMode(contentLength);
+	}
+
+	@Override
+	public void setChunkedStreamingMode(final int chunkLength) {
+		mDelegate.setChunkedStreamingMode(chunkLength);
+	}
+
+	@Override
+	public void setInstanceFollowRedirects(final boolean followRedirects) {
+		mDelegate.setInstanceFollowRedirects(followRedirects);
+	}
+
+	@Override
+	public boolean getInstanceFollowRedirects() {
+		return mDelegate.getInstanceFollowRedirects();
+	}
+
+	@Override
+	public void setConnectTimeout(final int timeout) {
+		mDelegate.setConnectTimeout(timeout);
+	}
+
+	@Override
+	public int getConnectTimeout() {
+		return mDelegate.getConnectTimeout();
+	}
+
+	@Override
+	public void setReadTimeout(final int timeout) {
+		mDelegate.setReadTimeout(timeout);
+	}
+
+	@Override
+	public int getReadTimeout() {
+		return mDelegate.getReadTimeout();
+	}
+
+	@Override
+	public void setDoInput(final boolean doInput) {
+		mDelegate.setDoInput(doInput);
+	}
+
+	@Override
+	public boolean getDoInput() {
+		return mDelegate.getDoInput();
+	}
+
+	@Override
+	public void setDoOutput(final boolean doOutput) {
+		mDelegate.setDoOutput(doOutput);
+	}
+
+	@Override
+	public boolean getDoOutput() {
+		return mDelegate.getDoOutput();
+	}
+
+	@Override
+	public void setAllowUserInteraction(final boolean allowUserInteraction) {
+		mDelegate.setAllowUserInteraction(allowUserInteraction);
+	}
+
+	@Override
+	public boolean getAllowUserInteraction() {
+		return mDelegate.getAllowUserInteraction();
+	}
+
+	@Override
+	public void setUseCaches(final boolean useCaches) {
+		mDelegate.setUseCaches(useCaches);
+	}
+
+	@Override
+	public boolean getUseCaches() {
+		return mDelegate.getUseCaches();
+	}
+
+	@Override
+	public void setIfModifiedSince(final long ifModifiedSince) {
+		mDelegate.setIfModifiedSince(ifModifiedSince);
+	}
+
+	@Override
+	public long getIfModifiedSince() {
+		return mDelegate.getIfModifiedSince();
+	}
+
+	@Override
+	public boolean getDefaultUseCaches() {
+		return mDelegate.getDefaultUseCaches();
+	}
+
+	@Override
+	public void setDefaultUseCaches(final boolean defaultUseCaches) {
+		mDelegate.setDefaultUseCaches(defaultUseCaches);
+	}
+
+	@Override
+	public String toString() {
+		return mDelegate.toString();
+	}
+
+}
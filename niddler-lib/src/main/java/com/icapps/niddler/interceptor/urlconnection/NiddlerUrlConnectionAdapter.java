@@ -0,0 +1,103 @@
+package com.icapps.niddler.interceptor.urlconnection;
+
+import android.support.annotation.NonNull;
+
+import com.icapps.niddler.core.CapturedRequest;
+import com.icapps.niddler.core.CapturedResponse;
+import com.icapps.niddler.core.Niddler;
+import com.icapps.niddler.core.NiddlerCaptureAdapter;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+
+import javax.net.ssl.HttpsURLConnection;
+
+/**
+ * Captures traffic of {@link HttpURLConnection}s. Use {@link #open(URL)} instead of {@link URL#openConnection()}, or wrap connections
+ * using {@link #wrap(HttpURLConnection)} before connecting them. The response is logged when the application has read or closed the
+ * response body, or when the connection is disconnected
+ *
+ * @author Nicola Verbeeck
+ */
+@SuppressWarnings("WeakerAccess")
+public class NiddlerUrlConnectionAdapter extends NiddlerCaptureAdapter {
+
+	public NiddlerUrlConnectionAdapter(final Niddler niddler) {
+		super(niddler);
+	}
+
+	/**
+	 * Opens a connection to the given url. Http(s) connections are wrapped so their traffic is captured
+	 *
+	 * @param url The url to open the connection to
+	 * @return The (wrapped) connection
+	 * @throws IOException When opening the connection fails
+	 */
+	public URLConnection open(@NonNull final URL url) throws IOException {
+		final URLConnection connection = url.openConnection();
+		if (connection instanceof HttpURLConnection) {
+			return wrap((HttpURLConnection) connection);
+		}
+		return connection;
+	}
+
+	/**
+	 * Wraps the connection so its traffic is captured. The connection must not be connected yet. While capture is paused, the
+	 * connection is returned as is. Https connections are wrapped in an {@link HttpsURLConnection}, so they can still be cast to
+	 * configure their TLS settings
+	 *
+	 * @param connection The connection to wrap
+	 * @return The wrapped connection, use this instance instead of the original connection
+	 */
+	public HttpURLConnection wrap(@NonNull final HttpURLConnection connection) {
+		if (connection instanceof NiddlerHttpURLConnection || connection instanceof NiddlerHttpsURLConnection || !isCapturing()) {
+			return connection;
+		}
+		final NiddlerHttpURLConnection capturing = new NiddlerHttpURLConnection(connection, this);
+		if (connection instanceof HttpsURLConnection) {
+			return new NiddlerHttpsURLConnection((HttpsURLConnection) connection, capturing);
+		}
+		return capturing;
+	}
+
+	CapturedRequest newRequest(final String requestId) {
+		return obtainRequest(requestId);
+	}
+
+	CapturedResponse newResponse(final String requestId) {
+		return obtainResponse(requestId);
+	}
+
+	void log(final CapturedRequest request) {
+		submit(request);
+	}
+
+	void log(final CapturedResponse response) {
+		submit(response);
+	}
+
+	void cancel(final CapturedRequest request) {
+		discard(request);
+	}
+
+	void cancel(final CapturedResponse response) {
+		discard(response);
+	}
+
+	OutputStream captureBody(final OutputStream stream, final CapturedRequest request) {
+		return captureRequestBody(stream, request);
+	}
+
+	InputStream captureBody(final InputStream stream, final CapturedResponse response) {
+		return captureResponseBody(stream, response);
+	}
+
+	static String newId() {
+		return newRequestId();
+	}
+
+}
@@ -29,6 +29,8 @@ public class NiddlerService extends Service {
 
 	private static final String LOG_TAG = NiddlerService.class.getSimpleName();
 	private static final int NOTIFICATION_ID = 147;
+	private static final String ACTION_STOP = "STOP";
+	private static final String ACTION_TOGGLE_CAPTURE = "TOGGLE_CAPTURE";
 
 	private final IBinder mBinder = new NiddlerBinder();
 	private NotificationManager mNotificationManager;
@@ -91,8 +93,11 @@ public class NiddlerService extends Service {
 
 	@Override
 	public int onStartCommand(final Intent intent, final int flags, final int startId) {
-		if ((intent != null) && (intent.getAction() != null) && intent.getAction().equals("STOP")) {
+		final String action = (intent == null) ? null : intent.getAction();
+		if (ACTION_STOP.equals(action)) {
 			closeNiddler();
+		} else if (ACTION_TOGGLE_CAPTURE.equals(action) && (mNiddler != null)) {
+			mNiddler.setCaptureEnabled(!mNiddler.isCaptureEnabled());
 		}
 		return START_NOT_STICKY;
 	}
@@ -116,6 +121,20 @@ public class NiddlerService extends Service {
 		}
 	}
 
+	/**
+	 * Called by niddler when capture was paused or resumed, either from the notification or by a client. Can be called from any thread
+	 */
+	public void onCaptureStateChanged() {
+		mHandler.post(new Runnable() {
+			@Override
+			public void run() {
+				if ((mNiddler != null) && !mNiddler.isClosed()) {
+					createNotification();
+				}
+			}
+		});
+	}
+
 	private void closeNiddler() {
 		if (mNiddler != null) {
 			try {
@@ -136,14 +155,22 @@ public class NiddlerService extends Service {
 		}
 
 		final Intent intent = new Intent(this, NiddlerService.class);
-		intent.setAction("STOP");
+		intent.setAction(ACTION_STOP);
 		final PendingIntent pendingIntent = PendingIntent.getService(this, 0, intent, PendingIntent.FLAG_CANCEL_CURRENT);
 
+		final Intent toggleIntent = new Intent(this, NiddlerService.class);
+		toggleIntent.setAction(ACTION_TOGGLE_CAPTURE);
+		final PendingIntent togglePendingIntent = PendingIntent.getService(this, 1, toggleIntent, PendingIntent.FLAG_UPDATE_CURRENT);
+
+		final boolean capturing = mNiddler.isCaptureEnabled();
+		final String state = capturing ? "running" : "paused";
 		final Notification notification = new NotificationCompat.Builder(this, channelId)
 				.setContentTitle("Niddler")
-				.setContentText("Niddler is running. Touch to stop.")
-				.setStyle(new NotificationCompat.BigTextStyle().bigText("Niddler is running for '" + getPackageName() + "' on port '" + mNiddler.getPort() + "'. Touch to stop"))
+				.setContentText("Niddler is " + state + ". Touch to stop.")
+				.setStyle(new NotificationCompat.BigTextStyle().bigText("Niddler is " + state + " for '" + getPackageName() + "' on port '" + mNiddler.getPort() + "'. Touch to stop"))
 				.setContentIntent(pendingIntent)
+				.addAction(capturing ? android.R.drawable.ic_media_pause : android.R.drawable.ic_media_play,
+						capturing ? "Pause capture" : "Resume capture", togglePendingIntent)
 				.setSmallIcon(android.R.drawable.ic_menu_preferences)
 				.setLocalOnly(true)
 				.build();
@@ -0,0 +1,116 @@
+package com.icapps.niddler.util;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+/**
+ * Fixed size hash table from 64 bit keys to values that expire. Keys are looked up in a short run of slots (open addressing), an entry
+ * that is added when all slots of its run are taken replaces the entry that expires first. Expired entries are never removed
+ * explicitly, their slots are simply reused. This keeps both memory use and the cost of every operation bounded, at the price of
+ * forgetting entries early when the table is overloaded. Not thread safe
+ *
+ * @author Nicola Verbeeck
+ */
+public final class ExpiringHashTable<V> {
+
+	private static final int MAX_PROBES = 8;
+
+	private final long[] mKeys;
+	private final long[] mExpiries;
+	private final Object[] mValues;
+	private final int mMask;
+
+	/**
+	 * @param capacity The number of entries the table can hold, rounded up to a power of two
+	 */
+	public ExpiringHashTable(final int capacity) {
+		int size = MAX_PROBES;
+		while (size < capacity) {
+			size <<= 1;
+		}
+		mKeys = new long[size];
+		mExpiries = new long[size];
+		mValues = new Object[size];
+		mMask = size - 1;
+	}
+
+	/**
+	 * @param key The key to look up
+	 * @param now The current time, in the same unit as the expiry times
+	 * @return The value of the key, null if the key is not in the table or its entry has expired
+	 */
+	@Nullable
+	@SuppressWarnings("unchecked")
+	public V get(final long key, final long now) {
+		final int slot = find(key);
+		if (slot < 0 || mExpiries[slot] <= now) {
+			return null;
+		}
+		return (V) mValues[slot];
+	}
+
+	/**
+	 * Adds or replaces the entry for the key
+	 *
+	 * @param key       The key of the entry
+	 * @param value     The value of the entry
+	 * @param expiresAt The time after which the entry is no longer returned
+	 * @param now       The current time, in the same unit as the expiry times
+	 */
+	public void put(final long key, @NonNull final V value, final long expiresAt, final long now) {
+		int slot = find(key);
+		if (slot < 0) {
+			slot = start(key);
+			int candidate = slot;
+			for (int i = 0; i < MAX_PROBES; ++i) {
+				final int probe = (slot + i) & mMask;
+				if (mValues[probe] == null || mExpiries[probe] <= now) {
+					candidate = probe;
+					break;
+				}
+				if (mExpiries[probe] < mExpiries[candidate]) {
+					candidate = probe;
+				}
+			}
+			slot = candidate;
+		}
+		mKeys[slot] = key;
+		mExpiries[slot] = expiresAt;
+		mValues[slot] = value;
+	}
+
+	/**
+	 * Removes the entry for the key, if any
+	 *
+	 * @param key The key of the entry to remove
+	 */
+	public void remove(final long key) {
+		final int slot = find(key);
+		if (slot >= 0) {
+			mValues[slot] = null;
+		}
+	}
+
+	public void clear() {
+		for (int i = 0; i <= mMask; ++i) {
+			mValues[i] = null;
+		}
+	}
+
+	private int find(final long key) {
+		final int start = start(key);
+		for (int i = 0; i < MAX_PROBES; ++i) {
+			final int probe = (start + i) & mMask;
+			if (mValues[probe] != null && mKeys[probe] == key) {
+				return probe;
+			}
+		}
+		return -1;
+	}
+
+	private int start(final long key) {
+		final long mixed = key * 0x9E3779B97F4A7C15L; //Fibonacci hashing, spreads keys that only differ in their low bits
+		return (int) (mixed >>> 32) & mMask;
+	}
+
+}
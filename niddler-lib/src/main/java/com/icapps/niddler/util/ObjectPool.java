@@ -0,0 +1,129 @@
+package com.icapps.niddler.util;
+
+import android.util.Log;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+/**
+ * Small bounded pool of reusable objects. When the pool is empty a new instance is created, released instances beyond the pool's
+ * capacity are left to the garbage collector.
+ * <p>
+ * When logging is enabled, the pool tracks where every instance was acquired and reports instances that were garbage collected
+ * without being released
+ *
+ * @author Nicola Verbeeck
+ */
+public final class ObjectPool<T extends ObjectPool.Poolable> {
+
+	private static final String LOG_TAG = ObjectPool.class.getSimpleName();
+
+	private final Object[] mItems;
+	private final Factory<T> mFactory;
+	private int mSize;
+
+	private final ReferenceQueue<T> mLeakQueue = new ReferenceQueue<>();
+	private final Map<T, LeakReference<T>> mTracked = new WeakHashMap<>();
+	private final Set<LeakReference<T>> mLive = new HashSet<>();
+	private volatile boolean mTracking;
+
+	public ObjectPool(final int maxSize, final Factory<T> factory) {
+		mItems = new Object[maxSize];
+		mFactory = factory;
+	}
+
+	/**
+	 * @return A pooled instance or a newly created instance if the pool is empty. The caller owns the instance until it is released
+	 */
+	@SuppressWarnings("unchecked")
+	public T acquire() {
+		T item = null;
+		synchronized (mItems) {
+			if (mSize > 0) {
+				item = (T) mItems[--mSize];
+				mItems[mSize] = null;
+			}
+		}
+		if (item == null) {
+			item = mFactory.create();
+		}
+		if (Logging.DO_LOG) {
+			track(item);
+		}
+		return item;
+	}
+
+	/**
+	 * Resets the item and returns it to the pool. The item must not be used by the caller after releasing it
+	 *
+	 * @param item The item to return to the pool
+	 */
+	public void release(final T item) {
+		untrack(item);
+		item.reset();
+		synchronized (mItems) {
+			if (mSize < mItems.length) {
+				mItems[mSize++] = item;
+			}
+		}
+	}
+
+	private void track(final T item) {
+		mTracking = true;
+		synchronized (mTracked) {
+			reportLeaks();
+			final LeakReference<T> reference = new LeakReference<>(item, mLeakQueue);
+			mTracked.put(item, reference);
+			mLive.add(reference);
+		}
+	}
+
+	private void untrack(final T item) {
+		if (!mTracking) {
+			return;
+		}
+		synchronized (mTracked) {
+			final LeakReference<T> reference = mTracked.remove(item);
+			if (reference != null) {
+				reference.clear();
+				mLive.remove(reference);
+			}
+		}
+	}
+
+	private void reportLeaks() {
+		Reference<? extends T> reference;
+		while ((reference = mLeakQueue.poll()) != null) {
+			if (mLive.remove(reference)) {
+				Log.w(LOG_TAG, "Pooled object was garbage collected without being released", ((LeakReference<?>) reference).mAcquiredAt);
+			}
+		}
+	}
+
+	public interface Poolable {
+		/**
+		 * Clears all state so the instance can be reused
+		 */
+		void reset();
+	}
+
+	public interface Factory<T> {
+		T create();
+	}
+
+	private static final class LeakReference<T> extends WeakReference<T> {
+
+		final Throwable mAcquiredAt;
+
+		LeakReference(final T referent, final ReferenceQueue<? super T> queue) {
+			super(referent, queue);
+			mAcquiredAt = new Throwable("Acquired here");
+		}
+	}
+
+}
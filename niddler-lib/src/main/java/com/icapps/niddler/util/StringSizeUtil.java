@@ -13,4 +13,28 @@ public final class StringSizeUtil {
 		return 8 * (((input.length()) * 2) + 45) / 8;
 	}
 
+	/**
+	 * @return The number of bytes the input takes when encoded as UTF-8, calculated without encoding it
+	 */
+	public static long utf8Length(final String input) {
+		final int length = input.length();
+		long size = 0;
+		for (int i = 0; i < length; ++i) {
+			final char c = input.charAt(i);
+			if (c < 0x80) {
+				++size;
+			} else if (c < 0x800) {
+				size += 2;
+			} else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(input.charAt(i + 1))) {
+				size += 4;
+				++i;
+			} else if (c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE) {
+				++size; //Unpaired surrogates are encoded as '?'
+			} else {
+				size += 3;
+			}
+		}
+		return size;
+	}
+
 }
@@ -0,0 +1,57 @@
+package com.icapps.niddler.util;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counter for hot paths that are hit from many threads at once. Like {@code LongAdder} (which is not available on all supported
+ * Android versions), updates are spread over a number of cells picked by the id of the updating thread. The cells are padded to their
+ * own cache line so threads updating different cells don't contend. Reading the total sums all cells and is not atomic with respect
+ * to concurrent updates
+ *
+ * @author Nicola Verbeeck
+ */
+public final class StripedCounter {
+
+	private static final int CELL_SPACING = 8; // 8 longs per 64 byte cache line
+	private static final int MAX_STRIPES = 64;
+
+	private final AtomicLongArray mCells;
+	private final int mMask;
+
+	public StripedCounter() {
+		int stripes = 1;
+		final int processors = Runtime.getRuntime().availableProcessors();
+		while (stripes < processors && stripes < MAX_STRIPES) {
+			stripes <<= 1;
+		}
+		mCells = new AtomicLongArray(stripes * CELL_SPACING);
+		mMask = stripes - 1;
+	}
+
+	public void increment() {
+		add(1L);
+	}
+
+	public void add(final long delta) {
+		mCells.getAndAdd(cellIndex(), delta);
+	}
+
+	/**
+	 * @return The sum of all updates so far
+	 */
+	public long sum() {
+		long sum = 0L;
+		final int length = mCells.length();
+		for (int i = 0; i < length; i += CELL_SPACING) {
+			sum += mCells.get(i);
+		}
+		return sum;
+	}
+
+	private int cellIndex() {
+		final long id = Thread.currentThread().getId();
+		final int hash = (int) ((id * 0x9E3779B97F4A7C15L) >>> 32);
+		return (hash & mMask) * CELL_SPACING;
+	}
+
+}
@@ -0,0 +1,140 @@
+package com.icapps.niddler.util;
+
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hashed timer wheel that releases waiting threads once their delay has passed. A single ticker thread serves all waiters, so
+ * injecting delays in many concurrent requests does not cost a timer (or a sleeping thread with its own timeout) per delay. The
+ * ticker thread is only busy while there are pending waiters
+ *
+ * @author Nicola Verbeeck
+ */
+public final class TimerWheel {
+
+	private static final long TICK_MILLIS = 10L;
+	private static final int WHEEL_SIZE = 512;
+
+	private static TimerWheel sShared;
+
+	private final List<Waiter>[] mBuckets;
+	private final Object mLock = new Object();
+	private int mCursor;
+	private int mPending;
+	private Thread mTicker;
+
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	private TimerWheel() {
+		mBuckets = new List[WHEEL_SIZE];
+		for (int i = 0; i < WHEEL_SIZE; ++i) {
+			mBuckets[i] = new ArrayList<>();
+		}
+	}
+
+	/**
+	 * @return The timer wheel shared by all niddler components
+	 */
+	public static synchronized TimerWheel shared() {
+		if (sShared == null) {
+			sShared = new TimerWheel();
+		}
+		return sShared;
+	}
+
+	/**
+	 * Blocks the calling thread for (at least) the given delay, rounded up to the wheel's resolution of 10ms
+	 *
+	 * @param delayMillis The delay in milliseconds
+	 * @throws InterruptedIOException When the calling thread is interrupted while waiting
+	 */
+	public void await(final long delayMillis) throws InterruptedIOException {
+		if (delayMillis <= 0) {
+			return;
+		}
+		final long ticks = (delayMillis + TICK_MILLIS - 1) / TICK_MILLIS;
+		final Waiter waiter = new Waiter((ticks - 1) / WHEEL_SIZE);
+		synchronized (mLock) {
+			mBuckets[(int) ((mCursor + ticks) % WHEEL_SIZE)].add(waiter);
+			++mPending;
+			if (mTicker == null) {
+				mTicker = new Thread(new Runnable() {
+					@Override
+					public void run() {
+						tickLoop();
+					}
+				}, "Niddler-timer-wheel");
+				mTicker.setDaemon(true);
+				mTicker.start();
+			}
+			mLock.notifyAll();
+		}
+		try {
+			waiter.mLatch.await();
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting");
+		}
+	}
+
+	private void tickLoop() {
+		long nextTick = 0L;
+		//noinspection InfiniteLoopStatement
+		while (true) {
+			synchronized (mLock) {
+				while (mPending == 0) {
+					try {
+						mLock.wait();
+					} catch (final InterruptedException ignored) {
+						//Keep ticking
+					}
+					nextTick = 0L;
+				}
+			}
+			final long now = System.nanoTime();
+			if (nextTick == 0L) {
+				nextTick = now + TimeUnit.MILLISECONDS.toNanos(TICK_MILLIS);
+			}
+			if (nextTick > now) {
+				try {
+					Thread.sleep(TimeUnit.NANOSECONDS.toMillis(nextTick - now) + 1);
+				} catch (final InterruptedException ignored) {
+					//Keep ticking
+				}
+			}
+			nextTick += TimeUnit.MILLISECONDS.toNanos(TICK_MILLIS);
+			advance();
+		}
+	}
+
+	private void advance() {
+		synchronized (mLock) {
+			mCursor = (mCursor + 1) % WHEEL_SIZE;
+			final Iterator<Waiter> iterator = mBuckets[mCursor].iterator();
+			while (iterator.hasNext()) {
+				final Waiter waiter = iterator.next();
+				if (waiter.mRounds > 0) {
+					--waiter.mRounds;
+					continue;
+				}
+				iterator.remove();
+				--mPending;
+				waiter.mLatch.countDown();
+			}
+		}
+	}
+
+	private static final class Waiter {
+
+		final CountDownLatch mLatch = new CountDownLatch(1);
+		long mRounds;
+
+		Waiter(final long rounds) {
+			mRounds = rounds;
+		}
+	}
+
+}
@@ -0,0 +1,142 @@
+package com.icapps.niddler.util;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.Random;
+
+/**
+ * W3C trace context, as carried by the {@code traceparent} header: {@code version-traceId-parentId-flags}, eg:
+ * {@code 00-4bf92f3577b34da6a3ce929d0e0e4736-00f067aa0ba902b7-01}
+ *
+ * @author Nicola Verbeeck
+ */
+public final class TraceParent {
+
+	public static final String HEADER = "traceparent";
+
+	private static final int TRACE_ID_LENGTH = 32;
+	private static final int SPAN_ID_LENGTH = 16;
+	private static final int HEADER_LENGTH = 55;
+	private static final char[] HEX = "0123456789abcdef".toCharArray();
+	private static final Random RANDOM = new Random();
+
+	private final String mTraceId;
+	private final String mSpanId;
+	private final String mFlags;
+
+	private TraceParent(final String traceId, final String spanId, final String flags) {
+		mTraceId = traceId;
+		mSpanId = spanId;
+		mFlags = flags;
+	}
+
+	/**
+	 * Parses the value of a traceparent header
+	 *
+	 * @param header The header value
+	 * @return The trace context, null if the header is missing or invalid
+	 */
+	@Nullable
+	public static TraceParent parse(@Nullable final String header) {
+		if (header == null) {
+			return null;
+		}
+		final String value = header.trim();
+		if (value.length() < HEADER_LENGTH || value.charAt(2) != '-' || value.charAt(35) != '-' || value.charAt(52) != '-') {
+			return null;
+		}
+		final String version = value.substring(0, 2);
+		if (!isHex(version) || "ff".equals(version) || ("00".equals(version) && value.length() != HEADER_LENGTH)) {
+			return null;
+		}
+		if (value.length() > HEADER_LENGTH && value.charAt(HEADER_LENGTH) != '-') {
+			return null;
+		}
+		final String traceId = value.substring(3, 3 + TRACE_ID_LENGTH);
+		final String spanId = value.substring(36, 36 + SPAN_ID_LENGTH);
+		final String flags = value.substring(53, 55);
+		if (!isHex(traceId) || !isHex(spanId) || !isHex(flags) || isZero(traceId) || isZero(spanId)) {
+			return null;
+		}
+		return new TraceParent(traceId, spanId, flags);
+	}
+
+	/**
+	 * @return A new, sampled, trace with a random trace and span id
+	 */
+	@NonNull
+	public static TraceParent generate() {
+		return new TraceParent(randomId(TRACE_ID_LENGTH), randomId(SPAN_ID_LENGTH), "01");
+	}
+
+	/**
+	 * @return The 32 character hex id of the trace
+	 */
+	@NonNull
+	public String getTraceId() {
+		return mTraceId;
+	}
+
+	/**
+	 * @return The 16 character hex id of the span that made the call
+	 */
+	@NonNull
+	public String getSpanId() {
+		return mSpanId;
+	}
+
+	/**
+	 * @return True if the caller sampled (recorded) this trace
+	 */
+	public boolean isSampled() {
+		return (Character.digit(mFlags.charAt(1), 16) & 1) != 0;
+	}
+
+	/**
+	 * @return The value of the traceparent header for this context
+	 */
+	@NonNull
+	public String toHeader() {
+		return "00-" + mTraceId + '-' + mSpanId + '-' + mFlags;
+	}
+
+	private static String randomId(final int length) {
+		final char[] id = new char[length];
+		do {
+			for (int i = 0; i < length; i += 8) {
+				int random = RANDOM.nextInt();
+				for (int j = 0; j < 8; ++j) {
+					id[i + j] = HEX[random & 0xF];
+					random >>>= 4;
+				}
+			}
+		} while (isZero(id));
+		return new String(id);
+	}
+
+	private static boolean isHex(final String value) {
+		final int length = value.length();
+		for (int i = 0; i < length; ++i) {
+			final char c = value.charAt(i);
+			if (!((c >= '0' && c <= '9') || (c >= 'a' && c <= 'f'))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static boolean isZero(final String value) {
+		return isZero(value.toCharArray());
+	}
+
+	private static boolean isZero(final char[] value) {
+		for (final char c : value) {
+			if (c != '0') {
+				return false;
+			}
+		}
+		return true;
+	}
+
+}